@@ -0,0 +1,60 @@
+/*
+ *   This file is part of the computer assignment for the
+ *   Information Retrieval course at KTH.
+ *
+ *   Johan Boye, 2017
+ */
+
+package ir;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+
+/**
+ *   Reads the documents the benchmarks index: every file below a
+ *   directory, tokenized as the engine does with case folding and without
+ *   punctuation, in the order of their paths, so that every run gets the
+ *   same docIDs.
+ */
+final class BenchmarkCorpus {
+
+    private BenchmarkCorpus() {
+    }
+
+    /** The tokens of each document below dir. */
+    static String[][] read( String dir ) throws IOException {
+        ArrayList<String[]> result = new ArrayList<String[]>();
+        readFiles( new File( dir ), result );
+        return result.toArray( new String[0][] );
+    }
+
+    /**
+     *  Tokenizes the files below f.
+     */
+    static void readFiles( File f, List<String[]> result ) throws IOException {
+        if ( f.canRead() ) {
+            if ( f.isDirectory() ) {
+                String[] fs = f.list();
+                if ( fs != null ) {
+                    Arrays.sort( fs );
+                    for ( int i=0; i<fs.length; i++ ) {
+                        readFiles( new File( f, fs[i] ), result );
+                    }
+                }
+            } else {
+                try ( Reader reader = new InputStreamReader( new FileInputStream( f ), StandardCharsets.UTF_8 )) {
+                    Tokenizer tok = new Tokenizer( reader, true, false, true, null );
+                    ArrayList<String> tokens = new ArrayList<String>();
+                    while ( tok.hasMoreTokens() ) {
+                        tokens.add( tok.nextToken() );
+                    }
+                    result.add( tokens.toArray( new String[0] ));
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,337 @@
+/*
+ *   This file is part of the computer assignment for the
+ *   Information Retrieval course at KTH.
+ *
+ *   Johan Boye, 2017
+ */
+
+package ir;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.*;
+
+
+/**
+ *   Checks the data structures of the index against simple reference
+ *   implementations on random data: ranked queries over docIDs with gaps,
+ *   intersection queries against set intersection, merging many postings
+ *   lists against merging them two at a time, the variable-byte
+ *   codec by a round trip, the term dictionaries by looking up every
+ *   term after writing them to disk, and the counters of the postings cache.
+ *   Prints every failure, and exits with status 1 if there was one.
+ *
+ *   Usage: DataStructureTest [seed]
+ */
+public class DataStructureTest {
+
+    final Random random;
+    int checks = 0;
+    int failures = 0;
+
+
+    DataStructureTest( long seed ) {
+        random = new Random( seed );
+    }
+
+    void check( boolean ok, String what ) {
+        checks++;
+        if ( !ok ) {
+            failures++;
+            System.err.println( "FAILED: " + what );
+        }
+    }
+
+
+    /** The docIDs of a list, or none if it is null. */
+    static List<Integer> docIDs( PostingsList list ) {
+        ArrayList<Integer> result = new ArrayList<Integer>();
+        for ( int i=0; list != null && i<list.size(); i++ ) {
+            result.add( list.getDocID( i ));
+        }
+        return result;
+    }
+
+    /** Random documents of words w0, w1, ..., the lower ones more frequent. */
+    String[][] randomDocs( int n, int words ) {
+        String[][] docs = new String[n][];
+        for ( int d=0; d<n; d++ ) {
+            docs[d] = new String[1 + random.nextInt( 60 )];
+            for ( int i=0; i<docs[d].length; i++ ) {
+                double u = random.nextDouble();
+                docs[d][i] = "w" + (int) (u*u*words);
+            }
+        }
+        return docs;
+    }
+
+    static HashedIndex buildIndex( String[][] docs ) {
+        HashedIndex index = new HashedIndex();
+        for ( int d=0; d<docs.length; d++ ) {
+            for ( int i=0; i<docs[d].length; i++ ) {
+                index.insert( docs[d][i], d, i );
+            }
+            index.getDocumentStore().add( d, "doc" + d, docs[d].length );
+        }
+        index.cleanup();
+        return index;
+    }
+
+
+    /**
+     *  Ranked queries on an index whose docIDs have a gap, as when a file
+     *  fails to be read after its docID is taken. The accumulator must
+     *  have room for the largest docID, not just the number of documents.
+     */
+    void testGappedDocIDs() {
+        HashedIndex index = new HashedIndex();
+        String[][] docs = { { "alpha", "beta" }, null, { "alpha", "gamma", "beta" } };
+        for ( int d=0; d<docs.length; d++ ) {
+            if ( docs[d] == null ) {
+                continue;
+            }
+            for ( int i=0; i<docs[d].length; i++ ) {
+                index.insert( docs[d][i], d, i );
+            }
+            index.getDocumentStore().add( d, "doc" + d, docs[d].length );
+        }
+        index.cleanup();
+        Searcher searcher = new Searcher( index, null, null );
+        for ( String query : new String[] { "alpha", "alpha beta", "gamma alpha" } ) {
+            for ( int k : new int[] { 0, 10 } ) {
+                List<Integer> result;
+                try {
+                    result = docIDs( searcher.search( new Query( query ), QueryType.RANKED_QUERY, RankingType.TF_IDF, NormalizationType.NUMBER_OF_WORDS, k ));
+                    Collections.sort( result );
+                } catch ( RuntimeException e ) {
+                    result = null;
+                    e.printStackTrace();
+                }
+                check( Arrays.asList( 0, 2 ).equals( result ), "ranked query " + query + " with k=" + k + " over docIDs 0 and 2" );
+            }
+        }
+    }
+
+
+    /** Intersection queries, which skip ahead in the lists, against set intersection. */
+    void testIntersection() {
+        String[][] docs = randomDocs( 3000, 400 );
+        Searcher searcher = new Searcher( buildIndex( docs ), null, null );
+        for ( int q=0; q<300; q++ ) {
+            String[] terms = new String[2 + random.nextInt( 3 )];
+            for ( int i=0; i<terms.length; i++ ) {
+                double u = random.nextDouble();
+                terms[i] = "w" + (int) (u*u*u*400);
+            }
+            ArrayList<Integer> expected = new ArrayList<Integer>();
+            for ( int d=0; d<docs.length; d++ ) {
+                if ( new HashSet<String>( Arrays.asList( docs[d] )).containsAll( Arrays.asList( terms ))) {
+                    expected.add( d );
+                }
+            }
+            String query = String.join( " ", terms );
+            PostingsList result = searcher.search( new Query( query ), QueryType.INTERSECTION_QUERY, RankingType.TF_IDF, NormalizationType.NUMBER_OF_WORDS, 0 );
+            check( expected.equals( docIDs( result )), "intersection of " + query );
+        }
+    }
+
+
+    /** A random list with the given number of postings, over docIDs of the given range. */
+    PostingsList randomList( int df, int range ) {
+        TreeSet<Integer> ids = new TreeSet<Integer>();
+        while ( ids.size() < df ) {
+            ids.add( random.nextInt( range ));
+        }
+        PostingsList list = new PostingsList();
+        for ( int docID : ids ) {
+            int offset = random.nextInt( 5 );
+            for ( int tf=1+random.nextInt( 4 ); tf>0; tf-- ) {
+                list.add( docID, offset );
+                offset += 1 + random.nextInt( 1000 );
+            }
+        }
+        return list;
+    }
+
+    static boolean sameOffsets( PostingsEntry a, PostingsEntry b ) {
+        if ( a.docID != b.docID || a.offsetCount() != b.offsetCount() ) {
+            return false;
+        }
+        for ( int j=0; j<a.offsetCount(); j++ ) {
+            if ( a.getOffset( j ) != b.getOffset( j )) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Merging many lists at once gives what merging them two at a time does, and leaves them as they were. */
+    void testMerge() {
+        for ( int k : new int[] { 2, 3, 10, 100 } ) {
+            ArrayList<PostingsList> lists = new ArrayList<PostingsList>();
+            for ( int i=0; i<k; i++ ) {
+                lists.add( randomList( random.nextInt( 4 ) == 0 ? 0 : 1 + random.nextInt( 300 ), 1000 ));
+            }
+            PostingsList expected = lists.get( 0 ).getCopy();
+            for ( int i=1; i<k; i++ ) {
+                expected = PostingsList.merge( expected, lists.get( i ).getCopy() );
+            }
+            ArrayList<PostingsList> before = new ArrayList<PostingsList>();
+            for ( PostingsList list : lists ) {
+                before.add( list.getCopy() );
+            }
+            PostingsList merged = PostingsList.merge( lists );
+            boolean same = merged.size() == expected.size();
+            for ( int i=0; same && i<merged.size(); i++ ) {
+                same = merged.getDocID( i ) == merged.get( i ).docID && sameOffsets( expected.get( i ), merged.get( i ));
+            }
+            check( same, "merge of " + k + " lists" );
+            boolean unchanged = true;
+            for ( int i=0; i<k; i++ ) {
+                for ( int j=0; unchanged && j<lists.get( i ).size(); j++ ) {
+                    unchanged = sameOffsets( before.get( i ).get( j ), lists.get( i ).get( j ));
+                }
+            }
+            check( unchanged, "merge of " + k + " lists leaves them unchanged" );
+        }
+    }
+
+
+    /** Encoding and decoding, in full and for some candidates, gives back the postings. */
+    void testVByte() {
+        VByteCodec codec = new VByteCodec();
+        int[] sizes = { 0, 1, 2, VByteCodec.BLOCKSIZE - 1, VByteCodec.BLOCKSIZE, VByteCodec.BLOCKSIZE + 1, 1000, 20000 };
+        for ( int df : sizes ) {
+            PostingsList list = randomList( df, Math.max( 1, 3*df ) + (random.nextBoolean() ? 0 : 1 << 30) );
+            byte[] bytes = codec.encode( list );
+            check( codec.documentFrequency( ByteBuffer.wrap( bytes )) == df, "document frequency of " + df + " postings" );
+            PostingsList decoded = codec.decode( ByteBuffer.wrap( bytes ));
+            boolean same = decoded.size() == df;
+            for ( int i=0; same && i<df; i++ ) {
+                same = sameOffsets( list.get( i ), decoded.get( i ));
+            }
+            check( same, "round trip of " + df + " postings" );
+
+            // Every docID of the list is a candidate with probability 1/8, and some others too
+            PostingsList candidates = new PostingsList();
+            ArrayList<PostingsEntry> expected = new ArrayList<PostingsEntry>();
+            int lastDocID = df == 0 ? 0 : list.getDocID( df-1 );
+            for ( int i=0; i<df; i++ ) {
+                int docID = list.getDocID( i );
+                if ( i > 0 && random.nextInt( 8 ) == 0 && list.getDocID( i-1 ) < docID - 1 ) {
+                    candidates.add( docID - 1, 0 );
+                }
+                if ( random.nextInt( 8 ) == 0 ) {
+                    candidates.add( docID, 0 );
+                    expected.add( list.get( i ));
+                }
+            }
+            candidates.add( lastDocID + 1, 0 );
+            PostingsList filtered = codec.decode( ByteBuffer.wrap( bytes ), candidates );
+            same = filtered.size() == expected.size();
+            for ( int i=0; same && i<expected.size(); i++ ) {
+                same = sameOffsets( expected.get( i ), filtered.get( i ));
+            }
+            check( same, "decoding " + candidates.size() + " candidates of " + df + " postings" );
+        }
+    }
+
+
+    /** Every term put in a dictionary is found after it is written and opened again, and no other. */
+    void testDictionaries() throws IOException {
+        TreeMap<String,long[]> terms = new TreeMap<String,long[]>();
+        while ( terms.size() < 5000 ) {
+            StringBuilder term = new StringBuilder();
+            for ( int i=1+random.nextInt( 10 ); i>0; i-- ) {
+                term.append( (char) ('a' + random.nextInt( 6 )));
+            }
+            terms.put( term.toString(), new long[] { random.nextInt( Integer.MAX_VALUE ) * 16L, 1 + random.nextInt( 100000 ) } );
+        }
+        ArrayList<String> absent = new ArrayList<String>();
+        while ( absent.size() < 1000 ) {
+            String term = "x" + random.nextInt( 1000000 );
+            if ( !terms.containsKey( term )) {
+                absent.add( term );
+            }
+        }
+
+        File file = File.createTempFile( "dictionary", ".tmp" );
+        file.deleteOnExit();
+        try ( RandomAccessFile raf = new RandomAccessFile( file, "rw" )) {
+            SortedTermDictionary sorted = new SortedTermDictionary();
+            for ( Map.Entry<String,long[]> e : terms.entrySet() ) {
+                sorted.put( e.getKey(), e.getValue()[0], (int) e.getValue()[1] );
+            }
+            sorted.write( raf );
+            checkDictionary( "sorted", SortedTermDictionary.open( new MappedFile( raf )), terms, absent );
+
+            HashedDictionary hashed = new HashedDictionary( terms.size(), 0.75f );
+            for ( Map.Entry<String,long[]> e : terms.entrySet() ) {
+                hashed.put( HashedDictionary.checksum( e.getKey() ), e.getValue()[0], (int) e.getValue()[1] );
+            }
+            hashed.write( raf );
+            checkDictionary( "hashed", HashedDictionary.open( new MappedFile( raf )), terms, absent );
+        }
+    }
+
+    void checkDictionary( String name, TermDictionary dict, TreeMap<String,long[]> terms, List<String> absent ) {
+        check( dict.termCount() == terms.size(), name + " dictionary term count" );
+        HashSet<Integer> ordinals = new HashSet<Integer>();
+        int wrong = 0;
+        for ( Map.Entry<String,long[]> e : terms.entrySet() ) {
+            PersistentHashedIndex.Entry entry = dict.get( e.getKey() );
+            if ( entry == null || entry.dataPtr != e.getValue()[0] || entry.dataSize != e.getValue()[1] ||
+                 entry.ordinal < 0 || entry.ordinal >= dict.ordinalCount() || !ordinals.add( entry.ordinal )) {
+                wrong++;
+            }
+        }
+        check( wrong == 0, name + " dictionary lookup, " + wrong + " of " + terms.size() + " terms wrong" );
+        int found = 0;
+        for ( String term : absent ) {
+            if ( dict.get( term ) != null ) {
+                found++;
+            }
+        }
+        check( found == 0, name + " dictionary lookup, " + found + " absent terms found" );
+        if ( dict instanceof SortedTermDictionary ) {
+            for ( String prefix : new String[] { "a", "bc", "fed", "abcabc", "z" } ) {
+                List<String> expected = new ArrayList<String>( terms.subMap( prefix, prefix + Character.MAX_VALUE ).keySet() );
+                check( expected.equals( dict.matchingTerms( prefix + "*" )), name + " dictionary terms matching " + prefix + "*" );
+            }
+        }
+    }
+
+
+    /** A lookup that decodes the list is a miss, one that finds it a hit, and a partial lookup neither. */
+    void testPostingsCache() {
+        PostingsCache cache = new PostingsCache( PostingsCache.DEFAULT_CAPACITY );
+        PostingsList list = randomList( 100, 1000 );
+        PostingsList first = cache.get( "a", term -> list );
+        PostingsList second = cache.get( "a", term -> null );
+        check( first == list && second == list, "postings cache gives the list it loaded" );
+        check( cache.getIfPresent( "b" ) == null, "postings cache has no list it did not load" );
+        check( cache.hits() == 1 && cache.misses() == 1, "postings cache counts 1 hit and 1 miss, not " + cache );
+    }
+
+
+    void run() throws IOException {
+        testGappedDocIDs();
+        testIntersection();
+        testMerge();
+        testVByte();
+        testDictionaries();
+        testPostingsCache();
+        System.out.println( checks + " checks, " + failures + " failed" );
+    }
+
+
+    public static void main( String[] args ) throws IOException {
+        DataStructureTest t = new DataStructureTest( args.length > 0 ? Long.parseLong( args[0] ) : 1 );
+        t.run();
+        if ( t.failures > 0 ) {
+            System.exit( 1 );
+        }
+    }
+}
@@ -0,0 +1,17 @@
+/*  
+ *   This file is part of the computer assignment for the
+ *   Information Retrieval course at KTH.
+ * 
+ *   Johan Boye, 2017
+ */  
+
+package ir;
+
+/**
+ *  The different kinds of on-disk dictionaries of a persistent index.
+ *  A hashed dictionary only supports exact lookups; a sorted dictionary
+ *  also supports prefix and wildcard lookups.
+ */
+public enum DictionaryType {
+    HASHED, SORTED
+}
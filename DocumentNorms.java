@@ -0,0 +1,162 @@
+/*
+ *   This file is part of the computer assignment for the
+ *   Information Retrieval course at KTH.
+ *
+ *   Johan Boye, 2017
+ */
+
+package ir;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+
+/**
+ *   Computes and stores the Euclidean lengths of the documents of an index,
+ *   the norms of their tf-idf vectors.
+ *
+ *   The norms are computed from the postings lists, not from the documents:
+ *   every list adds (tf*idf)^2 to the documents it contains. The index is
+ *   split into a fixed number of parts that are summed by a pool of threads,
+ *   and the partial sums are added up in part order, so the result does not
+ *   depend on the number of threads.
+ *
+ *   The norms file records a stamp of the index they were computed for, so
+ *   norms that no longer match the index are detected and recomputed.
+ *   <pre>
+ *     int MAGIC, int VERSION, long stamp, int number of docIDs
+ *     double norm for every docID
+ *   </pre>
+ */
+public class DocumentNorms {
+
+    /** Identifies a norms file. */
+    public static final int MAGIC = 0x4e524d53;
+
+    /** The version of the file layout. */
+    public static final int VERSION = 1;
+
+    /** The size of the header in bytes. */
+    public static final int HEADERSIZE = 4 + 4 + 8 + 4;
+
+    /** The number of parts the index is split into. */
+    static final int PARTS = 16;
+
+
+    /**
+     *  Computes the Euclidean length of every document in the index, using
+     *  all available processors.
+     *
+     *  @return The norms indexed by docID, 0 for docIDs without a document
+     */
+    public static double[] compute( Index index ) {
+        return compute( index, Runtime.getRuntime().availableProcessors() );
+    }
+
+    /**
+     *  Computes the Euclidean length of every document in the index.
+     *
+     *  @param threads The number of threads to use
+     *  @return The norms indexed by docID, 0 for docIDs without a document
+     *  @throws IllegalStateException if a thread fails, or the computation is interrupted
+     */
+    public static double[] compute( Index index, int threads ) {
+        DocumentStore documents = index.getDocumentStore();
+        final int nbDocIDs = documents.capacity();
+        final int N = documents.size();
+        ExecutorService pool = Executors.newFixedThreadPool( Math.max( 1, Math.min( threads, PARTS )));
+        ArrayList<Future<double[]>> parts = new ArrayList<Future<double[]>>();
+        for ( int p=0; p<PARTS; p++ ) {
+            final int part = p;
+            parts.add( pool.submit( () -> {
+                double[] sums = new double[nbDocIDs];
+                index.forEachPostings( part, PARTS, list -> {
+                    float frac = ((float) N)/((float) list.size());
+                    float idf = (float) Math.log(frac);
+                    for ( int i=0; i<list.size(); i++ ) {
+                        float w = list.get( i ).offsetCount() * idf;
+                        sums[list.getDocID( i )] += (double) w*w;
+                    }
+                });
+                return sums;
+            }));
+        }
+        double[] norms = new double[nbDocIDs];
+        try {
+            for ( Future<double[]> part : parts ) {
+                double[] sums = part.get();
+                for ( int d=0; d<nbDocIDs; d++ ) {
+                    norms[d] += sums[d];
+                }
+            }
+        } catch ( InterruptedException e ) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException( "Computing the norms was interrupted", e );
+        } catch ( ExecutionException e ) {
+            throw new IllegalStateException( "Computing the norms failed", e.getCause() );
+        } finally {
+            pool.shutdownNow();
+        }
+        for ( int d=0; d<nbDocIDs; d++ ) {
+            norms[d] = Math.sqrt( norms[d] );
+        }
+        return norms;
+    }
+
+
+    /**
+     *  Writes norms to a file, replacing it.
+     *
+     *  @param stamp Identifies the index the norms were computed for
+     */
+    public static void write( File file, long stamp, double[] norms ) throws IOException {
+        File tmp = new File( file.getPath() + ".tmp" );
+        try ( DataOutputStream out = new DataOutputStream( new BufferedOutputStream( new FileOutputStream( tmp ), 1 << 16 ))) {
+            out.writeInt( MAGIC );
+            out.writeInt( VERSION );
+            out.writeLong( stamp );
+            out.writeInt( norms.length );
+            for ( int d=0; d<norms.length; d++ ) {
+                out.writeDouble( norms[d] );
+            }
+        }
+        Files.move( tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE );
+    }
+
+    /**
+     *  Reads norms from a file.
+     *
+     *  @param stamp Identifies the current index
+     *  @return The norms, or null if there is no norms file or it was
+     *          written for another index
+     */
+    public static double[] read( File file, long stamp ) throws IOException {
+        if ( !file.exists() ) {
+            return null;
+        }
+        MappedFile mapped;
+        try ( RandomAccessFile raf = new RandomAccessFile( file, "r" )) {
+            mapped = new MappedFile( raf );
+        }
+        if ( mapped.length() < HEADERSIZE || mapped.getInt( 0 ) != MAGIC || mapped.getInt( 4 ) != VERSION ) {
+            return null;
+        }
+        if ( mapped.getLong( 8 ) != stamp ) {
+            return null;
+        }
+        double[] norms = new double[mapped.getInt( 16 )];
+        mapped.slice( HEADERSIZE, 8*norms.length ).asDoubleBuffer().get( norms );
+        return norms;
+    }
+}
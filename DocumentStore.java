@@ -0,0 +1,317 @@
+/*
+ *   This file is part of the computer assignment for the
+ *   Information Retrieval course at KTH.
+ *
+ *   Johan Boye, 2017
+ */
+
+package ir;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.HashMap;
+
+
+/**
+ *   The metadata of the documents of one index: their names, their lengths
+ *   in tokens and their Euclidean lengths, all indexed by docID. The
+ *   Euclidean lengths are not written with the store, see DocumentNorms.
+ *
+ *   The lengths are kept in primitive arrays, and the names as UTF-8 in one
+ *   byte pool, so a document costs about 20 bytes plus its name. A store
+ *   that has been read from disk keeps its name pool in the mapped file
+ *   until a document is added.
+ *
+ *   File layout:
+ *   <pre>
+ *     int MAGIC, int VERSION, int capacity, int number of documents, long pool size
+ *     capacity times:  int length
+ *     capacity times:  int name offset
+ *     capacity times:  int name size (0 if there is no document with that docID)
+ *     the name pool
+ *   </pre>
+ */
+public class DocumentStore {
+
+    /** Identifies a document store file. */
+    public static final int MAGIC = 0x444f4353;
+
+    /** The version of the file layout. */
+    public static final int VERSION = 2;
+
+    /** The size of the header in bytes. */
+    public static final int HEADERSIZE = 4 + 4 + 4 + 4 + 8;
+
+    /** The number of docIDs there is room for. */
+    private int capacity;
+
+    /** The number of documents. */
+    private int docCount = 0;
+
+    /** The length of each document, in tokens. */
+    private int[] lengths;
+
+    /** The Euclidean length of each document, or 0 if it has not been computed. */
+    private double[] euclideanLengths;
+
+    /** Where the name of each document starts in the pool. */
+    private int[] nameOffsets;
+
+    /** The size in bytes of the name of each document, 0 if there is no such document. */
+    private int[] nameSizes;
+
+    /** The names of the documents, in UTF-8. */
+    private byte[] pool;
+    private int poolSize = 0;
+
+    /** The pool of a store read from disk, and where it starts in the file. */
+    private MappedFile mapped;
+    private long mappedPoolPtr;
+
+    /** DocIDs by file name, built when first needed. */
+    private HashMap<String,Integer> idsByFileName;
+
+
+    public DocumentStore() {
+        this( 1024 );
+    }
+
+    private DocumentStore( int capacity ) {
+        this.capacity = capacity;
+        lengths = new int[capacity];
+        euclideanLengths = new double[capacity];
+        nameOffsets = new int[capacity];
+        nameSizes = new int[capacity];
+        pool = new byte[16*capacity];
+    }
+
+
+    /**
+     *  Reads a store from the given file. The arrays are read into memory,
+     *  the names stay in the mapped file.
+     *
+     *  @throws IOException if the file is not a document store
+     */
+    public static DocumentStore read( File file ) throws IOException {
+        MappedFile mapped;
+        try ( RandomAccessFile raf = new RandomAccessFile( file, "r" )) {
+            mapped = new MappedFile( raf );
+        }
+        if ( mapped.length() < HEADERSIZE || mapped.getInt( 0 ) != MAGIC ) {
+            throw new IOException( "Not a document store: " + file );
+        }
+        if ( mapped.getInt( 4 ) != VERSION ) {
+            throw new IOException( "Unsupported document store version " + mapped.getInt( 4 ));
+        }
+        int capacity = mapped.getInt( 8 );
+        DocumentStore store = new DocumentStore( 0 );
+        store.capacity = capacity;
+        store.docCount = mapped.getInt( 12 );
+        store.poolSize = (int) mapped.getLong( 16 );
+        long ptr = HEADERSIZE;
+        store.lengths = new int[capacity];
+        mapped.slice( ptr, 4*capacity ).asIntBuffer().get( store.lengths );
+        ptr += 4L*capacity;
+        store.euclideanLengths = new double[capacity];
+        store.nameOffsets = new int[capacity];
+        mapped.slice( ptr, 4*capacity ).asIntBuffer().get( store.nameOffsets );
+        ptr += 4L*capacity;
+        store.nameSizes = new int[capacity];
+        mapped.slice( ptr, 4*capacity ).asIntBuffer().get( store.nameSizes );
+        ptr += 4L*capacity;
+        store.mapped = mapped;
+        store.mappedPoolPtr = ptr;
+        return store;
+    }
+
+
+    /**
+     *  Writes the store to the given file. The file is replaced, not
+     *  overwritten, so a store mapped from it stays readable.
+     */
+    public void write( File file ) throws IOException {
+        // Leave out the unused room at the end of the arrays
+        int limit = capacity;
+        while ( limit > 0 && nameSizes[limit-1] == 0 ) {
+            limit--;
+        }
+        File tmp = new File( file.getPath() + ".tmp" );
+        try ( DataOutputStream out = new DataOutputStream( new BufferedOutputStream( new FileOutputStream( tmp ), 1 << 16 ))) {
+            out.writeInt( MAGIC );
+            out.writeInt( VERSION );
+            out.writeInt( limit );
+            out.writeInt( docCount );
+            out.writeLong( poolSize );
+            for ( int i=0; i<limit; i++ ) {
+                out.writeInt( lengths[i] );
+            }
+            for ( int i=0; i<limit; i++ ) {
+                out.writeInt( nameOffsets[i] );
+            }
+            for ( int i=0; i<limit; i++ ) {
+                out.writeInt( nameSizes[i] );
+            }
+            if ( mapped != null ) {
+                ByteBuffer names = mapped.slice( mappedPoolPtr, poolSize );
+                byte[] buf = new byte[1 << 16];
+                while ( names.hasRemaining() ) {
+                    int n = Math.min( buf.length, names.remaining() );
+                    names.get( buf, 0, n );
+                    out.write( buf, 0, n );
+                }
+            } else {
+                out.write( pool, 0, poolSize );
+            }
+        }
+        Files.move( tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE );
+    }
+
+
+    // ==================================================================
+
+
+    /**
+     *  Adds a document, or replaces the one with the same docID.
+     *
+     *  @param docID The docID of the document
+     *  @param name The path of the document, not empty
+     *  @param length The number of tokens in the document
+     */
+    public void add( int docID, String name, int length ) {
+        if ( name.isEmpty() ) {
+            throw new IllegalArgumentException( "Empty document name" );
+        }
+        if ( mapped != null ) {
+            // Bring the names into memory before changing them
+            pool = new byte[Math.max( 16, poolSize + (poolSize >> 1) )];
+            mapped.slice( mappedPoolPtr, poolSize ).get( pool, 0, poolSize );
+            mapped = null;
+        }
+        ensureCapacity( docID+1 );
+        byte[] bytes = name.getBytes( StandardCharsets.UTF_8 );
+        if ( poolSize + bytes.length > pool.length ) {
+            pool = Arrays.copyOf( pool, Math.max( poolSize + bytes.length, pool.length + (pool.length >> 1) ));
+        }
+        System.arraycopy( bytes, 0, pool, poolSize, bytes.length );
+        if ( nameSizes[docID] == 0 ) {
+            docCount++;
+        }
+        nameOffsets[docID] = poolSize;
+        nameSizes[docID] = bytes.length;
+        poolSize += bytes.length;
+        lengths[docID] = length;
+        idsByFileName = null;
+    }
+
+    private void ensureCapacity( int minCapacity ) {
+        if ( minCapacity > capacity ) {
+            int newCapacity = Math.max( minCapacity, capacity + (capacity >> 1) + 1 );
+            lengths = Arrays.copyOf( lengths, newCapacity );
+            euclideanLengths = Arrays.copyOf( euclideanLengths, newCapacity );
+            nameOffsets = Arrays.copyOf( nameOffsets, newCapacity );
+            nameSizes = Arrays.copyOf( nameSizes, newCapacity );
+            capacity = newCapacity;
+        }
+    }
+
+    /**
+     *  Sets the Euclidean lengths of all documents.
+     *
+     *  @param norms The Euclidean lengths indexed by docID
+     */
+    public void setEuclideanLengths( double[] norms ) {
+        ensureCapacity( norms.length );
+        System.arraycopy( norms, 0, euclideanLengths, 0, norms.length );
+    }
+
+    /** Sets the Euclidean length of a document. */
+    public void setEuclideanLength( int docID, double length ) {
+        ensureCapacity( docID+1 );
+        euclideanLengths[docID] = length;
+    }
+
+
+    // ==================================================================
+
+
+    /** The number of documents. */
+    public int size() {
+        return docCount;
+    }
+
+    /** One more than the largest docID there is room for. */
+    public int capacity() {
+        return capacity;
+    }
+
+    /** Returns true if there is a document with the given docID. */
+    public boolean contains( int docID ) {
+        return docID >= 0 && docID < capacity && nameSizes[docID] != 0;
+    }
+
+    /** The path of a document, or null if there is no such document. */
+    public String name( int docID ) {
+        if ( !contains( docID )) {
+            return null;
+        }
+        int size = nameSizes[docID];
+        if ( mapped != null ) {
+            byte[] bytes = new byte[size];
+            mapped.slice( mappedPoolPtr + nameOffsets[docID], size ).get( bytes );
+            return new String( bytes, StandardCharsets.UTF_8 );
+        }
+        return new String( pool, nameOffsets[docID], size, StandardCharsets.UTF_8 );
+    }
+
+    /** The length of a document in tokens. */
+    public int length( int docID ) {
+        return lengths[docID];
+    }
+
+    /** The Euclidean length of a document, or 0 if it has not been computed. */
+    public double euclideanLength( int docID ) {
+        return euclideanLengths[docID];
+    }
+
+    /**
+     *  The lengths in tokens, indexed by docID. The array is shared with
+     *  the store and only valid until the next document is added.
+     */
+    public int[] lengths() {
+        return lengths;
+    }
+
+    /**
+     *  The Euclidean lengths, indexed by docID. The array is shared with
+     *  the store and only valid until the next document is added.
+     */
+    public double[] euclideanLengths() {
+        return euclideanLengths;
+    }
+
+    /**
+     *  Returns the docID of the document with the given file name, without
+     *  its directories, or -1 if there is none.
+     */
+    public synchronized int docID( String fileName ) {
+        if ( idsByFileName == null ) {
+            idsByFileName = new HashMap<String,Integer>( 2*docCount );
+            for ( int docID=0; docID<capacity; docID++ ) {
+                if ( contains( docID )) {
+                    idsByFileName.put( HITSRanker.getFileName( name( docID )), docID );
+                }
+            }
+        }
+        Integer docID = idsByFileName.get( fileName );
+        return docID == null ? -1 : docID;
+    }
+}
@@ -9,22 +9,21 @@ package ir;
 
 import java.util.ArrayList;
 import java.util.Map.Entry;
-import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileReader;
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.net.InetAddress;
 
 /**
  *  This is the main class for the search engine.
  */
 public class Engine {
 
-    /** The inverted index. */
+    /** The inverted index that is searched. Replaced when indexing is done, see publish. */
     //Index index = new HashedIndex();
 //    Index index = new PersistentHashedIndex();
 //    Index index = new PersistentScalableHashedIndex();
-	Index index;
+	volatile Index index;
 
     /** The indexer creating the search index. */
     Indexer indexer;
@@ -32,21 +31,30 @@ public class Engine {
     /** K-gram index */
     KGramIndex kgIndex;
 
-    /** The searcher used to search the index. */
-    Searcher searcher;
+    /**
+     *  The searcher used to search the index. Queries read it once, and keep
+     *  searching the same index even if a new one is published meanwhile.
+     */
+    volatile Searcher searcher;
 
     /** Spell checker */
     SpellChecker speller;
 
-    /** The engine GUI. */
+    /** The engine GUI, or null if the engine runs as a query server. */
     SearchGUI gui;
 
+    /** The query server, or null if the engine runs with the GUI. */
+    QueryServer server;
+
+    /** The port of the query server, or -1 to run with the GUI. */
+    int server_port = -1;
+
+    /** The address the query server answers on, or null for the loopback interface only. */
+    String server_address = null;
+
     /** Directories that should be indexed. */
     ArrayList<String> dirNames = new ArrayList<String>();
 
-    /** Lock to prevent simultaneous access to the index. */
-    Object indexLock = new Object();
-
     /** The patterns matching non-standard words (e-mail addresses, etc.) */
     String patterns_file = null;
 
@@ -59,6 +67,30 @@ public class Engine {
     /** For persistent indexes, we might not need to do any indexing. */
     boolean is_indexing = true;
 
+    /** The number of threads tokenizing files while indexing. */
+    int indexing_threads = 1;
+
+    /** The dictionary used by persistent indexes. */
+    DictionaryType dictionaryType = DictionaryType.HASHED;
+
+    /** The megabytes of the cache of ranked results, or 0 for no cache. */
+    int cache_mb = 32;
+
+    /** The cache of ranked results, shared by the searchers of all published indexes. */
+    QueryCache cache;
+
+    /** The megabytes of the postings cache of a persistent index, or 0 for no cache. */
+    int postings_cache_mb = (int) (PostingsCache.DEFAULT_CAPACITY / (1024*1024));
+
+    /** A log of queries, one per line, whose most frequent terms are pinned in the postings cache. */
+    String pin_file = null;
+
+    /** The number of terms pinned in the postings cache. */
+    int pin_count = 0;
+
+    /** If true, the searcher prints how it evaluates queries. */
+    boolean debug = false;
+
 	private HITSRanker hitsRanker;
 
 
@@ -67,71 +99,113 @@ public class Engine {
 
     /**  
      *   Constructor. 
-     *   Indexes all chosen directories and files
+     *   Indexes all chosen directories and files. With -server port, queries
+     *   are answered over HTTP by a QueryServer instead of the GUI; both
+     *   search through the same searcher. The server only answers on the
+     *   loopback interface, unless another address is given with -bind.
      */
     public Engine( String[] args ) {
         decodeArgs( args );
-//        Index index = new PersistentScalableHashedIndex(is_indexing);
-        Index index = new HashedIndex();
-//      Index index = new PersistentHashedIndex();
-        indexer = new Indexer( index, kgIndex, patterns_file );
-        hitsRanker = new HITSRanker("linksDavis.txt", "davisTitles.txt", index );
-        searcher = new Searcher( index, kgIndex, hitsRanker );
-        gui = new SearchGUI( this );
-        gui.init();
+//        Index building = new PersistentScalableHashedIndex(is_indexing, dictionaryType);
+        Index building = new HashedIndex();
+//      Index building = new PersistentHashedIndex(dictionaryType);
+        if ( building instanceof PersistentHashedIndex ) {
+            setUpPostingsCache( (PersistentHashedIndex) building );
+        }
+        indexer = new Indexer( building, kgIndex, patterns_file, indexing_threads );
+        hitsRanker = new HITSRanker("linksDavis.txt", "davisTitles.txt", building );
+        if ( cache_mb > 0 ) {
+            cache = new QueryCache( cache_mb * 1024L * 1024L );
+        }
         /* 
-         *   Calls the indexer to index the chosen directory structure.
-         *   Access to the index is synchronized since we don't want to 
-         *   search at the same time we're indexing new files (this might 
-         *   corrupt the index).
+         *   The index being built is not searched until indexing is done.
+         *   Until then, queries search an empty index, and they never wait
+         *   for the indexer.
          */
+        publish( is_indexing ? new HashedIndex() : building );
+        if ( server_port >= 0 ) {
+            try {
+                InetAddress address = server_address == null ? InetAddress.getLoopbackAddress() : InetAddress.getByName( server_address );
+                server = new QueryServer( this, address, server_port );
+                server.start();
+                System.err.println( "Answering queries on " + address.getHostAddress() + " port " + server.getPort() );
+            } catch ( IOException e ) {
+                e.printStackTrace();
+                return;
+            }
+        } else {
+            gui = new SearchGUI( this );
+            gui.init();
+        }
         if (is_indexing) {
-            synchronized ( indexLock ) {
-                gui.displayInfoText( "Indexing, please wait..." );
-                long startTime = System.currentTimeMillis();
+            displayInfoText( "Indexing, please wait..." );
+            long startTime = System.currentTimeMillis();
+            try {
                 for ( int i=0; i<dirNames.size(); i++ ) {
                     File dokDir = new File( dirNames.get( i ));
                     indexer.processFiles( dokDir, is_indexing );
                 }
-                long elapsedTime = System.currentTimeMillis() - startTime;
-                gui.displayInfoText( String.format( "Indexing done in %.1f seconds.", elapsedTime/1000.0 ));
-                index.cleanup();
+            } catch ( IllegalStateException e ) {
+                // The index is incomplete, so it is not published
+                e.printStackTrace();
+                displayInfoText( "Indexing failed: " + e.getCause() );
+                return;
             }
+            building.cleanup();
+            publish( building );
+            long elapsedTime = System.currentTimeMillis() - startTime;
+            displayInfoText( String.format( "Indexing done in %.1f seconds.", elapsedTime/1000.0 ));
         } else {
-            gui.displayInfoText( "Index is loaded from disk" );
+            displayInfoText( "Index is loaded from disk" );
         }
-        
-//      calculateDocLenghts("euclid.txt"); //only once
-        readDocLengths("euclid.txt");
-        searcher.initPageRankVector();
     }
 
 
-    private void readDocLengths(String fileName) {
-	    try {
-    	    BufferedReader in = new BufferedReader( new FileReader( fileName ));
-    	    String line;
-			while ((line = in.readLine()) != null) {    		
-				String[] splittedLine = line.split(":");
-				index.euclidDocLengths.put(Integer.parseInt(splittedLine[0]), Double.parseDouble(splittedLine[1]));
-			}
-		} catch (NumberFormatException | IOException e) {
-			e.printStackTrace();
-		}		
-	}
-
-
-	private void calculateDocLenghts(String fileName) {
-    	indexer.lastDocID=0;
-        synchronized ( indexLock ) {
-            for ( int i=0; i<dirNames.size(); i++ ) {
-                File dokDir = new File( dirNames.get( i ));
-                indexer.processFilesSecondPass( dokDir );
+    /**
+     *  Gives a persistent index a postings cache of the chosen size, with
+     *  the most frequent terms of the query log pinned.
+     */
+    void setUpPostingsCache( PersistentHashedIndex persistent ) {
+        persistent.setPostingsCache( postings_cache_mb > 0 ? new PostingsCache( postings_cache_mb * 1024L * 1024L ) : null );
+        if ( pin_file != null && pin_count > 0 ) {
+            try {
+                persistent.pinPostings( PostingsCache.frequentTerms( new File( pin_file ), pin_count ));
+            } catch ( IOException e ) {
+                e.printStackTrace();
             }
         }
-        HITSRanker.writeToFile(index.euclidDocLengths, fileName, index.euclidDocLengths.size());
-        
-	}
+    }
+
+
+    /**
+     *  Shows a message in the GUI, or prints it when there is no GUI.
+     */
+    void displayInfoText( String info ) {
+        if ( gui != null ) {
+            gui.displayInfoText( info );
+        } else {
+            System.err.println( info );
+        }
+    }
+
+
+    /**
+     *  Makes an index the one that is searched. The index must not change
+     *  after this. Its searcher is set up before it is published, so a
+     *  query sees either the old index or the new one, complete.
+     */
+    void publish( Index published ) {
+        Searcher s = new Searcher( published, kgIndex, hitsRanker );
+        s.debug = debug;
+        s.initPageRankVector();
+        if ( cache != null ) {
+            // Results of the old index are dropped, and no longer taken in
+            cache.invalidate( published );
+            s.cache = cache;
+        }
+        index = published;
+        searcher = s;
+    }
 
 
 	/* ----------------------------------------------- */
@@ -162,6 +236,45 @@ public class Engine {
                 if ( i < args.length ) {
                     rank_file = args[i++];
                 }
+            } else if ( "-t".equals( args[i] )) {
+                i++;
+                if ( i < args.length ) {
+                    indexing_threads = Integer.parseInt( args[i++] );
+                }
+            } else if ( "-dict".equals( args[i] )) {
+                i++;
+                if ( i < args.length ) {
+                    dictionaryType = DictionaryType.valueOf( args[i++].toUpperCase() );
+                }
+            } else if ( "-server".equals( args[i] )) {
+                i++;
+                if ( i < args.length ) {
+                    server_port = Integer.parseInt( args[i++] );
+                }
+            } else if ( "-bind".equals( args[i] )) {
+                i++;
+                if ( i < args.length ) {
+                    server_address = args[i++];
+                }
+            } else if ( "-cache".equals( args[i] )) {
+                i++;
+                if ( i < args.length ) {
+                    cache_mb = Integer.parseInt( args[i++] );
+                }
+            } else if ( "-postingscache".equals( args[i] )) {
+                i++;
+                if ( i < args.length ) {
+                    postings_cache_mb = Integer.parseInt( args[i++] );
+                }
+            } else if ( "-pin".equals( args[i] )) {
+                i++;
+                if ( i+1 < args.length ) {
+                    pin_file = args[i++];
+                    pin_count = Integer.parseInt( args[i++] );
+                }
+            } else if ( "-debug".equals( args[i] )) {
+                i++;
+                debug = true;
             } else if ( "-ni".equals( args[i] )) {
                 i++;
                 is_indexing = false;
@@ -40,11 +40,6 @@ public class HITSRanker {
      */
     HashMap<Integer,String> IDToTitle = new HashMap<Integer,String>();
 
-    /**
-     *  Reciprocal of PageRank.links
-     */
-    HashMap<Integer,HashMap<Integer,Boolean>> reversedLink = new HashMap<Integer,HashMap<Integer,Boolean>>();
-
     /**
      *   Sparse vector containing hub scores
      */
@@ -60,6 +55,12 @@ public class HITSRanker {
      */
     PageRank PR;
 
+    /**
+     *   The position of each node of the graph in the base set being
+     *   ranked, or -1. Kept between rankings, which run one at a time.
+     */
+    private int[] position = new int[0];
+
     /**
      *   A helper class representing the root and base set of a query
      */ 
@@ -76,23 +77,22 @@ public class HITSRanker {
         	baseIDs = new HashSet<Integer>();
         	rootIDs = new HashSet<Integer>();
 
+        	LinkGraph graph = PR.graph;
         	for (String title: titles) {
         		Integer rootID = titleToId.get(title);
         		if (rootID!= null) {
-        			baseIDs.add(PR.docNumber.get(String.valueOf(rootID)));
-        			rootIDs.add(PR.docNumber.get(String.valueOf(rootID)));
-    				HashMap<Integer, Boolean> outLinks = PR.link.get(rootID);
-    				if (outLinks !=null) {
-    		        	for (Entry<Integer, Boolean> entryOut : outLinks.entrySet()) {
-    		        		baseIDs.add(entryOut.getKey());
-    		        	}
-    				}
-    		  		HashMap<Integer, Boolean> inLinks = reversedLink.get(rootID);
-    				if (inLinks !=null) {
-    		        	for (Entry<Integer, Boolean> entryIn : inLinks.entrySet()) {
-    		        		baseIDs.add(entryIn.getKey());
-    		        	}
-    				}
+        			// The title id names a node of the graph; its links are found by the node's index
+        			int node = graph.number(String.valueOf(rootID));
+        			if (node >= 0) {
+        				baseIDs.add(node);
+        				rootIDs.add(node);
+        				for (int e = graph.offsets[node]; e < graph.offsets[node+1]; e++) {
+        					baseIDs.add(graph.targets[e]);
+        				}
+        				for (int e = graph.inOffsets[node]; e < graph.inOffsets[node+1]; e++) {
+        					baseIDs.add(graph.sources[e]);
+        				}
+        			}
         		}
         	}
     	}
@@ -174,7 +174,7 @@ public class HITSRanker {
      */
     void readDocs( String linksFilename, String titlesFilename) {
         int noDocs = PR.readDocs(linksFilename);
-        createdReversedLinks(PR.link);
+        PR.graph.buildInLinks();
 	    try {
     	    BufferedReader in = new BufferedReader( new FileReader( titlesFilename ));
     	    String line;
@@ -188,28 +188,6 @@ public class HITSRanker {
 		}
     }
 
-    /**
-     * Creates a hashmap containing the inlinks for each document, similar to PageRank.links
-     *
-     * @param      link   Hashmap containing the outlinks
-     */
-    private void createdReversedLinks(HashMap<Integer, HashMap<Integer, Boolean>> link) {
-    	for (Map.Entry<Integer, HashMap<Integer, Boolean>> entry : link.entrySet()) {
-    	    int from = entry.getKey();
-    	    HashMap<Integer, Boolean> toSet = entry.getValue();
-        	for (Map.Entry<Integer,Boolean> entry2 : toSet.entrySet()) {
-        	    int to = entry2.getKey();
-        	    HashMap<Integer, Boolean> reversedEntry = reversedLink.get(to);
-        	    if (reversedEntry==null) {
-        	    	reversedLink.put(to, new HashMap<Integer,Boolean>());
-        	    	reversedEntry = reversedLink.get(to);
-        	    }
-    	    	reversedEntry.put(from, true);
-        	} 
-    	} 
-		
-	}
-
 	/**
      * Perform HITS iterations until convergence
      *
@@ -228,66 +206,61 @@ public class HITSRanker {
      * @param      rootIDs  Set of docIDs in the root set
      */
     private void iterate(String[] titles, Set<Integer> baseIDs, Set<Integer> rootIDs) {
-    	HashMap<Integer, Double> aOld = new HashMap<Integer,Double>();
-    	HashMap<Integer, Double> hOld = new HashMap<Integer,Double>();
-    	HashMap<Integer, Double> aNew = new HashMap<Integer,Double>();
-    	HashMap<Integer, Double> hNew = new HashMap<Integer,Double>();
+    	LinkGraph graph = PR.graph;
+    	if (position.length != graph.size()) {
+    		position = new int[graph.size()];
+    		Arrays.fill(position, -1);
+    	}
+    	int[] base = new int[baseIDs.size()];
+    	int n = 0;
     	for (int docID: baseIDs) {
-
-    		aOld.put(docID,1.0);
-    		hOld.put(docID,1.0);
+    		position[docID] = n;
+    		base[n++] = docID;
     	}
+    	double[] aOld = new double[n];
+    	double[] hOld = new double[n];
+    	Arrays.fill(aOld, 1.0);
+    	Arrays.fill(hOld, 1.0);
+    	double[] aNew = aOld;
+    	double[] hNew = hOld;
     	int convergedCount = 10;
-    	while (convergedCount!=0) {
-    		aNew = sparseMatrixVectorMul(hOld,reversedLink);    		
-    		hNew = sparseMatrixVectorMul(aOld,PR.link);
+    	int steps = 0;
+    	while (convergedCount!=0 && steps++ < MAX_NUMBER_OF_STEPS) {
+    		aNew = sparseMatrixVectorMul(hOld, base, graph.inOffsets, graph.sources);
+    		hNew = sparseMatrixVectorMul(aOld, base, graph.offsets, graph.targets);
     		if(!diff(aNew, aOld)&&!diff(hNew,hOld)) {
     			convergedCount--;
     		}
     		else {
     			convergedCount = 10;
     		}
-    		aOld = (HashMap<Integer, Double>) aNew.clone();
-    		hOld = (HashMap<Integer, Double>) hNew.clone();
+    		aOld = aNew;
+    		hOld = hNew;
+    	}
+    	for (int docID: base) {
+    		position[docID] = -1;
     	}
     	authorities = new HashMap<Integer,Double>();
     	hubs = new HashMap<Integer,Double>();
 
-    	for (Integer baseID : baseIDs) {
-    		Double scoreA = 0.0;
-    		Double scoreH = 0.0;
-    		if(aNew.get(baseID)!= null) {
-    			scoreA = aNew.get(baseID);
-    		}
-    		if(hNew.get(baseID)!= null) {
-    			scoreH = hNew.get(baseID);
-    		}
-    		if(PR.docName[baseID]!= null) {
-        		authorities.put(Integer.parseInt(PR.docName[baseID]),scoreA);
-        		hubs.put(Integer.parseInt(PR.docName[baseID]),scoreH);
-    		}
-    		else {
-    			System.out.println("PR.docName[baseID] null");
-    		}
-
+    	for (int i = 0; i < n; i++) {
+    		authorities.put(Integer.parseInt(graph.name(base[i])),aNew[i]);
+    		hubs.put(Integer.parseInt(graph.name(base[i])),hNew[i]);
     	}
-//    	System.out.println(hubs.size());
-//    	System.out.println("rootIDs.size()" + rootIDs.size());
-//    	System.out.println("baseIDs.size()" + baseIDs.size());
     }    
 
     
 	/**
-     * Checks if the elements in the given hashmap elements differ more than EPSILON 
+     * Checks if the elements of the given vectors differ more than EPSILON 
      *
-     * @param      vec1  The first hashmap
-     * @param      vec2  The second hashmap
+     * @param      vec1  The first vector
+     * @param      vec2  The second vector
      * 
      * @return true if the elements differ, false otherwise
      */
-    private boolean diff(HashMap<Integer, Double> vec1, HashMap<Integer, Double> vec2) {
-    	for (Entry<Integer, Double> e : vec1.entrySet()) {
-    		if (Math.abs(vec1.get(e.getKey())-vec2.get(e.getKey()))>EPSILON) {
+    private boolean diff(double[] vec1, double[] vec2) {
+    	for (int i = 0; i < vec1.length; i++) {
+    		if (Math.abs(vec1[i]-vec2[i])>EPSILON) {
     			return true;
     		}
     	}
@@ -295,45 +268,43 @@ public class HITSRanker {
 	}
 
 	/**
-     * Performs sparse matrix vector product
+     * Performs sparse matrix vector product, restricted to the base set:
+     * each node of the base set gets the sum of the values of the nodes of
+     * the base set it has links to in the given rows.
      *
-     * @param      base  The vector to be multiplied
-     * @param      links  The matrix to be multiplied with
+     * @param      vec  The vector to be multiplied, indexed by position in the base set
+     * @param      base  The nodes of the base set
+     * @param      offsets  Where the links of each node start in links
+     * @param      links  The links of all nodes, out-links or in-links
      * 
-     * @return The resulting vector as a hashmap
+     * @return The normalized resulting vector
      */
-	HashMap<Integer, Double> sparseMatrixVectorMul(HashMap<Integer,Double> base,HashMap<Integer,HashMap<Integer,Boolean>>links) {
-		HashMap<Integer,Double> result = new HashMap<Integer,Double>();
-		for (Entry<Integer, Double> e : base.entrySet()) {
-    		HashMap<Integer, Boolean> entries = links.get(e.getKey());
-    		double entryVal = 0;
-    		if (entries != null) {
-            	for (Map.Entry<Integer,Boolean> e2 : entries.entrySet()) {
-            		Double baseVal = base.get(e2.getKey());
-            		if (baseVal!=null) {
-            			entryVal+=baseVal;
-            		}
-            	}
-    		}
-    		if (base.containsKey(e.getKey())) {
-        		result.put(e.getKey(), entryVal);
-    		}
-    	}	
-		result = normalize(result);
-		return result;
+	double[] sparseMatrixVectorMul(double[] vec, int[] base, int[] offsets, int[] links) {
+		double[] result = new double[base.length];
+		for (int i = 0; i < base.length; i++) {
+			double entryVal = 0;
+			for (int e = offsets[base[i]]; e < offsets[base[i]+1]; e++) {
+				int j = position[links[e]];
+				if (j >= 0) {
+					entryVal += vec[j];
+				}
+			}
+			result[i] = entryVal;
+		}
+		return normalize(result);
     }
 
 	/**
      * Normalizes the given vector with euclidean norm
      *
-     * @param      vec  The vector to be normalized as a hashmap
+     * @param      vec  The vector to be normalized
      * 
      * @return The normalized vector
      */
-    private HashMap<Integer, Double> normalize(HashMap<Integer, Double> vec) {
+    private double[] normalize(double[] vec) {
     	double norm = norm(vec);
-    	for (Entry<Integer, Double> e : vec.entrySet()) {
-    		vec.put(e.getKey(), e.getValue()/norm);
+    	for (int i = 0; i < vec.length; i++) {
+    		vec[i] = vec[i]/norm;
     	}
     	return vec;
 	}
@@ -345,10 +316,10 @@ public class HITSRanker {
      * 
      * @return The norm
      */
-    private double norm(HashMap<Integer, Double> vec) {
+    private double norm(double[] vec) {
     	double norm = 0;
-    	for (Entry<Integer, Double> e : vec.entrySet()) {
-    		norm+=Math.pow(e.getValue(),2);
+    	for (double v : vec) {
+    		norm+=v*v;
     	}
     	return Math.sqrt(norm);
     }
@@ -363,11 +334,25 @@ public class HITSRanker {
      * @return     A list of postings ranked according to the hub and authority scores.
      */
     PostingsList rank(PostingsList post) {
-        LinkedList<PostingsEntry> entryList = post.getList();
+        return rank(post, index.getDocumentStore());
+    }
+
+	/**
+     * Rank the documents in the subgraph induced by the documents present
+     * in the postings list `post`. The hub and authority scores are kept in
+     * the ranker, so only one ranking runs at a time.
+     *
+     * @param      post       The list of postings fulfilling a certain information need
+     * @param      documents  The documents of the index the postings come from
+     *
+     * @return     A list of postings ranked according to the hub and authority scores.
+     */
+    synchronized PostingsList rank(PostingsList post, DocumentStore documents) {
+        List<PostingsEntry> entryList = post.getList();
         String[] titles = new String[entryList.size()];
         int i =0;
         for (PostingsEntry e : entryList) {
-        	titles[i++]= getFileName(index.docNames.get(e.docID));
+        	titles[i++]= getFileName(documents.name(e.docID));
         }
         
     	HITSSet hitsSet = new HITSSet(titles);
@@ -382,10 +367,10 @@ public class HITSRanker {
      	}
     	// rootIDs or baseIDs to use?
     	for (Integer linkRootID: hitsSet.rootIDs) {
-    		Integer fileNameID = Integer.parseInt(PR.docName[linkRootID]);
+    		Integer fileNameID = Integer.parseInt(PR.graph.name(linkRootID));
     		String title = HITSRanker.getFileName(IDToTitle.get(fileNameID));
-    		Integer realID = index.docIDs.get(title);
-    		if (realID != null) {
+    		int realID = documents.docID(title);
+    		if (realID >= 0) {
         		Double combinedScore = scores.get(fileNameID);	
 	        	PostingsEntry pEntry = new PostingsEntry();
             	pEntry.docID = realID;
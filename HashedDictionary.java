@@ -0,0 +1,379 @@
+/*
+ *   This file is part of the computer assignment for the
+ *   Information Retrieval course at KTH.
+ *
+ *   Johan Boye, KTH, 2018
+ */
+
+package ir;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.function.Consumer;
+
+import ir.PersistentHashedIndex.Entry;
+
+
+/**
+ *   The on-disk dictionary of a persistent index: a hash table from terms
+ *   to the location of their postings in the data file.
+ *
+ *   The table is sized from the number of terms when it is written, so that
+ *   it is filled up to the load factor. Collisions are resolved by Robin Hood
+ *   linear probing: an entry that is further from its home slot takes the
+ *   place of one that is closer to its own, which keeps all probe sequences
+ *   short. A lookup can stop as soon as it meets an entry that is closer to
+ *   its home slot than the probe itself.
+ *
+ *   The file starts with a header, followed by the slots:
+ *   <pre>
+ *     int   MAGIC
+ *     int   VERSION
+ *     long  table size (number of slots)
+ *     int   number of terms
+ *     float load factor
+ *     int   longest probe length
+ *     int[PROBE_HISTOGRAM_SIZE]  number of entries per probe length, the
+ *                                last bucket counts all longer probes
+ *     table size times:  long dataPtr, long checksum, int dataSize
+ *   </pre>
+ *   An empty slot has dataSize 0.
+ */
+public class HashedDictionary implements TermDictionary {
+
+    /** Identifies a dictionary file. */
+    public static final int MAGIC = 0x44494354;
+
+    /** The version of the file layout. */
+    public static final int VERSION = 1;
+
+    /** The load factor used if none is given. */
+    public static final float DEFAULT_LOAD_FACTOR = 0.75f;
+
+    /** Number of buckets in the probe length histogram. */
+    public static final int PROBE_HISTOGRAM_SIZE = 16;
+
+    /** The size of the header in bytes. */
+    public static final int HEADERSIZE = 4 + 4 + 8 + 4 + 4 + 4 + 4*PROBE_HISTOGRAM_SIZE;
+
+    /** The size of a slot in bytes. */
+    public static final int DIRENTRYSIZE = 20;
+
+    /** Parameters of the 64-bit FNV-1a hash used for checksums. */
+    public static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+
+    public static final long FNV_PRIME = 0x100000001b3L;
+
+
+    /** The number of slots in the table. */
+    int tableSize;
+
+    /** The number of terms in the table. */
+    int termCount = 0;
+
+    /** The load factor the table was sized for. */
+    float loadFactor;
+
+    /** The longest distance between an entry and its home slot. */
+    int maxProbe = 0;
+
+    /** The number of entries per distance from their home slot. */
+    int[] probeHistogram = new int[PROBE_HISTOGRAM_SIZE];
+
+    /*
+     *  The slots of a table that is being built.
+     */
+    private long[] checksums;
+    private long[] dataPtrs;
+    private int[] dataSizes;
+
+    /** The slots of a table that has been read from disk. */
+    private MappedFile mapped;
+
+
+    // ==================================================================
+
+
+    /**
+     *  Creates an empty table for the given number of terms.
+     *
+     *  @param expectedTerms The number of terms that will be put in the table
+     *  @param loadFactor The fraction of the slots that should be occupied
+     */
+    public HashedDictionary( int expectedTerms, float loadFactor ) {
+        if ( !(loadFactor > 0 && loadFactor < 1) ) {
+            throw new IllegalArgumentException( "Load factor must be between 0 and 1: " + loadFactor );
+        }
+        this.loadFactor = loadFactor;
+        long minSize = (long) Math.ceil( expectedTerms / (double) loadFactor ) + 1;
+        tableSize = BigInteger.valueOf( minSize ).nextProbablePrime().intValueExact();
+        checksums = new long[tableSize];
+        dataPtrs = new long[tableSize];
+        dataSizes = new int[tableSize];
+    }
+
+    private HashedDictionary( MappedFile mapped ) {
+        this.mapped = mapped;
+    }
+
+
+    /**
+     *  Opens a dictionary that has been written to the given mapped file.
+     *
+     *  @throws IOException if the file is not a dictionary file
+     */
+    public static HashedDictionary open( MappedFile file ) throws IOException {
+        if ( file.length() < HEADERSIZE || file.getInt( 0 ) != MAGIC ) {
+            throw new IOException( "Not a dictionary file" );
+        }
+        if ( file.getInt( 4 ) != VERSION ) {
+            throw new IOException( "Unsupported dictionary version " + file.getInt( 4 ));
+        }
+        HashedDictionary dict = new HashedDictionary( file );
+        dict.tableSize = (int) file.getLong( 8 );
+        dict.termCount = file.getInt( 16 );
+        dict.loadFactor = Float.intBitsToFloat( file.getInt( 20 ));
+        dict.maxProbe = file.getInt( 24 );
+        for ( int i=0; i<PROBE_HISTOGRAM_SIZE; i++ ) {
+            dict.probeHistogram[i] = file.getInt( 28 + 4*i );
+        }
+        if ( file.length() < HEADERSIZE + (long) dict.tableSize*DIRENTRYSIZE ) {
+            throw new IOException( "Truncated dictionary file" );
+        }
+        return dict;
+    }
+
+
+    // ==================================================================
+
+
+    /**
+     *  Computes the checksum of a term, a 64-bit FNV-1a hash of its UTF-8 bytes.
+     *  The home slot of the term is derived from the checksum.
+     */
+    public static long checksum( String word ) {
+        byte[] wordBytes = word.getBytes( StandardCharsets.UTF_8 );
+        long hash = FNV_OFFSET_BASIS;
+        for ( int i=0; i<wordBytes.length; i++ ) {
+            hash ^= wordBytes[i] & 0xff;
+            hash *= FNV_PRIME;
+        }
+        return hash;
+    }
+
+    /** Returns the home slot of an entry with the given checksum. */
+    int home( long checksum ) {
+        return (int) Math.floorMod( checksum, (long) tableSize );
+    }
+
+    /** Returns how far the given slot is from the home slot of the given checksum. */
+    private int distance( int slot, long checksum ) {
+        int d = slot - home( checksum );
+        return d < 0 ? d + tableSize : d;
+    }
+
+
+    /**
+     *  Inserts an entry in a table that is being built.
+     *
+     *  @param checksum The checksum of the term
+     *  @param dataPtr Where the postings of the term are stored in the data file
+     *  @param dataSize The size of the postings in the data file
+     */
+    public void put( long checksum, long dataPtr, int dataSize ) {
+        if ( termCount + 1 >= tableSize ) {
+            throw new IllegalStateException( "Dictionary is full: " + tableSize + " slots" );
+        }
+        int slot = home( checksum );
+        int dist = 0;
+        while ( dataSizes[slot] != 0 ) {
+            if ( checksums[slot] == checksum ) {
+                throw new IllegalArgumentException( "Duplicate checksum " + checksum );
+            }
+            int residentDist = distance( slot, checksums[slot] );
+            if ( residentDist < dist ) {
+                // Take the slot of the entry that is closer to home, and move that one on
+                long c = checksums[slot];
+                long p = dataPtrs[slot];
+                int s = dataSizes[slot];
+                checksums[slot] = checksum;
+                dataPtrs[slot] = dataPtr;
+                dataSizes[slot] = dataSize;
+                maxProbe = Math.max( maxProbe, dist );
+                checksum = c;
+                dataPtr = p;
+                dataSize = s;
+                dist = residentDist;
+            }
+            slot = slot + 1 == tableSize ? 0 : slot + 1;
+            dist++;
+        }
+        checksums[slot] = checksum;
+        dataPtrs[slot] = dataPtr;
+        dataSizes[slot] = dataSize;
+        maxProbe = Math.max( maxProbe, dist );
+        termCount++;
+    }
+
+
+    /**
+     *  Writes a table that has been built to the given file, replacing its contents.
+     */
+    public void write( RandomAccessFile file ) throws IOException {
+        computeProbeStatistics();
+        file.setLength( 0 );
+        ByteBuffer buf = ByteBuffer.allocate( 1 << 16 );
+        buf.putInt( MAGIC );
+        buf.putInt( VERSION );
+        buf.putLong( tableSize );
+        buf.putInt( termCount );
+        buf.putFloat( loadFactor );
+        buf.putInt( maxProbe );
+        for ( int i=0; i<PROBE_HISTOGRAM_SIZE; i++ ) {
+            buf.putInt( probeHistogram[i] );
+        }
+        for ( int slot=0; slot<tableSize; slot++ ) {
+            if ( buf.remaining() < DIRENTRYSIZE ) {
+                file.write( buf.array(), 0, buf.position() );
+                buf.clear();
+            }
+            buf.putLong( dataPtrs[slot] );
+            buf.putLong( checksums[slot] );
+            buf.putInt( dataSizes[slot] );
+        }
+        file.write( buf.array(), 0, buf.position() );
+    }
+
+    private void computeProbeStatistics() {
+        maxProbe = 0;
+        probeHistogram = new int[PROBE_HISTOGRAM_SIZE];
+        for ( int slot=0; slot<tableSize; slot++ ) {
+            if ( dataSizes[slot] != 0 ) {
+                int dist = distance( slot, checksums[slot] );
+                maxProbe = Math.max( maxProbe, dist );
+                probeHistogram[Math.min( dist, PROBE_HISTOGRAM_SIZE-1 )]++;
+            }
+        }
+    }
+
+
+    // ==================================================================
+
+
+    public Entry get( String term ) {
+        return get( checksum( term ));
+    }
+
+    /**
+     *  The hashed dictionary only stores checksums, so it cannot enumerate terms.
+     */
+    public List<String> matchingTerms( String pattern ) {
+        throw new UnsupportedOperationException( "The hashed dictionary does not store terms" );
+    }
+
+    public void forEachEntry( int part, int parts, Consumer<Entry> action ) {
+        int from = (int) ((long) tableSize * part / parts);
+        int to = (int) ((long) tableSize * (part+1) / parts);
+        for ( int slot=from; slot<to; slot++ ) {
+            if ( isOccupied( slot )) {
+                action.accept( entry( slot ));
+            }
+        }
+    }
+
+    public int ordinalCount() {
+        return tableSize;
+    }
+
+    private Entry entry( int slot ) {
+        Entry e = new Entry( checksum( slot ), dataPtr( slot ), dataSize( slot ));
+        e.ordinal = slot;
+        return e;
+    }
+
+    /**
+     *  Looks up the entry with the given checksum.
+     *
+     *  @return The entry, or null if there is no such entry
+     */
+    public Entry get( long checksum ) {
+        int slot = find( checksum );
+        if ( slot < 0 ) {
+            return null;
+        }
+        return entry( slot );
+    }
+
+    /**
+     *  Returns the slot holding the given checksum, or -1 if there is none.
+     */
+    public int find( long checksum ) {
+        int slot = home( checksum );
+        for ( int dist=0; dist<=maxProbe; dist++ ) {
+            if ( dataSize( slot ) == 0 ) {
+                return -1;
+            }
+            long c = checksum( slot );
+            if ( c == checksum ) {
+                return slot;
+            }
+            if ( distance( slot, c ) < dist ) {
+                // Robin Hood invariant: the entry would have been placed here
+                return -1;
+            }
+            slot = slot + 1 == tableSize ? 0 : slot + 1;
+        }
+        return -1;
+    }
+
+    /** Returns the number of slots. */
+    public int tableSize() {
+        return tableSize;
+    }
+
+    /** Returns the number of terms. */
+    public int termCount() {
+        return termCount;
+    }
+
+    /** Returns true if the given slot holds an entry. */
+    public boolean isOccupied( int slot ) {
+        return dataSize( slot ) != 0;
+    }
+
+    public long checksum( int slot ) {
+        return mapped != null ? mapped.getLong( slotPtr( slot ) + 8 ) : checksums[slot];
+    }
+
+    public long dataPtr( int slot ) {
+        return mapped != null ? mapped.getLong( slotPtr( slot )) : dataPtrs[slot];
+    }
+
+    public int dataSize( int slot ) {
+        return mapped != null ? mapped.getInt( slotPtr( slot ) + 16 ) : dataSizes[slot];
+    }
+
+    private static long slotPtr( int slot ) {
+        return HEADERSIZE + (long) slot*DIRENTRYSIZE;
+    }
+
+
+    /**
+     *  Returns a one-line summary of the table and its probe lengths.
+     */
+    public String probeSummary() {
+        StringBuilder sb = new StringBuilder();
+        sb.append( termCount ).append( " terms in " ).append( tableSize ).append( " slots, longest probe " ).append( maxProbe );
+        sb.append( ", probe lengths:" );
+        for ( int i=0; i<PROBE_HISTOGRAM_SIZE; i++ ) {
+            if ( probeHistogram[i] != 0 ) {
+                sb.append( ' ' ).append( i == PROBE_HISTOGRAM_SIZE-1 ? i + "+" : String.valueOf( i )).append( '=' ).append( probeHistogram[i] );
+            }
+        }
+        return sb.toString();
+    }
+}
@@ -8,31 +8,92 @@
 
 package ir;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
-import java.util.Iterator;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.concurrent.ConcurrentHashMap;
 
 
 /**
  *   Implements an inverted index as a Hashtable from words to PostingsLists.
+ *
+ *   Single tokens may only be inserted from one thread. For parallel
+ *   indexing, every thread collects its tokens in its own IndexSegment,
+ *   and the segments are added to the index concurrently.
  */
 public class HashedIndex implements Index {
 
 
     /** The index as a hashtable. */
-    private HashMap<String,PostingsList> index = new HashMap<String,PostingsList>();
+    private ConcurrentHashMap<String,PostingsList> index = new ConcurrentHashMap<String,PostingsList>();
+
+    /** The names and lengths of the indexed documents. */
+    private DocumentStore documents = new DocumentStore();
+
+    /** What ranked retrieval knows of each term, or null until indexing is done. */
+    private volatile HashMap<String,TermInfo> bounds;
+
+
+    /**
+     *  The bounds and the idf of a term, see TermBounds, and its postings
+     *  in impact order, which are only built when first asked for.
+     */
+    private static final class TermInfo {
+        final float byLength;
+        final float byNorm;
+        final double idf;
+        volatile ImpactList byLengthImpacts;
+        volatile ImpactList byNormImpacts;
+
+        TermInfo( float[] bounds, double idf ) {
+            this.byLength = bounds[0];
+            this.byNorm = bounds[1];
+            this.idf = idf;
+        }
+    }
 
 
     /**
-     *  Inserts this token in the hashtable.
+     *  Inserts this token in the hashtable. The bounds are not cleared
+     *  for every token; cleanup computes them again when indexing is done.
      */
     
     public void insert( String token, int docID, int offset ) {
-    	PostingsList list = getPostings(token);
+    	PostingsList list = index.get(token);
     	if (list==null) {
 	    	list = new PostingsList();
+	    	index.put(token, list);
     	}
     	list.add(docID, offset);
-    	index.put(token, list);
+    }
+
+
+    /**
+     *  Adds the postings of a segment. This may be called from several
+     *  threads at once: each term is updated while holding only the lock of
+     *  its own hash bin, and the postings of a segment are merged into place,
+     *  so every list stays sorted on docID whatever order the segments
+     *  arrive in. The postings lists of the segment are taken over.
+     */
+    public void insert( IndexSegment segment ) {
+    	bounds = null;
+    	for (Map.Entry<String,PostingsList> term : segment.terms()) {
+    		index.merge(term.getKey(), term.getValue(), (list, added) -> {
+    			list.addAll(added);
+    			return list;
+    		});
+    	}
+    }
+
+    public boolean acceptsConcurrentSegments() {
+    	return true;
+    }
+
+
+    public DocumentStore getDocumentStore() {
+        return documents;
     }
 
 
@@ -46,8 +107,82 @@ public class HashedIndex implements Index {
 
 
     /**
-     *  No need for cleanup in a HashedIndex.
+     *  Splits the terms on their hash code, and visits each part in term order.
+     */
+    public void forEachPostings( int part, int parts, Consumer<PostingsList> action ) {
+        ArrayList<String> terms = new ArrayList<String>();
+        for (String term : index.keySet()) {
+            if (Math.floorMod(term.hashCode(), parts) == part)
+                terms.add(term);
+        }
+        Collections.sort(terms);
+        for (String term : terms) {
+            action.accept(index.get(term));
+        }
+    }
+
+
+    /**
+     *  Returns the bound of the term, or NaN before indexing is done.
+     */
+    public double maxNormalizedTf( String token, NormalizationType normType ) {
+        HashMap<String,TermInfo> b = bounds;
+        TermInfo info = b == null ? null : b.get(token);
+        if (info == null)
+            return Double.NaN;
+        return normType == NormalizationType.EUCLIDEAN ? info.byNorm : info.byLength;
+    }
+
+
+    /**
+     *  Returns the idf computed when indexing was done, or computes it
+     *  before that.
+     */
+    public double getIdf( String token ) {
+        HashMap<String,TermInfo> b = bounds;
+        TermInfo info = b == null ? null : b.get(token);
+        if (info == null)
+            return Index.super.getIdf(token);
+        return info.idf;
+    }
+
+
+    /**
+     *  Orders the postings of the term on impact the first time they are
+     *  asked for, and keeps them until the index changes. Returns null
+     *  before indexing is done. Two threads may both build the same list,
+     *  and either copy is kept.
+     */
+    public ImpactList getImpactList( String token, NormalizationType normType ) {
+        HashMap<String,TermInfo> b = bounds;
+        TermInfo info = b == null ? null : b.get(token);
+        if (info == null)
+            return null;
+        boolean euclidean = normType == NormalizationType.EUCLIDEAN;
+        ImpactList impacts = euclidean ? info.byNormImpacts : info.byLengthImpacts;
+        if (impacts == null) {
+            impacts = ImpactList.create(index.get(token), documents, normType);
+            if (euclidean)
+                info.byNormImpacts = impacts;
+            else
+                info.byLengthImpacts = impacts;
+        }
+        return impacts;
+    }
+
+
+    /**
+     *  Computes the Euclidean lengths of the documents, and the term bounds
+     *  and idfs, once indexing is done.
      */
     public void cleanup() {
+        documents.setEuclideanLengths( DocumentNorms.compute( this ));
+        int N = documents.size();
+        HashMap<String,TermInfo> b = new HashMap<String,TermInfo>(2*index.size());
+        for (Map.Entry<String,PostingsList> term : index.entrySet()) {
+            PostingsList list = term.getValue();
+            b.put(term.getKey(), new TermInfo(TermBounds.compute(list, documents), TermBounds.idf(N, list.size())));
+        }
+        bounds = b;
     }
 }
@@ -0,0 +1,118 @@
+/*
+ *   This file is part of the computer assignment for the
+ *   Information Retrieval course at KTH.
+ *
+ *   Johan Boye, 2017
+ */
+
+package ir;
+
+
+/**
+ *   A copy of the docIDs of a postings list, ordered on impact: the
+ *   normalised term frequency tf/length of the term in the document,
+ *   highest first. The idf is the same for the whole list, so this is
+ *   also the order of the tf-idf scores the term gives the documents.
+ *
+ *   The impacts are quantised to LEVELS levels below the largest one, on a
+ *   log scale with STEPS levels per halving, since most impacts are far
+ *   below the largest. They are rounded up, so bound(i) is an upper bound
+ *   of the impact of the ith posting and of all postings after it.
+ *   Postings of equal level are in docID order. A list takes five bytes per
+ *   posting.
+ */
+public class ImpactList {
+
+    /** The number of impact levels. */
+    public static final int LEVELS = 255;
+
+    /** The number of levels per halving of the impact. */
+    public static final int STEPS = 16;
+
+    /** The fraction of the largest impact that each level stands for. */
+    private static final double[] FRACTION = new double[LEVELS + 1];
+    static {
+        for ( int l=1; l<=LEVELS; l++ ) {
+            FRACTION[l] = Math.pow( 2, -(LEVELS - l) / (double) STEPS );
+        }
+    }
+
+    /** The docIDs, highest impact first. */
+    private final int[] docIDs;
+
+    /** The level of each posting, from 1 to LEVELS, as an unsigned byte. */
+    private final byte[] levels;
+
+    /** The largest impact of the list, which is the top level. */
+    private final double maxImpact;
+
+
+    private ImpactList( int[] docIDs, byte[] levels, double maxImpact ) {
+        this.docIDs = docIDs;
+        this.levels = levels;
+        this.maxImpact = maxImpact;
+    }
+
+
+    /**
+     *  Orders a postings list on impact, with the lengths in tokens or the
+     *  Euclidean lengths of the documents.
+     *
+     *  @return The impact-ordered list, or null if some document has length
+     *          0, so that the impacts are not bounded
+     */
+    public static ImpactList create( PostingsList list, DocumentStore documents, NormalizationType normType ) {
+        int n = list.size();
+        int[] lengths = documents.lengths();
+        double[] norms = documents.euclideanLengths();
+        double[] impact = new double[n];
+        double max = 0;
+        for ( int i=0; i<n; i++ ) {
+            int docID = list.getDocID( i );
+            double length = normType == NormalizationType.EUCLIDEAN ? norms[docID] : lengths[docID];
+            impact[i] = list.get( i ).offsetCount() / length;
+            max = Math.max( max, impact[i] );
+        }
+        if ( Double.isInfinite( max ) || Double.isNaN( max )) {
+            return null;
+        }
+        // A counting sort on the levels, highest first, which keeps the docID order within a level
+        int[] level = new int[n];
+        int[] start = new int[LEVELS + 1];
+        for ( int i=0; i<n; i++ ) {
+            level[i] = Math.max( 1, LEVELS - (int) Math.floor( -STEPS * Math.log( impact[i] / max ) / Math.log( 2 )));
+            start[LEVELS - level[i] + 1]++;
+        }
+        for ( int l=1; l<start.length; l++ ) {
+            start[l] += start[l-1];
+        }
+        int[] docIDs = new int[n];
+        byte[] levels = new byte[n];
+        for ( int i=0; i<n; i++ ) {
+            int j = start[LEVELS - level[i]]++;
+            docIDs[j] = list.getDocID( i );
+            levels[j] = (byte) level[i];
+        }
+        return new ImpactList( docIDs, levels, max );
+    }
+
+
+    /** The number of postings. */
+    public int size() {
+        return docIDs.length;
+    }
+
+    /** The docID of the ith posting in impact order. */
+    public int docID( int i ) {
+        return docIDs[i];
+    }
+
+    /**
+     *  An upper bound of the impact of the ith posting and of all the
+     *  postings after it. It may exceed the impact by a rounding error, so
+     *  callers should leave a margin.
+     */
+    public double bound( int i ) {
+        return maxImpact * FRACTION[levels[i] & 0xff];
+    }
+}
@@ -7,8 +7,8 @@
 
 package ir;
 
-import java.util.HashMap;
-import java.util.Iterator;
+import java.util.Map;
+import java.util.function.Consumer;
 
 /**
  *  Defines some common data structures and methods that all types of
@@ -16,24 +16,96 @@ import java.util.Iterator;
  */
 public interface Index {
 
-    /** Mapping from document identifiers to document names. */
-    public HashMap<Integer,String> docNames = new HashMap<Integer,String>();
-    
-    public HashMap<String,Integer> docIDs = new HashMap<String,Integer>();
-
-    
-    /** Mapping from document identifier to document length. */
-    public HashMap<Integer,Integer> docLengths = new HashMap<Integer,Integer>();
-    
-    public HashMap<Integer, Double> euclidDocLengths = new HashMap<Integer,Double>();
+    /** Returns the names and lengths of the documents in this index. */
+    public DocumentStore getDocumentStore();
 
 
     /** Inserts a token into the index. */
     public void insert( String token, int docID, int offset );
 
+    /**
+     *  Inserts all postings of a segment. Unless acceptsConcurrentSegments
+     *  returns true, segments must be inserted from one thread and in
+     *  docID order.
+     */
+    public default void insert( IndexSegment segment ) {
+        for ( Map.Entry<String,PostingsList> term : segment.terms() ) {
+            PostingsList list = term.getValue();
+            for ( int i=0; i<list.size(); i++ ) {
+                PostingsEntry e = list.get( i );
+                for ( int j=0; j<e.offsetCount(); j++ ) {
+                    insert( term.getKey(), e.docID, e.getOffset( j ));
+                }
+            }
+        }
+    }
+
+    /** Returns true if segments may be inserted from several threads, in any order. */
+    public default boolean acceptsConcurrentSegments() {
+        return false;
+    }
+
     /** Returns the postings for a given term. */
     public PostingsList getPostings( String token );
 
+    /**
+     *  Returns the number of documents containing the term, 0 if it is not
+     *  in the index.
+     */
+    public default int getDocumentFrequency( String token ) {
+        PostingsList list = getPostings( token );
+        return list == null ? 0 : list.size();
+    }
+
+    /**
+     *  Returns the idf of the term, log(N/df), see TermBounds.idf. An index
+     *  may keep the idfs, instead of looking up the document frequency.
+     */
+    public default double getIdf( String token ) {
+        return TermBounds.idf( getDocumentStore().size(), getDocumentFrequency( token ));
+    }
+
+    /**
+     *  Returns the postings for a given term in the documents of candidates,
+     *  a list sorted on docID, or null if the term is not in the index. The
+     *  result may also hold postings of other documents, so it still has to
+     *  be merged with the candidates, but an index can use this to skip the
+     *  parts of a long list that cannot match.
+     */
+    public default PostingsList getPostings( String token, PostingsList candidates ) {
+        return getPostings( token );
+    }
+
+    /**
+     *  Visits the postings lists in one of 'parts' parts of the index. How
+     *  the index is split, and the order within a part, only depend on the
+     *  contents of the index, so the parts can be processed in parallel
+     *  with reproducible results.
+     *
+     *  @param part The part to visit, from 0 to parts-1
+     *  @param parts The number of parts the index is split into
+     */
+    public void forEachPostings( int part, int parts, Consumer<PostingsList> action );
+
+    /**
+     *  Returns the largest tf/length of the term over the documents in its
+     *  postings list, with the length given by the normalization type, or
+     *  NaN if it is not known. The value may be rounded up, but never down,
+     *  so that ranked retrieval can use it as an upper bound.
+     */
+    public default double maxNormalizedTf( String token, NormalizationType normType ) {
+        return Double.NaN;
+    }
+
+    /**
+     *  Returns the docIDs of the postings of the term ordered on impact, with
+     *  the length given by the normalization type, or null if the index does
+     *  not keep impact-ordered postings or the term is not in the index.
+     */
+    public default ImpactList getImpactList( String token, NormalizationType normType ) {
+        return null;
+    }
+
     /** This method is called on exit. */
     public void cleanup();
 
@@ -0,0 +1,79 @@
+/*
+ *   This file is part of the computer assignment for the
+ *   Information Retrieval course at KTH.
+ *
+ *   Johan Boye, 2017
+ */
+
+package ir;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+
+/**
+ *   A small in-memory inverted index over a batch of documents with
+ *   consecutive docIDs, built by one indexing thread.
+ *
+ *   The terms are kept in the order of their first occurrence, so that
+ *   adding segments to an index in docID order gives the same result as
+ *   inserting the tokens one by one.
+ */
+public class IndexSegment {
+
+    /** The postings of each term, in order of first occurrence. */
+    final LinkedHashMap<String,PostingsList> postings = new LinkedHashMap<String,PostingsList>();
+
+    /** The docID of the first document in the segment. */
+    final int firstDocID;
+
+    /** The path of each document, or null if it could not be read. */
+    final String[] docPaths;
+
+    /** The number of tokens in each document. */
+    final int[] docLengths;
+
+    /** The total number of tokens in the segment. */
+    long tokenCount = 0;
+
+
+    /**
+     *  Creates an empty segment.
+     *
+     *  @param firstDocID The docID of the first document
+     *  @param nbDocs The number of documents in the segment
+     */
+    public IndexSegment( int firstDocID, int nbDocs ) {
+        this.firstDocID = firstDocID;
+        docPaths = new String[nbDocs];
+        docLengths = new int[nbDocs];
+    }
+
+
+    /** Adds one token of a document in the segment. */
+    public void insert( String token, int docID, int offset ) {
+        PostingsList list = postings.get( token );
+        if ( list == null ) {
+            list = new PostingsList();
+            postings.put( token, list );
+        }
+        list.add( docID, offset );
+        tokenCount++;
+    }
+
+    /** Records the path and length of a document once it has been tokenized. */
+    public void addDocument( int docID, String path, int length ) {
+        docPaths[docID - firstDocID] = path;
+        docLengths[docID - firstDocID] = length;
+    }
+
+    /** The number of documents in the segment. */
+    public int size() {
+        return docPaths.length;
+    }
+
+    /** The terms of the segment and their postings, in order of first occurrence. */
+    public Iterable<Map.Entry<String,PostingsList>> terms() {
+        return postings.entrySet();
+    }
+}
@@ -9,8 +9,12 @@ package ir;
 
 import java.io.*;
 import java.util.*;
-import java.util.Map.Entry;
 import java.nio.charset.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.ObjIntConsumer;
 
 
 /**
@@ -30,15 +34,38 @@ public class Indexer {
     /** The patterns matching non-standard words (e-mail addresses, etc.) */
     String patterns_file;
 
+    /** The number of threads tokenizing files. With one, files are indexed on the calling thread. */
+    int workers = 1;
+
+    /** The number of files a worker tokenizes into one segment. */
+    static final int BATCHSIZE = 64;
+
+    /** The number of segments per worker that may wait to be added to the index. */
+    static final int MAX_PENDING_BATCHES = 4;
+
+    /** The number of files and tokens indexed by the current call to processFiles. */
+    private int fileCount;
+    private long tokenCount;
+
 
     /* ----------------------------------------------- */
 
 
     /** Constructor */
     public Indexer( Index index, KGramIndex kgIndex, String patterns_file ) {
+        this( index, kgIndex, patterns_file, 1 );
+    }
+
+    /**
+     *  Constructor.
+     *
+     *  @param workers The number of threads tokenizing files
+     */
+    public Indexer( Index index, KGramIndex kgIndex, String patterns_file, int workers ) {
         this.index = index;
         this.kgIndex = kgIndex;
         this.patterns_file = patterns_file;
+        this.workers = Math.max( 1, workers );
     }
 
 
@@ -52,123 +79,194 @@ public class Indexer {
     /**
      *  Tokenizes and indexes the file @code{f}. If <code>f</code> is a directory,
      *  all its files and subdirectories are recursively processed.
+     *  The files get their docIDs in the order they are found, also when
+     *  several workers tokenize them.
+     *
+     *  @throws IllegalStateException if a worker fails; the index is then incomplete
      */
     public void processFiles( File f, boolean is_indexing ) {
+        if (!is_indexing) {
+            return;
+        }
+        fileCount = 0;
+        tokenCount = 0;
+        long startTime = System.nanoTime();
+        if (workers > 1) {
+            processFilesInParallel( f );
+        } else {
+            indexFiles( f );
+        }
+        double seconds = (System.nanoTime() - startTime) / 1e9;
+        System.err.println( String.format( "Indexed %d files, %d tokens in %.1f s (%.0f files/s, %.0f tokens/s, %d worker%s)",
+                fileCount, tokenCount, seconds, fileCount / seconds, tokenCount / seconds, workers, workers == 1 ? "" : "s" ));
+    }
+
+    /**
+     *  Indexes the file @code{f}, or all files below it, on the calling thread.
+     */
+    private void indexFiles( File f ) {
         // do not try to index fs that cannot be read
-        if (is_indexing) {
-            if ( f.canRead() ) {
-                if ( f.isDirectory() ) {
-                    String[] fs = f.list();
-                    // an IO error could occur
-                    if ( fs != null ) {
-                        for ( int i=0; i<fs.length; i++ ) {
-                            processFiles( new File( f, fs[i] ), is_indexing );
-                        }
-                    }
-                } else {
-                    // First register the document and get a docID
-                    int docID = generateDocID();
-                    if ( docID%1000 == 0 ) System.err.println( "Indexed " + docID + " files" );
-                    try {
-                        Reader reader = new InputStreamReader( new FileInputStream(f), StandardCharsets.UTF_8 );
-                        Tokenizer tok = new Tokenizer( reader, true, false, true, patterns_file );
-                        int offset = 0;
-                        while ( tok.hasMoreTokens() ) {
-                            String token = tok.nextToken();
-                            insertIntoIndex( docID, token, offset++ );
-                        }
-                        index.docNames.put( docID, f.getPath() );
-                        
-                        String docName = HITSRanker.getFileName(f.getPath());
-                        index.docIDs.put(HITSRanker.getFileName(f.getPath()), docID );
-                        index.docLengths.put( docID, offset );
-                        reader.close();
-                    } catch ( IOException e ) {
-                        System.err.println( "Warning: IOException during indexing." );
+        if ( f.canRead() ) {
+            if ( f.isDirectory() ) {
+                String[] fs = f.list();
+                // an IO error could occur
+                if ( fs != null ) {
+                    for ( int i=0; i<fs.length; i++ ) {
+                        indexFiles( new File( f, fs[i] ));
                     }
                 }
+            } else {
+                // First register the document and get a docID
+                int docID = generateDocID();
+                if ( docID%1000 == 0 ) System.err.println( "Indexed " + docID + " files" );
+                fileCount++;
+                int tokens = tokenizeFile( f, (token, offset) -> insertIntoIndex( docID, token, offset ));
+                if ( tokens >= 0 ) {
+                    tokenCount += tokens;
+                    index.getDocumentStore().add( docID, f.getPath(), tokens );
+                }
             }
         }
     }
 
-
-    /* ----------------------------------------------- */
+    /**
+     *  Tokenizes the file @code{f}, and gives every token with its offset to @code{sink}.
+     *
+     *  @return The number of tokens, or -1 if the file could not be read
+     */
+    private int tokenizeFile( File f, ObjIntConsumer<String> sink ) {
+        try ( Reader reader = new InputStreamReader( new FileInputStream(f), StandardCharsets.UTF_8 )) {
+            Tokenizer tok = new Tokenizer( reader, true, false, true, patterns_file );
+            int offset = 0;
+            while ( tok.hasMoreTokens() ) {
+                sink.accept( tok.nextToken(), offset++ );
+            }
+            return offset;
+        } catch ( IOException e ) {
+            System.err.println( "Warning: IOException during indexing." );
+            return -1;
+        }
+    }
 
 
     /**
-     *  Indexes one token.
+     *  Indexes all files below @code{f} with a pool of workers.
+     *
+     *  The files are first listed in the same order as indexFiles visits
+     *  them, which fixes their docIDs. Batches of consecutive files are then
+     *  tokenized by the workers into segments, and the segments are added
+     *  to the index in batch order (or by the workers themselves, if the
+     *  index accepts concurrent segments), so the index ends up the same as
+     *  if the files had been indexed one by one.
+     *
+     *  @throws IllegalStateException if a worker fails, or the indexing is
+     *          interrupted; the index is then incomplete, and should not be used
      */
-    public void insertIntoIndex( int docID, String token, int offset ) {
-        index.insert( token, docID, offset );
-        if (kgIndex != null)
-            kgIndex.insert(token);
+    private void processFilesInParallel( File f ) {
+        ArrayList<File> files = new ArrayList<File>();
+        discoverFiles( f, files );
+        ExecutorService pool = Executors.newFixedThreadPool( workers );
+        ArrayDeque<Future<IndexSegment>> pending = new ArrayDeque<Future<IndexSegment>>();
+        try {
+            for ( int start=0; start<files.size(); start+=BATCHSIZE ) {
+                final List<File> batch = files.subList( start, Math.min( files.size(), start+BATCHSIZE ));
+                final int firstDocID = lastDocID;
+                lastDocID += batch.size();
+                // Keep a bounded number of segments in memory
+                while ( pending.size() >= MAX_PENDING_BATCHES*workers ) {
+                    addSegment( pending.removeFirst().get() );
+                }
+                pending.addLast( pool.submit( () -> tokenizeBatch( batch, firstDocID )));
+            }
+            while ( !pending.isEmpty() ) {
+                addSegment( pending.removeFirst().get() );
+            }
+        } catch ( InterruptedException e ) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException( "Indexing was interrupted", e );
+        } catch ( ExecutionException e ) {
+            throw new IllegalStateException( "Indexing failed", e.getCause() );
+        } finally {
+            pool.shutdownNow();
+        }
     }
 
-
-	public void processFilesSecondPass(File f) {
-		
+    /**
+     *  Lists the readable files below @code{f} in the order indexFiles visits them.
+     */
+    private void discoverFiles( File f, List<File> files ) {
         if ( f.canRead() ) {
             if ( f.isDirectory() ) {
                 String[] fs = f.list();
                 // an IO error could occur
                 if ( fs != null ) {
                     for ( int i=0; i<fs.length; i++ ) {
-                    	processFilesSecondPass( new File( f, fs[i] ) );
+                        discoverFiles( new File( f, fs[i] ), files );
                     }
                 }
             } else {
-            	
-                // First register the document and get a docID
-                int docID = generateDocID();
-                if ( docID%1000 == 0 ) System.err.println( "Indexed " + docID + " files (second pass)" );
-                try {
-                    Reader reader = new InputStreamReader( new FileInputStream(f), StandardCharsets.UTF_8 );
-                    Tokenizer tok = new Tokenizer( reader, true, false, true, patterns_file );
-                    int offset = 0;
-                    
-                    float euclidLen = 0;
-                    HashMap<String,Integer> countMap = new HashMap<String,Integer>();
-                    while ( tok.hasMoreTokens() ) {
-                        String token = tok.nextToken();
-                        if (countMap.get(token)!= null) {
-                        	countMap.put(token, countMap.get(token)+1);
-                        }
-                        else
-                        	countMap.put(token,1);
-                        
-                    }
-                    
-                    
-                    for (Entry<String, Integer> entry : countMap.entrySet()) {
-                    	String token = entry.getKey();
-                        int tf = entry.getValue();
-                        
-            			PostingsList pList = index.getPostings(token);
-            	    	LinkedList<PostingsEntry> eList = pList.getList();
-            	    	
-            	    	int N = Index.docNames.size();
-			    		float frac = ((float) N)/((float)eList.size());
-			    		float idf = (float) Math.log(frac);
-                        
-                        
-                        euclidLen += Math.pow(tf*idf, 2);
-                    }
-                    
-                    
-//                        System.out.println("f.getPath()"+f.getPath());
-//                        System.out.println("Math.sqrt(euclidLen)"+Math.sqrt(euclidLen));
-                    
-                    index.euclidDocLengths.put( docID, (double) Math.sqrt(euclidLen));
-                    
-                    
-                    
-                    reader.close();
-                } catch ( IOException e ) {
-                    System.err.println( "Warning: IOException during indexing." );
-                }
+                files.add( f );
             }
         }
     }
-		
-}
 
+    /**
+     *  Tokenizes a batch of files into a new segment. Runs on a worker thread.
+     *  If the index accepts concurrent segments, the worker also inserts the
+     *  postings of the segment.
+     */
+    private IndexSegment tokenizeBatch( List<File> batch, int firstDocID ) {
+        IndexSegment segment = new IndexSegment( firstDocID, batch.size() );
+        for ( int i=0; i<batch.size(); i++ ) {
+            File f = batch.get( i );
+            int docID = firstDocID + i;
+            int tokens = tokenizeFile( f, (token, offset) -> segment.insert( token, docID, offset ));
+            if ( tokens >= 0 ) {
+                segment.addDocument( docID, f.getPath(), tokens );
+            }
+        }
+        if ( index.acceptsConcurrentSegments() ) {
+            index.insert( segment );
+        }
+        return segment;
+    }
+
+    /**
+     *  Adds a segment to the index, unless a worker already has, and records
+     *  its documents and terms. Segments must be added in docID order.
+     */
+    private void addSegment( IndexSegment segment ) {
+        if ( !index.acceptsConcurrentSegments() ) {
+            index.insert( segment );
+        }
+        if (kgIndex != null) {
+            for ( Map.Entry<String,PostingsList> term : segment.terms() ) {
+                kgIndex.insert(term.getKey());
+            }
+        }
+        for ( int i=0; i<segment.size(); i++ ) {
+            int docID = segment.firstDocID + i;
+            if ( docID%1000 == 0 ) System.err.println( "Indexed " + docID + " files" );
+            String path = segment.docPaths[i];
+            if ( path != null ) {
+                index.getDocumentStore().add( docID, path, segment.docLengths[i] );
+            }
+        }
+        fileCount += segment.size();
+        tokenCount += segment.tokenCount;
+    }
+
+
+    /* ----------------------------------------------- */
+
+
+    /**
+     *  Indexes one token.
+     */
+    public void insertIntoIndex( int docID, String token, int offset ) {
+        index.insert( token, docID, offset );
+        if (kgIndex != null)
+            kgIndex.insert(token);
+    }
+
+}
@@ -0,0 +1,185 @@
+/*
+ *   This file is part of the computer assignment for the
+ *   Information Retrieval course at KTH.
+ *
+ *   Johan Boye, 2017
+ */
+
+package ir;
+
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+
+/**
+ *   Compares inserting tokens one by one into a HashedIndex on one thread
+ *   with ingesting the same documents on several threads through segments.
+ *
+ *   The documents are tokenized into memory first, so only the indexing
+ *   itself is timed. Without -d, a synthetic collection with Zipf
+ *   distributed terms is generated.
+ *
+ *   Usage: IndexingBenchmark [-d dir] [-docs n] [-len n] [-vocab n] [-t threads] [-r runs]
+ */
+public class IndexingBenchmark {
+
+    /** The number of documents per segment. */
+    static final int BATCHSIZE = Indexer.BATCHSIZE;
+
+    String dir = null;
+    int nbDocs = 20000;
+    int docLength = 400;
+    int vocabulary = 100000;
+    int threads = Runtime.getRuntime().availableProcessors();
+    int runs = 5;
+
+    /** The tokens of each document. */
+    String[][] docs;
+    long tokenCount;
+
+
+    /**
+     *  Generates a collection with Zipf distributed terms.
+     */
+    private void generate() {
+        String[] terms = new String[vocabulary];
+        double[] cumulative = new double[vocabulary];
+        double sum = 0;
+        for ( int i=0; i<vocabulary; i++ ) {
+            terms[i] = "t" + Integer.toString( i, 36 );
+            sum += 1.0 / (i+1);
+            cumulative[i] = sum;
+        }
+        Random random = new Random( 42 );
+        docs = new String[nbDocs][];
+        for ( int d=0; d<nbDocs; d++ ) {
+            docs[d] = new String[docLength];
+            for ( int i=0; i<docLength; i++ ) {
+                int t = Arrays.binarySearch( cumulative, random.nextDouble()*sum );
+                docs[d][i] = terms[t < 0 ? Math.min( -t-1, vocabulary-1 ) : t];
+            }
+        }
+    }
+
+
+    /* ----------------------------------------------- */
+
+
+    HashedIndex insertSingleThreaded() {
+        HashedIndex index = new HashedIndex();
+        for ( int d=0; d<docs.length; d++ ) {
+            String[] tokens = docs[d];
+            for ( int i=0; i<tokens.length; i++ ) {
+                index.insert( tokens[i], d, i );
+            }
+        }
+        return index;
+    }
+
+    HashedIndex ingestConcurrently( ExecutorService pool ) throws Exception {
+        HashedIndex index = new HashedIndex();
+        ArrayList<Future<?>> batches = new ArrayList<Future<?>>();
+        for ( int start=0; start<docs.length; start+=BATCHSIZE ) {
+            final int first = start;
+            final int end = Math.min( docs.length, start+BATCHSIZE );
+            batches.add( pool.submit( () -> {
+                IndexSegment segment = new IndexSegment( first, end-first );
+                for ( int d=first; d<end; d++ ) {
+                    String[] tokens = docs[d];
+                    for ( int i=0; i<tokens.length; i++ ) {
+                        segment.insert( tokens[i], d, i );
+                    }
+                }
+                index.insert( segment );
+            }));
+        }
+        for ( Future<?> f : batches ) {
+            f.get();
+        }
+        return index;
+    }
+
+    /**
+     *  Checks that both indexes hold the same postings.
+     */
+    boolean same( HashedIndex a, HashedIndex b ) {
+        HashSet<String> terms = new HashSet<String>();
+        for ( String[] tokens : docs ) {
+            terms.addAll( Arrays.asList( tokens ));
+        }
+        for ( String term : terms ) {
+            PostingsList l1 = a.getPostings( term );
+            PostingsList l2 = b.getPostings( term );
+            if ( l1.size() != l2.size() ) {
+                return false;
+            }
+            for ( int i=0; i<l1.size(); i++ ) {
+                if ( !l1.get( i ).toString().equals( l2.get( i ).toString() )) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+
+    void run() throws Exception {
+        if ( dir != null ) {
+            docs = BenchmarkCorpus.read( dir );
+        } else {
+            generate();
+        }
+        for ( String[] tokens : docs ) {
+            tokenCount += tokens.length;
+        }
+        System.out.println( docs.length + " documents, " + tokenCount + " tokens, " + threads + " threads" );
+
+        ExecutorService pool = Executors.newFixedThreadPool( threads );
+        long best1 = Long.MAX_VALUE, bestN = Long.MAX_VALUE;
+        HashedIndex single = null, concurrent = null;
+        for ( int r=0; r<runs; r++ ) {
+            single = null;
+            concurrent = null;
+            long t0 = System.nanoTime();
+            single = insertSingleThreaded();
+            long t1 = System.nanoTime();
+            concurrent = ingestConcurrently( pool );
+            long t2 = System.nanoTime();
+            best1 = Math.min( best1, t1-t0 );
+            bestN = Math.min( bestN, t2-t1 );
+            System.out.println( String.format( "run %d: single %.0f ms, %d threads %.0f ms", r, (t1-t0)/1e6, threads, (t2-t1)/1e6 ));
+        }
+        pool.shutdown();
+        System.out.println( String.format( "best: single %.2f Mtokens/s, %d threads %.2f Mtokens/s (%.2fx)",
+                tokenCount/(best1/1e3), threads, tokenCount/(bestN/1e3), best1/(double) bestN ));
+        System.out.println( "indexes identical: " + same( single, concurrent ));
+    }
+
+
+    public static void main( String[] args ) throws Exception {
+        IndexingBenchmark b = new IndexingBenchmark();
+        int i=0;
+        while ( i < args.length ) {
+            if ( "-d".equals( args[i] ) && i+1 < args.length ) {
+                b.dir = args[i+1];
+            } else if ( "-docs".equals( args[i] ) && i+1 < args.length ) {
+                b.nbDocs = Integer.parseInt( args[i+1] );
+            } else if ( "-len".equals( args[i] ) && i+1 < args.length ) {
+                b.docLength = Integer.parseInt( args[i+1] );
+            } else if ( "-vocab".equals( args[i] ) && i+1 < args.length ) {
+                b.vocabulary = Integer.parseInt( args[i+1] );
+            } else if ( "-t".equals( args[i] ) && i+1 < args.length ) {
+                b.threads = Integer.parseInt( args[i+1] );
+            } else if ( "-r".equals( args[i] ) && i+1 < args.length ) {
+                b.runs = Integer.parseInt( args[i+1] );
+            } else {
+                System.err.println( "Unknown argument: " + args[i] );
+                return;
+            }
+            i += 2;
+        }
+        b.run();
+    }
+}
@@ -0,0 +1,244 @@
+/*
+ *   This file is part of the computer assignment for the
+ *   Information Retrieval course at KTH.
+ *
+ *   Johan Boye, 2017
+ */
+
+package ir;
+
+import java.util.*;
+
+
+/**
+ *   Times intersection and phrase queries that pair a rare term with a
+ *   common one, and compares the Searcher, which skips ahead in the long
+ *   list, with merging fully decoded lists one posting at a time.
+ *
+ *   The intersection queries are random rare and common terms, in both
+ *   orders. The phrase queries are bigrams from the documents in which one
+ *   of the words is rare. With -p, the index is written to disk in
+ *   PersistentHashedIndex.INDEXDIR, replacing the index there, so that the
+ *   skips within encoded lists are measured as well.
+ *
+ *   Usage: IntersectionBenchmark -d dir [-p] [-q queries] [-r runs]
+ */
+public class IntersectionBenchmark {
+
+    /** A term is rare if at most this fraction of the documents contain it. */
+    static final double RARE = 0.001;
+
+    /** The number of most frequent terms that count as common. */
+    static final int COMMON = 100;
+
+    String dir = null;
+    boolean persistent = false;
+    int nbQueries = 2000;
+    int runs = 5;
+
+    /** The tokens of each document. */
+    String[][] docs;
+
+    /** The number of documents containing each term. */
+    HashMap<String,Integer> df = new HashMap<String,Integer>();
+
+
+    Index buildIndex() {
+        Index index = persistent ? new PersistentHashedIndex() : new HashedIndex();
+        for ( int d=0; d<docs.length; d++ ) {
+            String[] tokens = docs[d];
+            for ( int i=0; i<tokens.length; i++ ) {
+                index.insert( tokens[i], d, i );
+            }
+            index.getDocumentStore().add( d, "doc" + d, tokens.length );
+        }
+        index.cleanup();
+        return index;
+    }
+
+
+    /* ----------------------------------------------- */
+
+
+    /**
+     *  The queries of the benchmark: rare x common intersections, and
+     *  bigrams with a rare word as phrases.
+     */
+    void makeQueries( List<String> intersections, List<String> phrases ) {
+        int maxRare = Math.max( 1, (int) (RARE * docs.length) );
+        ArrayList<String> rare = new ArrayList<String>();
+        ArrayList<String> all = new ArrayList<String>( df.keySet() );
+        Collections.sort( all );
+        for ( String term : all ) {
+            if ( df.get( term ) <= maxRare ) {
+                rare.add( term );
+            }
+        }
+        all.sort( (a, b) -> df.get( b ) - df.get( a ));
+        List<String> common = all.subList( 0, Math.min( COMMON, all.size() ));
+        HashSet<String> commonSet = new HashSet<String>( common );
+
+        Random random = new Random( 42 );
+        for ( int q=0; q<nbQueries && !rare.isEmpty(); q++ ) {
+            String r = rare.get( random.nextInt( rare.size() ));
+            String c = common.get( random.nextInt( common.size() ));
+            intersections.add( q % 2 == 0 ? r + " " + c : c + " " + r );
+        }
+        ArrayList<String> bigrams = new ArrayList<String>();
+        for ( String[] tokens : docs ) {
+            for ( int i=0; i+1<tokens.length; i++ ) {
+                boolean rare1 = df.get( tokens[i] ) <= maxRare;
+                boolean rare2 = df.get( tokens[i+1] ) <= maxRare;
+                if ( (rare1 && commonSet.contains( tokens[i+1] )) || (rare2 && commonSet.contains( tokens[i] )) ) {
+                    bigrams.add( tokens[i] + " " + tokens[i+1] );
+                }
+            }
+        }
+        for ( int q=0; q<nbQueries && !bigrams.isEmpty(); q++ ) {
+            phrases.add( bigrams.get( random.nextInt( bigrams.size() )));
+        }
+    }
+
+
+    /**
+     *  Evaluates a query the way it was done before skipping: every list is
+     *  decoded in full, and the lists are merged one posting at a time.
+     */
+    static PostingsList linearSearch( Index index, Query query, QueryType queryType ) {
+        PostingsList result = index.getPostings( query.queryterm.get( 0 ).term );
+        for ( int t=1; t<query.queryterm.size() && result != null; t++ ) {
+            PostingsList list = index.getPostings( query.queryterm.get( t ).term );
+            if ( list == null ) {
+                return null;
+            }
+            PostingsList merged = new PostingsList();
+            int i = 0, j = 0;
+            while ( i < result.size() && j < list.size() ) {
+                int id1 = result.getDocID( i );
+                int id2 = list.getDocID( j );
+                if ( id1 == id2 ) {
+                    if ( queryType == QueryType.INTERSECTION_QUERY ) {
+                        merged.append( result.get( i ));
+                    } else {
+                        PostingsEntry e1 = result.get( i );
+                        PostingsEntry e2 = list.get( j );
+                        for ( int a=0; a<e1.offsetCount(); a++ ) {
+                            for ( int b=0; b<e2.offsetCount(); b++ ) {
+                                if ( e1.getOffset( a ) + 1 == e2.getOffset( b )) {
+                                    merged.add( id1, e2.getOffset( b ));
+                                }
+                            }
+                        }
+                    }
+                    i++;
+                    j++;
+                } else if ( id1 < id2 ) {
+                    i++;
+                } else {
+                    j++;
+                }
+            }
+            result = merged;
+        }
+        return result;
+    }
+
+    /** Returns true if both results hold the same docIDs. */
+    static boolean sameDocs( PostingsList a, PostingsList b ) {
+        int sizeA = a == null ? 0 : a.size();
+        int sizeB = b == null ? 0 : b.size();
+        if ( sizeA != sizeB ) {
+            return false;
+        }
+        for ( int i=0; i<sizeA; i++ ) {
+            if ( a.getDocID( i ) != b.getDocID( i )) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     *  Runs the queries with both methods, and prints the best time of each.
+     */
+    void time( String name, Index index, Searcher searcher, List<String> queries, QueryType queryType ) {
+        ArrayList<Query> parsed = new ArrayList<Query>();
+        for ( String q : queries ) {
+            parsed.add( new Query( q ));
+        }
+        int mismatches = 0;
+        for ( Query q : parsed ) {
+            if ( !sameDocs( linearSearch( index, q, queryType ), searcher.search( q, queryType, RankingType.TF_IDF, NormalizationType.NUMBER_OF_WORDS ))) {
+                mismatches++;
+            }
+        }
+        long bestLinear = Long.MAX_VALUE, bestSkip = Long.MAX_VALUE;
+        long checksum = 0;
+        for ( int r=0; r<runs; r++ ) {
+            long t0 = System.nanoTime();
+            for ( Query q : parsed ) {
+                PostingsList l = linearSearch( index, q, queryType );
+                checksum += l == null ? 0 : l.size();
+            }
+            long t1 = System.nanoTime();
+            for ( Query q : parsed ) {
+                PostingsList l = searcher.search( q, queryType, RankingType.TF_IDF, NormalizationType.NUMBER_OF_WORDS );
+                checksum += l == null ? 0 : l.size();
+            }
+            long t2 = System.nanoTime();
+            bestLinear = Math.min( bestLinear, t1-t0 );
+            bestSkip = Math.min( bestSkip, t2-t1 );
+        }
+        System.out.println( String.format( "%s: %d queries, linear %.1f us/query, skipping %.1f us/query (%.2fx), %d mismatches (%d)",
+                name, parsed.size(), bestLinear/1e3/parsed.size(), bestSkip/1e3/parsed.size(),
+                bestLinear/(double) bestSkip, mismatches, checksum ));
+    }
+
+
+    void run() throws Exception {
+        docs = BenchmarkCorpus.read( dir );
+        for ( String[] tokens : docs ) {
+            for ( String term : new HashSet<String>( Arrays.asList( tokens ))) {
+                df.merge( term, 1, Integer::sum );
+            }
+        }
+        System.out.println( docs.length + " documents, " + df.size() + " terms, " + (persistent ? "persistent" : "in-memory") + " index" );
+        Index index = buildIndex();
+        Searcher searcher = new Searcher( index, null, null );
+
+        ArrayList<String> intersections = new ArrayList<String>();
+        ArrayList<String> phrases = new ArrayList<String>();
+        makeQueries( intersections, phrases );
+        time( "intersection", index, searcher, intersections, QueryType.INTERSECTION_QUERY );
+        time( "phrase", index, searcher, phrases, QueryType.PHRASE_QUERY );
+    }
+
+
+    public static void main( String[] args ) throws Exception {
+        IntersectionBenchmark b = new IntersectionBenchmark();
+        int i=0;
+        while ( i < args.length ) {
+            if ( "-p".equals( args[i] )) {
+                b.persistent = true;
+                i++;
+                continue;
+            }
+            if ( "-d".equals( args[i] ) && i+1 < args.length ) {
+                b.dir = args[i+1];
+            } else if ( "-q".equals( args[i] ) && i+1 < args.length ) {
+                b.nbQueries = Integer.parseInt( args[i+1] );
+            } else if ( "-r".equals( args[i] ) && i+1 < args.length ) {
+                b.runs = Integer.parseInt( args[i+1] );
+            } else {
+                System.err.println( "Unknown argument: " + args[i] );
+                return;
+            }
+            i += 2;
+        }
+        if ( b.dir == null ) {
+            System.err.println( "Usage: IntersectionBenchmark -d dir [-p] [-q queries] [-r runs]" );
+            return;
+        }
+        b.run();
+    }
+}
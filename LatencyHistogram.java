@@ -0,0 +1,99 @@
+/*
+ *   This file is part of the computer assignment for the
+ *   Information Retrieval course at KTH.
+ *
+ *   Johan Boye, 2017
+ */
+
+package ir;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+
+/**
+ *   Counts latencies in microseconds, for reporting percentiles. Any
+ *   number of threads may record at once, without locking.
+ *
+ *   Latencies below 16 us have a bucket each. Above that, every power of
+ *   two is split into 16 buckets, so a percentile is at most 1/16 above
+ *   the true value, whatever the range of the latencies.
+ */
+public class LatencyHistogram {
+
+    /** The number of buckets per power of two, as a power of two. */
+    private static final int SUB_BITS = 4;
+    private static final int SUB = 1 << SUB_BITS;
+
+    private final AtomicLongArray counts = new AtomicLongArray( (64 - SUB_BITS + 1) * SUB );
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+
+    /** The bucket of a latency. */
+    private static int bucket( long micros ) {
+        if ( micros < SUB ) {
+            return (int) micros;
+        }
+        int e = 63 - Long.numberOfLeadingZeros( micros );
+        int sub = (int) (micros >>> (e - SUB_BITS)) & (SUB - 1);
+        return (e - SUB_BITS + 1) * SUB + sub;
+    }
+
+    /** The largest latency in a bucket. */
+    private static long highest( int bucket ) {
+        if ( bucket < SUB ) {
+            return bucket;
+        }
+        int shift = bucket / SUB - 1;
+        long lowest = (long) (SUB + bucket % SUB) << shift;
+        return lowest + (1L << shift) - 1;
+    }
+
+
+    /** Records a latency. */
+    public void record( long micros ) {
+        micros = Math.max( 0, micros );
+        counts.incrementAndGet( bucket( micros ));
+        count.incrementAndGet();
+        max.accumulateAndGet( micros, Math::max );
+    }
+
+    /** The number of latencies recorded. */
+    public long count() {
+        return count.get();
+    }
+
+    /** The largest latency recorded. */
+    public long max() {
+        return max.get();
+    }
+
+    /**
+     *  The latency that the given fraction of the latencies are at or
+     *  below, rounded up to the end of its bucket and capped by the largest
+     *  latency. Returns 0 if nothing is recorded.
+     *
+     *  Latencies recorded meanwhile may or may not be counted.
+     */
+    public long percentile( double fraction ) {
+        long total = 0;
+        long[] snapshot = new long[counts.length()];
+        for ( int i=0; i<snapshot.length; i++ ) {
+            snapshot[i] = counts.get( i );
+            total += snapshot[i];
+        }
+        if ( total == 0 ) {
+            return 0;
+        }
+        long rank = Math.max( 1, (long) Math.ceil( fraction * total ));
+        long seen = 0;
+        for ( int i=0; i<snapshot.length; i++ ) {
+            seen += snapshot[i];
+            if ( seen >= rank ) {
+                return Math.min( highest( i ), max() );
+            }
+        }
+        return max();
+    }
+}
@@ -0,0 +1,235 @@
+/*
+ *   This file is part of the computer assignment for the
+ *   Information Retrieval course at KTH.
+ *
+ *   Johan Boye, 2018
+ */
+
+package ir;
+
+import java.io.*;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.StringTokenizer;
+
+
+/**
+ *   The graph of the links between documents, in compressed sparse row
+ *   form: the out-links of node i are targets[offsets[i]] up to
+ *   targets[offsets[i+1]-1], in increasing order and without repeats. The
+ *   in-links are kept the same way in inOffsets and sources once
+ *   buildInLinks has been called.
+ *
+ *   A graph of n nodes and m links takes 4(n+1) + 4m bytes each way,
+ *   besides the titles of the nodes, and the links of a node are read off
+ *   one array without any lookup.
+ *
+ *   The nodes are numbered from 0, in the order their titles first appear
+ *   in the links file. Each line of the file has the format
+ *
+ *      title;outTitle1,outTitle2,...,outTitleK
+ */
+public class LinkGraph {
+
+    /** The number of each title. */
+    private final HashMap<String,Integer> numbers;
+
+    /** The title of each node. */
+    private final String[] names;
+
+    /** Where the out-links of each node start in targets, and the end of the last one. */
+    final int[] offsets;
+
+    /** The nodes linked to. */
+    final int[] targets;
+
+    /** Where the in-links of each node start in sources, or null if not built. */
+    int[] inOffsets;
+
+    /** The nodes linking, or null if not built. */
+    int[] sources;
+
+
+    private LinkGraph( HashMap<String,Integer> numbers, String[] names, int[] offsets, int[] targets ) {
+        this.numbers = numbers;
+        this.names = names;
+        this.offsets = offsets;
+        this.targets = targets;
+    }
+
+
+    /**
+     *  Reads a links file. Titles after the first maxNodes are left out,
+     *  with their links.
+     *
+     *  @return The graph, or null if the file cannot be read
+     */
+    public static LinkGraph read( String filename, int maxNodes ) {
+        HashMap<String,Integer> numbers = new HashMap<String,Integer>();
+        String[] names = new String[1024];
+        int n = 0;
+        // The links as they are read, as pairs of node numbers
+        int[] from = new int[1024];
+        int[] to = new int[1024];
+        int m = 0;
+        try ( BufferedReader in = new BufferedReader( new FileReader( filename ))) {
+            String line;
+            while ( (line = in.readLine()) != null && n < maxNodes ) {
+                int index = line.indexOf( ';' );
+                if ( index < 0 ) {
+                    continue;
+                }
+                String title = line.substring( 0, index );
+                Integer fromNode = numbers.get( title );
+                if ( fromNode == null ) {
+                    fromNode = n;
+                    numbers.put( title, n );
+                    names = grow( names, n );
+                    names[n++] = title;
+                }
+                StringTokenizer tok = new StringTokenizer( line.substring( index+1 ), "," );
+                while ( tok.hasMoreTokens() && n < maxNodes ) {
+                    String otherTitle = tok.nextToken();
+                    Integer toNode = numbers.get( otherTitle );
+                    if ( toNode == null ) {
+                        toNode = n;
+                        numbers.put( otherTitle, n );
+                        names = grow( names, n );
+                        names[n++] = otherTitle;
+                    }
+                    if ( m == from.length ) {
+                        from = Arrays.copyOf( from, 2*m );
+                        to = Arrays.copyOf( to, 2*m );
+                    }
+                    from[m] = fromNode;
+                    to[m++] = toNode;
+                }
+            }
+        } catch ( FileNotFoundException e ) {
+            System.err.println( "File " + filename + " not found!" );
+            return null;
+        } catch ( IOException e ) {
+            System.err.println( "Error reading file " + filename );
+            return null;
+        }
+        int[][] csr = compress( n, from, to, m );
+        return new LinkGraph( numbers, Arrays.copyOf( names, n ), csr[0], csr[1] );
+    }
+
+    private static String[] grow( String[] names, int n ) {
+        return n < names.length ? names : Arrays.copyOf( names, 2*names.length );
+    }
+
+    /**
+     *  Sorts m links on their first node with a counting sort, and each
+     *  row on the second node, dropping repeated links.
+     *
+     *  @return The offsets and the targets
+     */
+    private static int[][] compress( int n, int[] from, int[] to, int m ) {
+        int[] offsets = new int[n+1];
+        for ( int e=0; e<m; e++ ) {
+            offsets[from[e]+1]++;
+        }
+        for ( int i=0; i<n; i++ ) {
+            offsets[i+1] += offsets[i];
+        }
+        int[] next = Arrays.copyOf( offsets, n );
+        int[] targets = new int[m];
+        for ( int e=0; e<m; e++ ) {
+            targets[next[from[e]]++] = to[e];
+        }
+        // Sort every row and drop repeats, moving the rows down over the gaps
+        int k = 0;
+        int start = 0;
+        for ( int i=0; i<n; i++ ) {
+            int end = offsets[i+1];
+            Arrays.sort( targets, start, end );
+            offsets[i] = k;
+            for ( int e=start; e<end; e++ ) {
+                if ( e == start || targets[e] != targets[e-1] ) {
+                    targets[k++] = targets[e];
+                }
+            }
+            start = end;
+        }
+        offsets[n] = k;
+        return new int[][] { offsets, k == m ? targets : Arrays.copyOf( targets, k ) };
+    }
+
+
+    /**
+     *  Builds the in-links of every node, the transpose of the graph, if
+     *  they are not built yet.
+     */
+    public synchronized void buildInLinks() {
+        if ( sources != null ) {
+            return;
+        }
+        int n = size();
+        int[] from = new int[targets.length];
+        for ( int i=0; i<n; i++ ) {
+            for ( int e=offsets[i]; e<offsets[i+1]; e++ ) {
+                from[e] = i;
+            }
+        }
+        // The links are sorted on their first node, so the rows come out sorted
+        int[] counts = new int[n+1];
+        for ( int t : targets ) {
+            counts[t+1]++;
+        }
+        for ( int i=0; i<n; i++ ) {
+            counts[i+1] += counts[i];
+        }
+        int[] next = Arrays.copyOf( counts, n );
+        int[] in = new int[targets.length];
+        for ( int e=0; e<targets.length; e++ ) {
+            in[next[targets[e]]++] = from[e];
+        }
+        inOffsets = counts;
+        sources = in;
+    }
+
+
+    /** The number of nodes. */
+    public int size() {
+        return names.length;
+    }
+
+    /** The number of links. */
+    public int linkCount() {
+        return targets.length;
+    }
+
+    /** The number of the node with the given title, or -1 if there is none. */
+    public int number( String title ) {
+        Integer node = numbers.get( title );
+        return node == null ? -1 : node;
+    }
+
+    /** The title of a node. */
+    public String name( int node ) {
+        return names[node];
+    }
+
+    public int outDegree( int node ) {
+        return offsets[node+1] - offsets[node];
+    }
+
+    /** Returns true if the first node links to the second. */
+    public boolean hasLink( int from, int to ) {
+        return Arrays.binarySearch( targets, offsets[from], offsets[from+1], to ) >= 0;
+    }
+
+    /**
+     *  The bytes of the arrays of links, with the in-links if they are
+     *  built. The titles are not counted.
+     */
+    public long bytes() {
+        long bytes = 4L*(offsets.length + targets.length);
+        if ( sources != null ) {
+            bytes += 4L*(inOffsets.length + sources.length);
+        }
+        return bytes;
+    }
+}
@@ -0,0 +1,163 @@
+/*
+ *   This file is part of the computer assignment for the
+ *   Information Retrieval course at KTH.
+ *
+ *   Johan Boye, 2018
+ */
+
+package ir;
+
+import java.io.*;
+import java.util.*;
+
+
+/**
+ *   Reads a links file into a LinkGraph, and prints the time taken and the
+ *   memory the graph holds on to, measured as the growth of the used heap
+ *   after a collection. With -old, the file is also read into the nested
+ *   hash maps PageRank kept the links in before, for comparison.
+ *
+ *   With -g, a random links file of the given number of nodes and links is
+ *   written first, in the format of linksDavis.txt, and read after. The
+ *   titles are numbers, and the targets of each node are drawn with a skew
+ *   towards low numbers, so that some nodes get many in-links.
+ *
+ *   Usage: LinkGraphBenchmark -f file [-g nodes links] [-old]
+ */
+public class LinkGraphBenchmark {
+
+    String file = null;
+    int nodes = 0;
+    long links = 0;
+    boolean old = false;
+
+
+    /** Writes a random links file of the given number of nodes and links. */
+    static void generate( String file, int nodes, long links ) throws IOException {
+        Random random = new Random( 1 );
+        try ( BufferedWriter out = new BufferedWriter( new FileWriter( file ), 1 << 16 )) {
+            long written = 0;
+            for ( int i=0; i<nodes; i++ ) {
+                // Spread the remaining links evenly over the remaining nodes
+                long left = links - written;
+                int degree = (int) ((left + random.nextInt( nodes - i )) / (nodes - i));
+                out.write( Integer.toString( i ));
+                out.write( ';' );
+                for ( int e=0; e<degree; e++ ) {
+                    double u = random.nextDouble();
+                    out.write( Integer.toString( (int) (u*u*nodes) ));
+                    out.write( ',' );
+                }
+                out.newLine();
+                written += degree;
+            }
+        }
+    }
+
+
+    /** The used heap after a collection. */
+    static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for ( int i=0; i<3; i++ ) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+
+    /** Reads the links into nested hash maps, as PageRank did before LinkGraph. */
+    static HashMap<Integer,HashMap<Integer,Boolean>> readHashMaps( String filename ) throws IOException {
+        HashMap<String,Integer> docNumber = new HashMap<String,Integer>();
+        HashMap<Integer,HashMap<Integer,Boolean>> link = new HashMap<Integer,HashMap<Integer,Boolean>>();
+        int n = 0;
+        try ( BufferedReader in = new BufferedReader( new FileReader( filename ))) {
+            String line;
+            while ( (line = in.readLine()) != null && n < PageRank.MAX_NUMBER_OF_DOCS ) {
+                int index = line.indexOf( ';' );
+                String title = line.substring( 0, index );
+                Integer fromdoc = docNumber.get( title );
+                if ( fromdoc == null ) {
+                    fromdoc = n++;
+                    docNumber.put( title, fromdoc );
+                }
+                StringTokenizer tok = new StringTokenizer( line.substring( index+1 ), "," );
+                while ( tok.hasMoreTokens() && n < PageRank.MAX_NUMBER_OF_DOCS ) {
+                    String otherTitle = tok.nextToken();
+                    Integer otherDoc = docNumber.get( otherTitle );
+                    if ( otherDoc == null ) {
+                        otherDoc = n++;
+                        docNumber.put( otherTitle, otherDoc );
+                    }
+                    link.computeIfAbsent( fromdoc, k -> new HashMap<Integer,Boolean>() ).put( otherDoc, true );
+                }
+            }
+        }
+        return link;
+    }
+
+
+    void run() throws IOException {
+        if ( nodes > 0 ) {
+            long startTime = System.nanoTime();
+            generate( file, nodes, links );
+            System.err.printf( "Wrote %d nodes and %d links to %s in %.1f s%n", nodes, links, file, (System.nanoTime() - startTime) / 1e9 );
+        }
+
+        long before = usedHeap();
+        long startTime = System.nanoTime();
+        LinkGraph graph = LinkGraph.read( file, PageRank.MAX_NUMBER_OF_DOCS );
+        if ( graph == null ) {
+            return;
+        }
+        double readSeconds = (System.nanoTime() - startTime) / 1e9;
+        long csrBytes = graph.bytes();
+        startTime = System.nanoTime();
+        graph.buildInLinks();
+        double inSeconds = (System.nanoTime() - startTime) / 1e9;
+        long heap = usedHeap() - before;
+        System.out.printf( "LinkGraph: %d nodes, %d links%n", graph.size(), graph.linkCount() );
+        System.out.printf( "  read %.2f s, in-links %.2f s%n", readSeconds, inSeconds );
+        System.out.printf( "  out-link arrays %.1f MB, with in-links %.1f MB, heap with titles %.1f MB%n",
+                           csrBytes / 1e6, graph.bytes() / 1e6, heap / 1e6 );
+        graph = null;
+
+        if ( old ) {
+            before = usedHeap();
+            startTime = System.nanoTime();
+            HashMap<Integer,HashMap<Integer,Boolean>> link = readHashMaps( file );
+            readSeconds = (System.nanoTime() - startTime) / 1e9;
+            heap = usedHeap() - before;
+            System.out.printf( "Hash maps: %d nodes with links%n", link.size() );
+            System.out.printf( "  read %.2f s, heap with titles %.1f MB%n", readSeconds, heap / 1e6 );
+        }
+    }
+
+
+    public static void main( String[] args ) throws IOException {
+        LinkGraphBenchmark b = new LinkGraphBenchmark();
+        int i = 0;
+        while ( i < args.length ) {
+            if ( "-old".equals( args[i] )) {
+                b.old = true;
+                i++;
+                continue;
+            }
+            if ( "-f".equals( args[i] ) && i+1 < args.length ) {
+                b.file = args[i+1];
+                i += 2;
+            } else if ( "-g".equals( args[i] ) && i+2 < args.length ) {
+                b.nodes = Integer.parseInt( args[i+1] );
+                b.links = Long.parseLong( args[i+2] );
+                i += 3;
+            } else {
+                System.err.println( "Unknown argument: " + args[i] );
+                return;
+            }
+        }
+        if ( b.file == null ) {
+            System.err.println( "Usage: LinkGraphBenchmark -f file [-g nodes links] [-old]" );
+            return;
+        }
+        b.run();
+    }
+}
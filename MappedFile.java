@@ -0,0 +1,103 @@
+/*
+ *   This file is part of the computer assignment for the
+ *   Information Retrieval course at KTH.
+ *
+ *   Johan Boye, KTH, 2018
+ */
+
+package ir;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+
+/**
+ *   A read-only, memory-mapped view of a file.
+ *
+ *   All reads are absolute, so one MappedFile can be shared by any number
+ *   of threads without locking. A single MappedByteBuffer cannot be larger
+ *   than 2 GB, so larger files are mapped as several segments. Neighbouring
+ *   segments overlap by a few bytes, which means a primitive value is always
+ *   readable from a single segment; only a byte range that straddles a
+ *   segment boundary has to be copied.
+ */
+public class MappedFile {
+
+    /** The number of bytes starting in each segment. */
+    static final long SEGMENT_SIZE = 1L << 30;
+
+    /** The number of bytes each segment extends into the next one. */
+    static final int SEGMENT_OVERLAP = 64;
+
+    /** The mapped segments, in file order. */
+    private final MappedByteBuffer[] segments;
+
+    /** The length of the file when it was mapped. */
+    private final long length;
+
+
+    /**
+     *  Maps the current contents of the given file.
+     */
+    public MappedFile( RandomAccessFile file ) throws IOException {
+        FileChannel channel = file.getChannel();
+        length = channel.size();
+        int nbSegments = (int) ((length + SEGMENT_SIZE - 1) / SEGMENT_SIZE);
+        segments = new MappedByteBuffer[nbSegments];
+        for ( int i=0; i<nbSegments; i++ ) {
+            long start = i*SEGMENT_SIZE;
+            long size = Math.min( length - start, SEGMENT_SIZE + SEGMENT_OVERLAP );
+            segments[i] = channel.map( FileChannel.MapMode.READ_ONLY, start, size );
+        }
+    }
+
+
+    /** Returns the length of the mapped file. */
+    public long length() {
+        return length;
+    }
+
+    /** Reads the long at the given position. */
+    public long getLong( long pos ) {
+        return segment( pos ).getLong( offset( pos ));
+    }
+
+    /** Reads the int at the given position. */
+    public int getInt( long pos ) {
+        return segment( pos ).getInt( offset( pos ));
+    }
+
+    /**
+     *  Returns a buffer holding the given byte range, positioned at its
+     *  first byte. The buffer is private to the caller.
+     */
+    public ByteBuffer slice( long pos, int size ) {
+        MappedByteBuffer segment = segment( pos );
+        int offset = offset( pos );
+        if ( offset + size <= segment.limit() ) {
+            return segment.slice( offset, size );
+        }
+        // The range straddles a segment boundary
+        byte[] data = new byte[size];
+        int copied = 0;
+        while ( copied < size ) {
+            MappedByteBuffer s = segment( pos + copied );
+            int o = offset( pos + copied );
+            int n = (int) Math.min( size - copied, SEGMENT_SIZE - o );
+            s.get( o, data, copied, n );
+            copied += n;
+        }
+        return ByteBuffer.wrap( data );
+    }
+
+    private MappedByteBuffer segment( long pos ) {
+        return segments[(int) (pos / SEGMENT_SIZE)];
+    }
+
+    private static int offset( long pos ) {
+        return (int) (pos % SEGMENT_SIZE);
+    }
+}
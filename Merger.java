@@ -1,12 +1,10 @@
 package ir;
 
-import java.io.EOFException;
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
 import java.util.LinkedList;
 
-import ir.PersistentHashedIndex.Entry;
-
 public class Merger extends Thread{
 
 	private RandomAccessFile primaryDict;
@@ -14,23 +12,9 @@ public class Merger extends Thread{
 	private RandomAccessFile secondaryDict;
 	private RandomAccessFile secondaryData;
     private LinkedList<RandomAccessFile> mergeQueue = new LinkedList<RandomAccessFile>();
-    private LinkedList<mergedEntry> entryQueue = new LinkedList<mergedEntry>();
     private PersistentScalableHashedIndex resultHashedIndex;
 	private LinkedList<Merger> threadQueue = new LinkedList<Merger>();
     
-    /**
-     *   A helper class representing a merged entry.
-     *   The merged entry only has a checksum and the data to be written.
-     */ 
-    public class mergedEntry {
-        long checksum;
-        String dataToWrite;
-        public mergedEntry(long checksum, String dataToWrite) {
-        	this.checksum = checksum;
-        	this.dataToWrite =dataToWrite;
-        }
-    }
-    
 	public Merger(RandomAccessFile primaryDict, RandomAccessFile primaryData,
 			RandomAccessFile secondaryDict, RandomAccessFile secondaryData,
 			RandomAccessFile resultDict, RandomAccessFile resultData,
@@ -40,74 +24,30 @@ public class Merger extends Thread{
 		this.primaryData = primaryData;
 		this.secondaryDict = secondaryDict;
 		this.secondaryData = secondaryData;
-		this.resultHashedIndex = new PersistentScalableHashedIndex(resultDict,resultData);
+		// The merged lists are only written, so the index needs no postings cache
+		this.resultHashedIndex = new PersistentScalableHashedIndex(resultDict,resultData,null);
 		this.mergeQueue = mergeQueue;
 		this.threadQueue = threadQueue;
 	
 	}
 
     /**
-     *  Goes through every index position and merge them into one dictionary with corresponing data.
+     *  Merges the two dictionaries with their corresponding data into one.
+     *  Terms that occur in both are merged into one postings list; the
+     *  others are copied.
      */
 	public void run() {
-		int ind = 0;
-		boolean endOfFile1 = false;
-		boolean endOfFile2 = false;
-		while(!endOfFile1 || !endOfFile2) {
-			int readDataSize1 =0;
-			long readChecksum1 =0;
-			long readDataPtr1 = -1;
-			int readDataSize2 =0;
-			long readChecksum2 =0;
-			long readDataPtr2 = -1;
-			if (!endOfFile1) {
-				try { // read from primary
-					primaryDict.seek( PersistentHashedIndex.ptrFromIndex(ind) );
-			        readDataPtr1 = primaryDict.readLong();
-			        readChecksum1 = primaryDict.readLong();
-			        readDataSize1 = primaryDict.readInt();
-				} catch (EOFException e) {
-					endOfFile1 = true;
-					readDataSize1 = 0;	
-				}
-				catch (IOException e) {
-					e.printStackTrace();
-				}
+		try {
+			TermDictionary primary = PersistentHashedIndex.openDictionary(new MappedFile(primaryDict));
+			TermDictionary secondary = PersistentHashedIndex.openDictionary(new MappedFile(secondaryDict));
+			if (primary instanceof SortedTermDictionary) {
+				mergeSorted((SortedTermDictionary) primary, (SortedTermDictionary) secondary);
 			}
-			if (!endOfFile2) {
-				try { // read from secondary
-					secondaryDict.seek( PersistentHashedIndex.ptrFromIndex(ind) );
-			        readDataPtr2 = secondaryDict.readLong();
-			        readChecksum2 = secondaryDict.readLong();
-			        readDataSize2 = secondaryDict.readInt();
-				} catch (EOFException e) {
-					endOfFile2 = true;
-					readDataSize2 = 0;
-				}
-				catch (IOException e) {
-					e.printStackTrace();
-				}
+			else {
+				mergeHashed((HashedDictionary) primary, (HashedDictionary) secondary);
 			}
-			
-			if(readDataSize1==0 && readDataSize2==0)
-				case1(ind);
-			else if (readDataSize1!=0 && readDataSize2==0)
-				case2(readDataSize1,readChecksum1,readDataPtr1,ind, true);
-			else if (readDataSize1==0 && readDataSize2!=0)
-				case2(readDataSize2,readChecksum2,readDataPtr2,ind, false);
-			else if (readDataSize1!=0 && readDataSize2!=0) {
-				if (readChecksum1==readChecksum2)
-					case3(readDataSize1, readDataPtr1,
-						  readDataSize2,readDataPtr2, readChecksum1, ind);
-				else
-					case4(readDataSize1,readChecksum1,readDataPtr1,
-						  readDataSize2,readChecksum2,readDataPtr2, ind);
-			}
-			ind++;	
-		}
-		while(entryQueue.size()!=0) {
-			case1(ind);
-			ind++;
+		} catch (IOException e) {
+			e.printStackTrace();
 		}
 		
 		mergeQueue.add(resultHashedIndex.dictionaryFile);
@@ -118,179 +58,118 @@ public class Merger extends Thread{
 	}
 
     /**
-     *  Writes the first entry in the entryQueue if any at this index.
-     *  We do this when both entries are null.
-     *  
-     *  @param ind The index to write
-     *
+     *  Merges two hashed dictionaries. The result dictionary is sized for
+     *  the union of the terms.
      */
-	private void case1(long ind) { // write first el in entryQueue if not empty
-		if (entryQueue.size()>0) {
-			mergedEntry toWrite = entryQueue.removeFirst();
-			writeEntryAndData(toWrite, ind);
+	private void mergeHashed(HashedDictionary primary, HashedDictionary secondary) throws IOException {
+		// Find the terms that occur in both dictionaries
+		int[] match = new int[primary.tableSize()];
+		int unionSize = secondary.termCount();
+		for (int slot = 0; slot < primary.tableSize(); slot++) {
+			if (primary.isOccupied(slot)) {
+				match[slot] = secondary.find(primary.checksum(slot));
+				if (match[slot] < 0)
+					unionSize++;
+			}
 		}
-	}
-	
-    /**
-     *  Writes an entry with given data to the given index.
-     *  We do this when only one of the entries is not null
-     *  
-     *  @param readDataSize The dataSize of the entry
-     *  @param readChecksum The checksum of the entry
-     *  @param readDataPtr  The data pointer of the entry
-     *  @param ind 			The index to write
-     *  @param first 		Boolean telling which file this entry comes from
-     *
-     */
-	private void case2(int readDataSize, long readChecksum, long readDataPtr, long ind, boolean first) { // find corresponding, merge, write at current ind
-		RandomAccessFile dictFileToLook;
-		RandomAccessFile dataFileToLook;
-		RandomAccessFile dataFileThis;
-		if (first) {
-			dataFileThis = primaryData;
-			dictFileToLook = secondaryDict;
-			dataFileToLook = secondaryData;
+
+		HashedDictionary result = new HashedDictionary(unionSize, resultHashedIndex.loadFactor);
+		boolean[] merged = new boolean[secondary.tableSize()];
+		for (int slot = 0; slot < primary.tableSize(); slot++) {
+			if (!primary.isOccupied(slot))
+				continue;
+			byte[] data;
+			int other = match[slot];
+			if (other >= 0) {
+				data = mergeEntries(primary.dataSize(slot), primary.dataPtr(slot),
+						secondary.dataSize(other), secondary.dataPtr(other), primaryData, secondaryData);
+				merged[other] = true;
+			}
+			else {
+				data = PersistentHashedIndex.readData(primary.dataPtr(slot), primary.dataSize(slot), primaryData);
+			}
+			result.put(primary.checksum(slot), writeData(data), data.length);
 		}
-			
-		else {
-			dataFileThis = secondaryData;
-			dictFileToLook = primaryDict;
-			dataFileToLook = primaryData;
+		for (int slot = 0; slot < secondary.tableSize(); slot++) {
+			if (secondary.isOccupied(slot) && !merged[slot]) {
+				byte[] data = PersistentHashedIndex.readData(secondary.dataPtr(slot), secondary.dataSize(slot), secondaryData);
+				result.put(secondary.checksum(slot), writeData(data), data.length);
+			}
 		}
-		mergedEntry merged = findAndDelCorresponding(ind,readChecksum,readDataPtr,readDataSize, dataFileThis, dataFileToLook, dictFileToLook);
-		writeEntryAndData(merged, ind);
+		resultHashedIndex.dataFile.setLength(resultHashedIndex.dataWritePtr);
+		result.write(resultHashedIndex.dictionaryFile);
 	}
 
     /**
-     *  Merges entries with given data to the given index.
-     *  We do this when both entries are not null and the checksum matches.
-     *  
-     *  @param readDataSize1 	The dataSize of the first entry
-     *  @param readDataPtr1 	The data pointer of the first entry
-     *  @param readDataSize2  	The dataSize of the second entry
-     *  @param readDataPtr2 	The data pointer of the second entry
-     *  @param checksum 		The matching checksum
-     *  @param ind 				The index to write
-     *
-     */
-	private void case3(int readDataSize1, long readDataPtr1,
-			int readDataSize2, long readDataPtr2, long checksum, long ind) { // merge entries, write at current ind
-		mergedEntry merged = mergeEntries(readDataSize1,readDataPtr1,readDataSize2,readDataPtr2, checksum,
-				primaryData, secondaryData);
-		writeEntryAndData(merged, ind);
-	}
-
-    /**
-     *  Find the corresponding entry for each of entries.
-     *  Merge the corresponding entries.
-     *  Write the merged entry originating from the first file to the given index.
-     *  Add the merged entry originating from the second file to the the entryQueue.
-     *  We do this when both entries are not null and the checksums don't match.
-     *  
-     *  @param readDataSize1 	The dataSize of the first entry
-     *  @param readDataPtr1 	The data pointer of the first entry
-     *  @param readChecksum1 	The checksum of the first entry
-     *  @param readDataSize2  	The dataSize of the second entry
-     *  @param readDataPtr2 	The data pointer of the second entry
-     *  @param readChecksum2 	The checksum of the second entry
-     *  @param ind 				The index to write
-     *
+     *  Merges two sorted dictionaries by walking both in term order.
      */
-	private void case4(int readDataSize1, long readChecksum1, long readDataPtr1, 
-			int readDataSize2, long readChecksum2, long readDataPtr2, long ind) {
-		case2(readDataSize1,readChecksum1,readDataPtr1,ind, true);
-		mergedEntry merged = findAndDelCorresponding(ind,readChecksum2,readDataPtr2,readDataSize2,secondaryData, primaryData, primaryDict);
-		entryQueue.add(merged);
-	}
-	
-    /**
-     *  Finds the entry corresponding to the given data and merges it with the data.
-     *  Deletes the found entry.
-     *
-     *  @param ind 				The index in the dictionary file where to start reading.
-     *  @param readChecksum 	The checksum to check
-     *  @param readDataPtr 		The data pointer of the entry to be matched
-     *  @param readDataSize 	The data size of the entry to be matched
-     *  @param dataFileThis 	The data file of the entry to be matched
-     *  @param dataFileToLook 	The data file to look for a match
-     *  @param dictFileToLook 	The dictionary file to look for a match
-     *  
-     *  @return The merged entry
-     */
-	private mergedEntry findAndDelCorresponding(long ind, long readChecksum, long readDataPtr, int readDataSize,
-			RandomAccessFile dataFileThis, RandomAccessFile dataFileToLook, RandomAccessFile dictFileToLook) {
-		mergedEntry result;
-		Entry entryMatch = resultHashedIndex.readEntryAndDel(ind, readChecksum,dictFileToLook,10);
-		if (entryMatch!=null) {
-			result = mergeEntries(readDataSize,readDataPtr,entryMatch.dataSize,entryMatch.dataPtr,readChecksum,
-					dataFileThis, dataFileToLook);
-		}
-		else {
-			String s1 = PersistentHashedIndex.readData( readDataPtr, readDataSize, dataFileThis );
-			result = new mergedEntry(readChecksum,s1);
+	private void mergeSorted(SortedTermDictionary primary, SortedTermDictionary secondary) throws IOException {
+		SortedTermDictionary result = new SortedTermDictionary();
+		SortedTermDictionary.TermCursor c1 = primary.cursor();
+		SortedTermDictionary.TermCursor c2 = secondary.cursor();
+		boolean has1 = c1.next();
+		boolean has2 = c2.next();
+		while (has1 || has2) {
+			int cmp = !has1 ? 1 : !has2 ? -1 : c1.term().compareTo(c2.term());
+			byte[] data;
+			String term;
+			if (cmp == 0) {
+				term = c1.term();
+				data = mergeEntries(c1.dataSize(), c1.dataPtr(), c2.dataSize(), c2.dataPtr(), primaryData, secondaryData);
+				has1 = c1.next();
+				has2 = c2.next();
+			}
+			else if (cmp < 0) {
+				term = c1.term();
+				data = PersistentHashedIndex.readData(c1.dataPtr(), c1.dataSize(), primaryData);
+				has1 = c1.next();
+			}
+			else {
+				term = c2.term();
+				data = PersistentHashedIndex.readData(c2.dataPtr(), c2.dataSize(), secondaryData);
+				has2 = c2.next();
+			}
+			result.put(term, writeData(data), data.length);
 		}
-		return result;
+		resultHashedIndex.dataFile.setLength(resultHashedIndex.dataWritePtr);
+		result.write(resultHashedIndex.dictionaryFile);
 	}
 	
-	
     /**
-     *  Finds the entry corresponding to the given data and merges it with the data.
-     *  Deletes the found entry.
+     *  Reads the data of two entries for the same term and merges them.
      *
      *  @param readDataSize1 	The dataSize of the first entry
      *  @param readDataPtr1 	The data pointer of the first entry
      *  @param readDataSize2  	The dataSize of the second entry
      *  @param readDataPtr2 	The data pointer of the second entry
-     *  @param checksum 		The matching checksum
      *  @param dataFileThis 	The data file of the first entry
      *  @param dataFileToLook 	The data file of the second entry
-     *       *  
-     *  @return The merged entry
+     *  
+     *  @return The merged data
      */
-	private mergedEntry mergeEntries(int readDataSize1, long readDataPtr1, int readDataSize2, long readDataPtr2, long checksum,
+	private byte[] mergeEntries(int readDataSize1, long readDataPtr1, int readDataSize2, long readDataPtr2,
 			RandomAccessFile dataFileThis, RandomAccessFile dataFileToLook) {
-		String s1 = PersistentHashedIndex.readData( readDataPtr1, readDataSize1,  dataFileThis);
-		PostingsList pList1 = PostingsList.stringToObj(s1);
-		String s2 = PersistentHashedIndex.readData( readDataPtr2, readDataSize2,  dataFileToLook);
-		PostingsList pList2 = PostingsList.stringToObj(s2);
+		PostingsCodec codec = resultHashedIndex.codec;
+		byte[] data1 = PersistentHashedIndex.readData( readDataPtr1, readDataSize1,  dataFileThis);
+		PostingsList pList1 = codec.decode(ByteBuffer.wrap(data1));
+		byte[] data2 = PersistentHashedIndex.readData( readDataPtr2, readDataSize2,  dataFileToLook);
+		PostingsList pList2 = codec.decode(ByteBuffer.wrap(data2));
 		PostingsList pList3 = PostingsList.merge(pList1, pList2);
-		return new mergedEntry(checksum, pList3.toString());
+		return codec.encode(pList3);
 	}
 	
     /**
-     *  Write the merged entry with corresponding data
+     *  Appends data to the result data file
      *  
-     *  @param merged 	Merged entry to write
-     *  @param ind 	index to write to
+     *  @param data 	The data to write
      *
+     *  @return Where the data was written
      */
-	private void writeEntryAndData(mergedEntry merged, long ind) {
-		int dataSizeWritten =resultHashedIndex.writeData( merged.dataToWrite, resultHashedIndex.dataWritePtr);
-		Entry eToWrite = resultHashedIndex.new Entry(merged.checksum, resultHashedIndex.dataWritePtr,dataSizeWritten);
-		resultHashedIndex.writeEntry(eToWrite, ind );
-		resultHashedIndex.dataWritePtr += dataSizeWritten;
+	private long writeData(byte[] data) {
+		long ptr = resultHashedIndex.dataWritePtr;
+		resultHashedIndex.dataWritePtr += resultHashedIndex.writeData( data, ptr);
+		return ptr;
 	}
 	
 
 }
-
-
-
-
-
-
-
-
-
-
-
-
-
-
-
-
-
-
-
-
-
@@ -0,0 +1,104 @@
+/*
+ *   This file is part of the computer assignment for the
+ *   Information Retrieval course at KTH.
+ *
+ *   Johan Boye, 2018
+ */
+
+package ir;
+
+import java.util.Arrays;
+
+
+/**
+ *   Runs the Monte Carlo PageRank methods with more and more walks, and
+ *   prints the time taken and the goodness of the estimate against the
+ *   exact top 30 of Davis (PageRank.EXACTTOP30; 0 is the exact ranking),
+ *   so accuracy can be traded against time. Every estimate is made again
+ *   on one thread, and must be the same.
+ *
+ *   Then the methods are run with walkUntil, for a few targets of the L1
+ *   distance between the estimates after two rounds of walks.
+ *
+ *   Usage: MonteCarloBenchmark -f linksDavis.txt [-t threads] [-seed seed]
+ */
+public class MonteCarloBenchmark {
+
+    /** The walks per document to try. */
+    static final int[] WALKS_PER_DOC = { 1, 2, 5, 10, 20, 50, 100 };
+
+    /** The distances to try with walkUntil. */
+    static final double[] TARGETS = { 1e-2, 3e-3, 1e-3 };
+
+    String file = null;
+    int threads = Runtime.getRuntime().availableProcessors();
+    long seed = 1;
+
+
+    void run() {
+        PageRank pr = new PageRank();
+        int n = pr.readDocs( file );
+        if ( n == 0 ) {
+            return;
+        }
+        LinkGraph graph = pr.graph;
+        long startTime = System.nanoTime();
+        double[] exact = new PowerIteration( graph, PageRank.BORED, threads ).run( PageRank.EPSILON, 1000 );
+        System.out.println( String.format( "%d documents, %d threads, power iteration %.1f ms, goodness %.0f",
+                n, threads, (System.nanoTime() - startTime) / 1e6, pr.goodness( exact )));
+
+        // Warm up
+        try ( MonteCarloPageRank mc = new MonteCarloPageRank( graph, PageRank.c, seed, threads )) {
+            mc.walk( MonteCarloPageRank.Method.COMPLETE_PATH_CYCLIC_START, 10L*n );
+        }
+
+        for ( MonteCarloPageRank.Method method : MonteCarloPageRank.Method.values() ) {
+            System.out.println( method );
+            for ( int m : WALKS_PER_DOC ) {
+                MonteCarloPageRank mc = new MonteCarloPageRank( graph, PageRank.c, seed, threads );
+                startTime = System.nanoTime();
+                mc.walk( method, (long) m*n );
+                double[] pi = mc.estimate();
+                double millis = (System.nanoTime() - startTime) / 1e6;
+                mc.close();
+                MonteCarloPageRank single = new MonteCarloPageRank( graph, PageRank.c, seed, 1 );
+                single.walk( method, (long) m*n );
+                System.out.println( String.format( "  %4d walks/doc %10.1f ms %6.2f Mwalks/s   goodness %8.0f   %s",
+                        m, millis, mc.walks() / millis / 1000, pr.goodness( pi ),
+                        Arrays.equals( pi, single.estimate() ) ? "same on 1 thread" : "DIFFERENT ON 1 THREAD" ));
+            }
+            for ( double target : TARGETS ) {
+                MonteCarloPageRank mc = new MonteCarloPageRank( graph, PageRank.c, seed, threads );
+                startTime = System.nanoTime();
+                double[] pi = mc.walkUntil( method, target, 1000L*n );
+                mc.close();
+                System.out.println( String.format( "  until %.0e: %4d walks/doc %10.1f ms   goodness %8.0f",
+                        target, mc.walks() / n, (System.nanoTime() - startTime) / 1e6, pr.goodness( pi )));
+            }
+        }
+    }
+
+
+    public static void main( String[] args ) {
+        MonteCarloBenchmark b = new MonteCarloBenchmark();
+        int i = 0;
+        while ( i < args.length ) {
+            if ( "-f".equals( args[i] ) && i+1 < args.length ) {
+                b.file = args[i+1];
+            } else if ( "-t".equals( args[i] ) && i+1 < args.length ) {
+                b.threads = Integer.parseInt( args[i+1] );
+            } else if ( "-seed".equals( args[i] ) && i+1 < args.length ) {
+                b.seed = Long.parseLong( args[i+1] );
+            } else {
+                System.err.println( "Unknown argument: " + args[i] );
+                return;
+            }
+            i += 2;
+        }
+        if ( b.file == null ) {
+            System.err.println( "Usage: MonteCarloBenchmark -f linksDavis.txt [-t threads] [-seed seed]" );
+            return;
+        }
+        b.run();
+    }
+}
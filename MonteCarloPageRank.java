@@ -0,0 +1,301 @@
+/*
+ *   This file is part of the computer assignment for the
+ *   Information Retrieval course at KTH.
+ *
+ *   Johan Boye, 2018
+ */
+
+package ir;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+/**
+ *   Estimates PageRank by random walks on a LinkGraph. A walk goes on from
+ *   node to node with probability c, and stops otherwise, and after at
+ *   most MAXT steps. The walks are counted in one of two ways:
+ *
+ *      END_POINT: the node where each walk stops. From a sink, the walk
+ *      jumps to a random node.
+ *
+ *      COMPLETE_PATH: every node each walk visits. A walk stops at a sink.
+ *
+ *   and start either at a random node, or at every node in turn, which
+ *   gives the four methods below. The estimate is the count of each node
+ *   divided by the total.
+ *
+ *   Walks are added in chunks, and every chunk has its own SplittableRandom,
+ *   split from the random generator of the estimator in chunk order. The
+ *   chunks are shared out among the threads, each counting into an array
+ *   of its own, and the arrays are added up after. The counts are integers,
+ *   so the estimate depends on the seed and the walks asked for, but not on
+ *   the number of threads or which thread ran which chunk.
+ *
+ *   The threads and their arrays are kept from one call of walk to the
+ *   next, so an estimator on more than one thread should be closed when
+ *   it is done with.
+ */
+public class MonteCarloPageRank implements AutoCloseable {
+
+    public enum Method {
+        /** Method 1: end points of walks from random nodes. */
+        END_POINT_RANDOM_START,
+        /** Method 2: end points of walks from every node in turn. */
+        END_POINT_CYCLIC_START,
+        /** Method 4: complete paths of walks from every node in turn. */
+        COMPLETE_PATH_CYCLIC_START,
+        /** Method 5: complete paths of walks from random nodes. */
+        COMPLETE_PATH_RANDOM_START
+    }
+
+    /** The most steps a walk takes. */
+    public static final int MAXT = 50;
+
+    /** The number of walks in a chunk. */
+    private static final int CHUNK = 4096;
+
+    private final LinkGraph graph;
+    private final double c;
+    private final int threads;
+    private final SplittableRandom random;
+
+    /** The counts of each node, and their sum. */
+    private final long[] counts;
+    private long total = 0;
+
+    /** The number of walks taken, which is where the next cyclic walk starts. */
+    private long walks = 0;
+
+    /** The counts of each thread, which are zero between walks. */
+    private final int[][] partials;
+
+    /** The threads to walk on, started by the first walk that needs them. */
+    private ExecutorService pool = null;
+
+
+    /**
+     *  Creates an estimator with no walks taken yet.
+     *
+     *  @param c  The probability that a walk goes on at each step
+     *  @param seed  The seed of the random walks
+     *  @param threads  The number of threads to walk on
+     */
+    public MonteCarloPageRank( LinkGraph graph, double c, long seed, int threads ) {
+        this.graph = graph;
+        this.c = c;
+        this.threads = Math.max( 1, threads );
+        random = new SplittableRandom( seed );
+        counts = new long[graph.size()];
+        partials = new int[this.threads][];
+    }
+
+
+    /**
+     *  Takes the given number of walks more, and adds them to the counts.
+     *  The counts of walks counted by different methods are added up as
+     *  they are, so one estimator should keep to one method.
+     */
+    public void walk( Method method, long number ) {
+        int chunks = (int) ((number + CHUNK - 1) / CHUNK);
+        SplittableRandom[] randoms = new SplittableRandom[chunks];
+        for ( int k=0; k<chunks; k++ ) {
+            randoms[k] = random.split();
+        }
+        long first = walks;
+        if ( threads == 1 || chunks <= 1 ) {
+            int[] visits = partial( 0 );
+            long sum = 0;
+            for ( int k=0; k<chunks; k++ ) {
+                sum += chunk( method, randoms[k], first + (long) k*CHUNK, Math.min( CHUNK, number - (long) k*CHUNK ), visits );
+            }
+            add( visits, sum );
+        } else {
+            if ( pool == null ) {
+                pool = Executors.newFixedThreadPool( threads );
+            }
+            AtomicInteger next = new AtomicInteger();
+            ArrayList<Future<Long>> sums = new ArrayList<Future<Long>>();
+            try {
+                for ( int t=0; t<Math.min( threads, chunks ); t++ ) {
+                    int[] visits = partial( t );
+                    sums.add( pool.submit( () -> {
+                        long sum = 0;
+                        for ( int k=next.getAndIncrement(); k<chunks; k=next.getAndIncrement() ) {
+                            sum += chunk( method, randoms[k], first + (long) k*CHUNK, Math.min( CHUNK, number - (long) k*CHUNK ), visits );
+                        }
+                        return sum;
+                    }));
+                }
+                // Wait for all threads before adding any counts, so a failure leaves the counts as they were
+                long[] counted = new long[sums.size()];
+                for ( int t=0; t<sums.size(); t++ ) {
+                    counted[t] = sums.get( t ).get();
+                }
+                for ( int t=0; t<sums.size(); t++ ) {
+                    add( partials[t], counted[t] );
+                }
+            } catch ( InterruptedException | ExecutionException e ) {
+                // Stop the other threads, and drop the arrays they may have counted into
+                close();
+                throw new IllegalStateException( e );
+            }
+        }
+        walks += number;
+    }
+
+    /** The counts of thread t, allocated by the first walk on it. */
+    private int[] partial( int t ) {
+        if ( partials[t] == null ) {
+            partials[t] = new int[counts.length];
+        }
+        return partials[t];
+    }
+
+    /** Adds the counts of a thread to the total, and sets them back to zero. */
+    private void add( int[] visits, long sum ) {
+        for ( int i=0; i<visits.length; i++ ) {
+            counts[i] += visits[i];
+            visits[i] = 0;
+        }
+        total += sum;
+    }
+
+    /**
+     *  Takes the walks first to first+number-1 of the sequence, counting
+     *  into visits.
+     *
+     *  @return The number of visits counted
+     */
+    private long chunk( Method method, SplittableRandom random, long first, long number, int[] visits ) {
+        int n = counts.length;
+        long counted = 0;
+        for ( long w=first; w<first+number; w++ ) {
+            int start;
+            if ( method == Method.END_POINT_CYCLIC_START || method == Method.COMPLETE_PATH_CYCLIC_START ) {
+                start = (int) (w % n);
+            } else {
+                start = random.nextInt( n );
+            }
+            if ( method == Method.END_POINT_RANDOM_START || method == Method.END_POINT_CYCLIC_START ) {
+                visits[endPoint( start, random )]++;
+                counted++;
+            } else {
+                counted += completePath( start, random, visits );
+            }
+        }
+        return counted;
+    }
+
+    /** The node where a walk from the given node stops. */
+    private int endPoint( int node, SplittableRandom random ) {
+        int[] offsets = graph.offsets;
+        int[] targets = graph.targets;
+        for ( int t=0; t<MAXT; t++ ) {
+            int degree = offsets[node+1] - offsets[node];
+            if ( degree > 0 ) {
+                node = targets[offsets[node] + random.nextInt( degree )];
+            } else {
+                node = random.nextInt( counts.length );
+            }
+            if ( random.nextDouble() > c ) {
+                break;
+            }
+        }
+        return node;
+    }
+
+    /**
+     *  Counts the nodes a walk from the given node visits.
+     *
+     *  @return The number of visits
+     */
+    private int completePath( int node, SplittableRandom random, int[] visits ) {
+        int[] offsets = graph.offsets;
+        int[] targets = graph.targets;
+        for ( int t=0; t<MAXT; t++ ) {
+            visits[node]++;
+            int degree = offsets[node+1] - offsets[node];
+            if ( degree == 0 ) {
+                // A sink ends the walk
+                return t+1;
+            }
+            node = targets[offsets[node] + random.nextInt( degree )];
+            if ( random.nextDouble() > c ) {
+                return t+1;
+            }
+        }
+        return MAXT;
+    }
+
+
+    /** The estimate of the PageRank of every node from the walks so far. */
+    public double[] estimate() {
+        double[] pi = new double[counts.length];
+        for ( int i=0; i<pi.length; i++ ) {
+            pi[i] = total == 0 ? 0 : counts[i] / (double) total;
+        }
+        return pi;
+    }
+
+    /**
+     *  Takes walks in rounds of one walk per node, until the L1 distance
+     *  between the estimates after two rounds is at most epsilon, or
+     *  maxWalks have been taken.
+     *
+     *  @return The last estimate
+     */
+    public double[] walkUntil( Method method, double epsilon, long maxWalks ) {
+        int n = counts.length;
+        double[] pi = estimate();
+        while ( walks < maxWalks ) {
+            walk( method, Math.min( n, maxWalks - walks ));
+            double[] next = estimate();
+            double distance = 0;
+            for ( int i=0; i<n; i++ ) {
+                distance += Math.abs( next[i] - pi[i] );
+            }
+            pi = next;
+            if ( distance <= epsilon ) {
+                break;
+            }
+        }
+        return pi;
+    }
+
+    /** The number of walks taken. */
+    public long walks() {
+        return walks;
+    }
+
+    /** The sum of the counts: the walks, or the visits of the walks. */
+    public long total() {
+        return total;
+    }
+
+    /** Forgets all walks taken. */
+    public void reset() {
+        Arrays.fill( counts, 0 );
+        total = 0;
+        walks = 0;
+    }
+
+    /**
+     *  Stops the threads of the estimator. A later walk starts new ones.
+     */
+    @Override
+    public void close() {
+        if ( pool != null ) {
+            pool.shutdownNow();
+            pool = null;
+            // The arrays may have been counted into by walks that were stopped
+            Arrays.fill( partials, null );
+        }
+    }
+}
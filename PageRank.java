@@ -11,33 +11,11 @@ public class PageRank {
      */
     final static int MAX_NUMBER_OF_DOCS = 2000000;
 
-    /**
-     *   Mapping from document names to document numbers.
-     */
-    HashMap<String,Integer> docNumber = new HashMap<String,Integer>();
-
-    /**
-     *   Mapping from document numbers to document names
-     */
-    String[] docName = new String[MAX_NUMBER_OF_DOCS];
-
     /**  
-     *   A memory-efficient representation of the transition matrix.
-     *   The outlinks are represented as a HashMap, whose keys are 
-     *   the numbers of the documents linked from.<p>
-     *
-     *   The value corresponding to key i is a HashMap whose keys are 
-     *   all the numbers of documents j that i links to.<p>
-     *
-     *   If there are no outlinks from i, then the value corresponding 
-     *   key i is null.
-     */
-    HashMap<Integer,HashMap<Integer,Boolean>> link = new HashMap<Integer,HashMap<Integer,Boolean>>();
-
-    /**
-     *   The number of outlinks from each node.
+     *   The links between the documents, and the mapping between document
+     *   names and document numbers. A document without outlinks is a sink.
      */
-    int[] out = new int[MAX_NUMBER_OF_DOCS];
+    LinkGraph graph;
 
     /**
      *   The probability that the surfer will be bored, stop
@@ -58,7 +36,11 @@ public class PageRank {
      */
     final static double EPSILON = 0.0001;
 
-	private static final int MAXT = 50;
+    /**
+     *   The seed of the random walks of the Monte Carlo methods, so that
+     *   a run can be repeated.
+     */
+    long seed = 1;
 
        
     /* --------------------------------------------- */
@@ -114,56 +96,17 @@ public class PageRank {
      *   @return the number of documents read.
      */
     int readDocs( String filename ) {
-	int fileIndex = 0;
-	try {
-	    System.err.print( "Reading file... " );
-	    BufferedReader in = new BufferedReader( new FileReader( filename ));
-	    String line;
-	    while ((line = in.readLine()) != null && fileIndex<MAX_NUMBER_OF_DOCS ) {
-		int index = line.indexOf( ";" );
-		String title = line.substring( 0, index );
-		Integer fromdoc = docNumber.get( title );
-		//  Have we seen this document before?
-		if ( fromdoc == null ) {	
-		    // This is a previously unseen doc, so add it to the table.
-		    fromdoc = fileIndex++;
-		    docNumber.put( title, fromdoc );
-		    docName[fromdoc] = title;
-		}
-		// Check all outlinks.
-		StringTokenizer tok = new StringTokenizer( line.substring(index+1), "," );
-		while ( tok.hasMoreTokens() && fileIndex<MAX_NUMBER_OF_DOCS ) {
-		    String otherTitle = tok.nextToken();
-		    Integer otherDoc = docNumber.get( otherTitle );
-		    if ( otherDoc == null ) {
-			// This is a previousy unseen doc, so add it to the table.
-			otherDoc = fileIndex++;
-			docNumber.put( otherTitle, otherDoc );
-			docName[otherDoc] = otherTitle;
-		    }
-		    // Set the probability to 0 for now, to indicate that there is
-		    // a link from fromdoc to otherDoc.
-		    if ( link.get(fromdoc) == null ) {
-			link.put(fromdoc, new HashMap<Integer,Boolean>());
-		    }
-		    if ( link.get(fromdoc).get(otherDoc) == null ) {
-			link.get(fromdoc).put( otherDoc, true );
-			out[fromdoc]++;
-		    }
-		}
-	    }
-	    if ( fileIndex >= MAX_NUMBER_OF_DOCS ) {
-		System.err.print( "stopped reading since documents table is full. " );
-	    }
-	    else {
-		System.err.print( "done. " );
-	    }
+	System.err.print( "Reading file... " );
+	graph = LinkGraph.read( filename, MAX_NUMBER_OF_DOCS );
+	if ( graph == null ) {
+	    return 0;
 	}
-	catch ( FileNotFoundException e ) {
-	    System.err.println( "File " + filename + " not found!" );
+	int fileIndex = graph.size();
+	if ( fileIndex >= MAX_NUMBER_OF_DOCS ) {
+	    System.err.print( "stopped reading since documents table is full. " );
 	}
-	catch ( IOException e ) {
-	    System.err.println( "Error reading file " + filename );
+	else {
+	    System.err.print( "done. " );
 	}
 	System.err.println( "Read " + fileIndex + " number of documents" );
 	return fileIndex;
@@ -179,138 +122,75 @@ public class PageRank {
      *   prints 30 highest ranked pages
      */
     void iterate( int numberOfDocs, int maxIterations ) {
-	    double[] aOld = new double[numberOfDocs];
-	    double[] aNew = new double[numberOfDocs];
-	    Arrays.fill(aOld, 1/((double) numberOfDocs));
-	    double error = EPSILON+1;
-	    int iter = 0;
-	    while (error>EPSILON && iter<maxIterations) {
-	    	Arrays.fill(aNew, 0);
-    		for(int i = 0; i < aNew.length; i++){ // for every entry in aNew
-    			for(int j = 0; j < aOld.length; j++){ // for every entry in aOld
-		    		double factor = 0L;
-		    		HashMap<Integer,Boolean> outMap = link.get(j);
-		    		if (outMap!= null) {
-		    			factor = BORED*(1/((double) numberOfDocs));
-			    		if (outMap.get(i) != null) {
-			    			factor += (1-BORED)*1/((double) outMap.size());
-			    		}
-		    		}
-		    		else {
-		    			factor= (1/((double)numberOfDocs));
-		    		}
-		    		aNew[i]+=factor*aOld[j];
-		    	}
-	    	}
-	    	iter++;
-	    	error = norm(substract(aOld, aNew));
-	    	System.out.println("error: " + error);
-	    	aOld = aNew.clone();
-	    }
-    	
-	    printTop30(aNew);
-
+	    iterate(numberOfDocs, maxIterations, Runtime.getRuntime().availableProcessors());
+    }
 
+    /*
+     *   Same as above, with each iteration split over the given number
+     *   of threads. The result does not depend on the number of threads.
+     */
+    void iterate( int numberOfDocs, int maxIterations, int threads ) {
+	    PowerIteration power = new PowerIteration(graph, BORED, threads);
+	    double[] a = power.run(EPSILON, maxIterations);
+	    System.out.println("iterations: " + power.steps() + " error: " + power.error());
+	    printTop30(a);
     }
     
 
     
+    /*
+     *   Monte Carlo methods 1, 2, 4 and 5: N walks from random documents,
+     *   or m walks from every document, counting the end points or the
+     *   complete paths. See MonteCarloPageRank.
+     *   prints 30 highest ranked pages and returns the goodness
+     */
     double iterateMC1( int numberOfDocs, int N, double c ) {
-    	double[] pi = new double[numberOfDocs];
-    	Arrays.fill(pi, 0);
-    	
-    	for (int i =0; i<N; i++) {
-    		int startID = (int) (Math.random()*numberOfDocs);
-    		int terminalNode = randomWalk(startID, c, numberOfDocs);
-    		pi[terminalNode]++;
-    	}
-    	for(int i = 0; i < numberOfDocs; i++)
-    	{
-    	  pi[i] = pi[i]/N;
-    	}
-    	printTop30(pi);
-    	return goodness(pi);
+    	return iterateMC(MonteCarloPageRank.Method.END_POINT_RANDOM_START, N, c);
     }
     
     double iterateMC5( int numberOfDocs, int N, double c ) {
-    	double[] pi = new double[numberOfDocs];
-    	Arrays.fill(pi, 0);
-    	int totalNbVisits = 0;
-    	for (int i =0; i<N; i++) {
-    		int startID = (int) (Math.random()*numberOfDocs);
-    		totalNbVisits = randomWalkSeq(startID, c, numberOfDocs,pi,totalNbVisits );
-    	}
-    	for(int i = 0; i < numberOfDocs; i++)
-    	{
-    	  pi[i] = pi[i]/(totalNbVisits);
-    	}
-    	printTop30(pi);
-    	return goodness(pi);
+    	return iterateMC(MonteCarloPageRank.Method.COMPLETE_PATH_RANDOM_START, N, c);
     }
   
 
     double iterateMC2( int numberOfDocs, int m, double c) {
-    	double[] pi = new double[numberOfDocs];
-    	Arrays.fill(pi, 0);
-    	for (int j =0; j<m; j++) {
-	    	for (int i =0; i<numberOfDocs; i++) {
-	    		int startID = i;
-	    		int terminalNode = randomWalk(startID, c, numberOfDocs);
-	    		pi[terminalNode]++;	
-	    	}
-    	}
-    	for(int i = 0; i < numberOfDocs; i++)
-    	{
-    	  pi[i] = pi[i]/(numberOfDocs*m);
-    	}
-    	printTop30(pi);
-    	return goodness(pi);
+    	return iterateMC(MonteCarloPageRank.Method.END_POINT_CYCLIC_START, (long) numberOfDocs*m, c);
     }
 	
     double iterateMC4( int numberOfDocs, int m, double c) {
-    	double[] pi = new double[numberOfDocs];
-    	Arrays.fill(pi, 0);
-    	int totalNbVisits = 0;
-    	for (int j =0; j<m; j++) {
-	    	for (int i =0; i<numberOfDocs; i++) {
-	    		int startID = i;
-	    		totalNbVisits = randomWalkSeq(startID, c, numberOfDocs,pi,totalNbVisits );
-	    	}
-    	}
-    	for(int i = 0; i < numberOfDocs; i++)
-    	{
-    	  pi[i] = pi[i]/(totalNbVisits);
+    	return iterateMC(MonteCarloPageRank.Method.COMPLETE_PATH_CYCLIC_START, (long) numberOfDocs*m, c);
+    }
+
+    private double iterateMC( MonteCarloPageRank.Method method, long walks, double c ) {
+    	double[] pi;
+    	try (MonteCarloPageRank mc = new MonteCarloPageRank(graph, c, seed, Runtime.getRuntime().availableProcessors())) {
+    		mc.walk(method, walks);
+    		pi = mc.estimate();
     	}
     	printTop30(pi);
     	return goodness(pi);
     }
     
     void iterateMC4UntilConvergence( int numberOfDocs, double c) {
-    	double[] oldPi = new double[numberOfDocs];
-    	Arrays.fill(oldPi, 0);
-    	double[] newPi = new double[numberOfDocs];
-    	Arrays.fill(newPi, 0);
-    	int totalNbVisits = 0;
-    	int maxIter = 10000000;
-    	int iter = 0;
-    	int convergedCounter = 10;
-		while (convergedCounter  != 0 && iter<maxIter) {
-	    	for (int i =0; i<numberOfDocs; i++) {
-	    		int startID = i;
-	    		totalNbVisits = randomWalkSeq(startID, c, numberOfDocs,newPi,totalNbVisits );
-	    	}
-	    	if (equalTop30(oldPi,newPi)) {
-	    		convergedCounter--;
-	    	}else {
-	    		convergedCounter = 10;
+    	double[] newPi;
+    	try (MonteCarloPageRank mc = new MonteCarloPageRank(graph, c, seed, Runtime.getRuntime().availableProcessors())) {
+    		double[] oldPi = mc.estimate();
+    		newPi = oldPi;
+    		int maxIter = 10000000;
+    		int iter = 0;
+    		int convergedCounter = 10;
+			while (convergedCounter  != 0 && iter<maxIter) {
+				mc.walk(MonteCarloPageRank.Method.COMPLETE_PATH_CYCLIC_START, numberOfDocs);
+				newPi = mc.estimate();
+		    	if (equalTop30(oldPi,newPi)) {
+		    		convergedCounter--;
+		    	}else {
+		    		convergedCounter = 10;
+		    	}
+		    	oldPi = newPi;
+		    	iter++;
 	    	}
-	    	oldPi = newPi.clone();
     	}
-
-		for(int i = 0; i < numberOfDocs; i++)
-		{
-		  newPi[i] = newPi[i]/(totalNbVisits);
-		}
 		printTop30(newPi);
 
     }
@@ -334,7 +214,7 @@ public class PageRank {
 	void printTop30(double[] pi ) {
     	Integer[] sortedInd = argsort(pi, false);
     	for(int i = 0; i <30; i++){
-    		System.out.println("docID: " + docName[sortedInd[i]]+ " score: " +pi[sortedInd[i]]);
+    		System.out.println("docID: " + graph.name(sortedInd[i])+ " score: " +pi[sortedInd[i]]);
     	}
 	}
     
@@ -342,7 +222,7 @@ public class PageRank {
 		double result = 0;
     	Integer[] rarnkVector = argsort(pi, false);
     	for (int i =0; i<rarnkVector.length; i++) {
-    		rarnkVector[i] = Integer.parseInt(docName[rarnkVector[i]]);
+    		rarnkVector[i] = Integer.parseInt(graph.name(rarnkVector[i]));
     	}
     	for(int i = 0; i <30; i++){
     		int docID = EXACTTOP30[i];
@@ -363,7 +243,7 @@ public class PageRank {
         	Integer[] sortedInd = argsort(pi, false);
         	outputFile.writeChars(numberOfDocs + ":");
         	for(int i = 0; i <numberOfDocs; i++){
-            	outputFile.writeChars(docName[sortedInd[i]] + ",");
+            	outputFile.writeChars(graph.name(sortedInd[i]) + ",");
             	outputFile.writeChars(pi[sortedInd[i]] + ";");
         	}
         	
@@ -375,49 +255,6 @@ public class PageRank {
     }
 
 
-    private int randomWalk(int startID, double c, int numberOfDocs) {
-    	int currentNode = startID;
-    	int t = 0;
-    	while (t<MAXT) {
-        	HashMap<Integer,Boolean> outMap = link.get(currentNode);
-        	if (outMap!=null) {
-        		Object[] outIds = (Object[]) outMap.keySet().toArray();
-        		currentNode = (int) outIds[new Random().nextInt(outIds.length)];
-        	}
-        	else { //sink => jump randomly
-        		currentNode = (int) (Math.random()* numberOfDocs);
-        	}
-        	double r = Math.random();
-        	if (r>c)
-        		return currentNode;
-        	t++;
-    	}
-		return currentNode;
-	}
-    
-    private int randomWalkSeq(int startID, double c, int numberOfDocs, double[] pi, int totalNbVisits) {
-    	int currentNode = startID;
-    	int t = 0;
-    	while (t<MAXT) {
-    		totalNbVisits++;
-    		pi[currentNode]++;
-        	HashMap<Integer,Boolean> outMap = link.get(currentNode);
-        	if (outMap!=null) {
-        		Object[] outIds = (Object[]) outMap.keySet().toArray();
-        		currentNode = (int) outIds[new Random().nextInt(outIds.length)];
-        	}
-        	else { //sink => terminate
-        		return totalNbVisits;
-        	}
-        	double r = Math.random();
-        	if (r>c)
-        		return totalNbVisits;
-        	t++;
-    	}
-		return totalNbVisits;
-	}
-
-
 	double[] substract (double[] vec1, double[] vec2) {
     	double[] result = new double[vec1.length];
     	for(int i = 0; i < vec1.length; i++) {
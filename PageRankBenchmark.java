@@ -0,0 +1,105 @@
+/*
+ *   This file is part of the computer assignment for the
+ *   Information Retrieval course at KTH.
+ *
+ *   Johan Boye, 2018
+ */
+
+package ir;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+
+/**
+ *   Runs a fixed number of PageRank power iteration steps on 1, 2, 4, ...
+ *   threads, and prints the time per step of each number of threads and
+ *   its speedup over one thread. The vector of every run is compared with
+ *   the one of one thread, and must be the same to the last bit.
+ *
+ *   With -g, a random links file of the given number of nodes and links is
+ *   written first, as by LinkGraphBenchmark.
+ *
+ *   Usage: PageRankBenchmark -f file [-g nodes links] [-t max threads] [-s steps] [-r runs]
+ */
+public class PageRankBenchmark {
+
+    String file = null;
+    int nodes = 0;
+    long links = 0;
+    int maxThreads = Runtime.getRuntime().availableProcessors();
+    int steps = 20;
+    int runs = 3;
+
+
+    /** The fastest of the runs on the given number of threads, in nanoseconds. */
+    long time( LinkGraph graph, int threads, double[][] result ) {
+        PowerIteration power = new PowerIteration( graph, PageRank.BORED, threads );
+        long best = Long.MAX_VALUE;
+        for ( int r=0; r<runs; r++ ) {
+            long startTime = System.nanoTime();
+            result[0] = power.run( 0, steps );
+            best = Math.min( best, System.nanoTime() - startTime );
+        }
+        return best;
+    }
+
+
+    void run() throws IOException {
+        if ( nodes > 0 ) {
+            LinkGraphBenchmark.generate( file, nodes, links );
+        }
+        LinkGraph graph = LinkGraph.read( file, PageRank.MAX_NUMBER_OF_DOCS );
+        if ( graph == null ) {
+            return;
+        }
+        graph.buildInLinks();
+        System.out.println( graph.size() + " nodes, " + graph.linkCount() + " links, " + new PowerIteration( graph, PageRank.BORED ).blockCount()
+                            + " blocks, " + Runtime.getRuntime().availableProcessors() + " processors, " + steps + " steps, best of " + runs );
+
+        double[][] result = new double[1][];
+        // Warm up
+        time( graph, 1, result );
+        double[] expected = result[0];
+        double single = 0;
+        for ( int threads=1; threads<=maxThreads; threads*=2 ) {
+            double millis = time( graph, threads, result ) / 1e6 / steps;
+            if ( threads == 1 ) {
+                single = millis;
+            }
+            System.out.println( String.format( "%3d threads %9.2f ms/step   speedup %5.2f   efficiency %4.0f%%   %s",
+                    threads, millis, single/millis, 100*single/millis/threads,
+                    Arrays.equals( expected, result[0] ) ? "same result" : "DIFFERENT RESULT" ));
+        }
+    }
+
+
+    public static void main( String[] args ) throws IOException {
+        PageRankBenchmark b = new PageRankBenchmark();
+        int i = 0;
+        while ( i < args.length ) {
+            if ( "-f".equals( args[i] ) && i+1 < args.length ) {
+                b.file = args[i+1];
+            } else if ( "-g".equals( args[i] ) && i+2 < args.length ) {
+                b.nodes = Integer.parseInt( args[i+1] );
+                b.links = Long.parseLong( args[i+2] );
+                i++;
+            } else if ( "-t".equals( args[i] ) && i+1 < args.length ) {
+                b.maxThreads = Integer.parseInt( args[i+1] );
+            } else if ( "-s".equals( args[i] ) && i+1 < args.length ) {
+                b.steps = Integer.parseInt( args[i+1] );
+            } else if ( "-r".equals( args[i] ) && i+1 < args.length ) {
+                b.runs = Integer.parseInt( args[i+1] );
+            } else {
+                System.err.println( "Unknown argument: " + args[i] );
+                return;
+            }
+            i += 2;
+        }
+        if ( b.file == null ) {
+            System.err.println( "Usage: PageRankBenchmark -f file [-g nodes links] [-t max threads] [-s steps] [-r runs]" );
+            return;
+        }
+        b.run();
+    }
+}
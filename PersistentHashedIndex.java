@@ -9,10 +9,13 @@ package ir;
 
 import java.io.*;
 import java.util.*;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.google.common.primitives.Longs;
 import ir.PersistentHashedIndex.Entry;
 import java.nio.ByteBuffer;
 import java.nio.charset.*;
+import java.util.function.Consumer;
 
 
 /*
@@ -43,25 +46,45 @@ public class PersistentHashedIndex implements Index {
     /** The doc info file name */
     public static final String DOCINFO_FNAME = "docInfo";
 
-    /** The dictionary hash table on disk can fit this many entries. */
-//    public static final long TABLESIZE = 3499999L; //Guardian
-    public static final long TABLESIZE = 611953L; //DavisWiki
-    
-    public static final int DIRENTRYSIZE = 20;
-    
-    public static final int HASHPRIME = 137;
-    
-    public static final int CHECKSUMPRIME1 = 97;
-    
-    public static final int CHECKSUMPRIME2 = 999979;
-    
-    
+    /** The Euclidean document lengths file name */
+    public static final String NORMS_FNAME = "norms";
+
+    /** The term bounds file name */
+    public static final String BOUNDS_FNAME = "bounds";
+
+    /** The generation file name */
+    public static final String GENERATION_FNAME = "generation";
+
     /** The dictionary hash table is stored in this file. */
     RandomAccessFile dictionaryFile;
 
     /** The data (the PostingsLists) are stored in this file. */
     RandomAccessFile dataFile;
 
+    /** The random id of the index on disk, see writeGeneration, or 0 if it has none. */
+    long generation = 0;
+
+    /** Read-only mapping of the dictionary file, used for lookups once the index is on disk. */
+    MappedFile mappedDictionary;
+
+    /** Read-only mapping of the data file, used for lookups once the index is on disk. */
+    MappedFile mappedData;
+
+    /** The dictionary read from the mapped dictionary file. */
+    TermDictionary dictionary;
+
+    /** The names and lengths of the indexed documents. */
+    DocumentStore documents = new DocumentStore();
+
+    /** The largest normalised term frequency of each term on disk, or null if not known. */
+    TermBounds bounds;
+
+    /** The kind of dictionary that is written when the index is committed. */
+    DictionaryType dictionaryType = DictionaryType.HASHED;
+
+    /** The fraction of the dictionary slots that are filled when the index is written. */
+    float loadFactor = HashedDictionary.DEFAULT_LOAD_FACTOR;
+
     /** Pointer to the first free memory cell in the data file. */
     long free = 0L;
     
@@ -71,16 +94,38 @@ public class PersistentHashedIndex implements Index {
     /** The cache as a main-memory hash map. */
     HashMap<String,PostingsList> index = new HashMap<String,PostingsList>();
 
+    /** Converts the postings lists to and from their representation in the data file. */
+    PostingsCodec codec = new VByteCodec();
+
+    /** The decoded lists of the terms looked up lately, or null to always decode. */
+    PostingsCache postingsCache;
+
+    /** The terms whose lists are pinned in the cache, again when the files are mapped anew. */
+    List<String> pinnedTerms = Collections.emptyList();
+
+    /** The number of wildcard patterns whose merged lists are kept. */
+    static final int WILDCARD_LISTS = 16;
+
+    /**
+     *  The merged lists of the wildcard patterns asked lately, so that the
+     *  document frequency, the idf and the scoring of a pattern merge the
+     *  lists of its terms only once. Dropped when the files are mapped anew.
+     */
+    final Cache<String,PostingsList> wildcardLists = CacheBuilder.newBuilder().maximumSize( WILDCARD_LISTS ).build();
+
 
     // ===================================================================
 
     /**
      *   A helper class representing one entry in the dictionary hashtable.
      */ 
-    public class Entry {
+    public static class Entry {
         long dataPtr;
         long checksum;
         int dataSize;
+
+        /** The position of the entry in the dictionary, or -1 if unknown. See TermDictionary.ordinalCount. */
+        int ordinal = -1;
         
         /**
          *  Constructor. calculates the checksum from the given word
@@ -91,11 +136,11 @@ public class PersistentHashedIndex implements Index {
         public Entry(String word,long dataPtr,int dataSize) { // store checksum
         	this.dataPtr = dataPtr;
         	this.dataSize =dataSize;
-        	this.checksum = checksum(word);
+        	this.checksum = HashedDictionary.checksum(word);
         }
         
         /**
-         *  Constructor. calculates the checksum from the given word
+         *  Constructor.
          *  @param checksum Checksum used to check token retrieval
          *  @param dataPtr Where the data is stored in the dataFile
          *  @param dataSize The size of the data in the dataFile
@@ -106,40 +151,6 @@ public class PersistentHashedIndex implements Index {
         	this.checksum = checksum;
         }
     }
-    
-    /**
-     *  Creates a hash value for the given token using a polynomial rolling hash function
-     *
-     *  @param word The token to calculate the hash value for
-     *  @return The hash value
-     */
-	public long hash(String word) {
-		byte[] wordBytes = word.getBytes();
-		long hashValue = 0;
-;
-    	for (int i =0; i <wordBytes.length;i++) {
-    		hashValue+= HASHPRIME*hashValue + wordBytes[i]; // String hashing using a polynomial rolling hash function  https://www.geeksforgeeks.org/string-hashing-using-polynomial-rolling-hash-function/
-    	}
-		return Math.abs(hashValue) % TABLESIZE;
-	}
-    
-    /**
-     *  Creates a checksum value for the given token using a polynomial rolling hash function
-     *
-     *  @param word The token to calculate the checksum value for
-     *  
-     *  @return The checksum value
-     */
-	public long checksum(String word) {
-		byte[] wordBytes = word.getBytes();
-		long checksum = 0;
-;
-    	for (int i =0; i <wordBytes.length;i++) {
-    		checksum+= CHECKSUMPRIME1*checksum + wordBytes[i]; // String hashing using Polynomial rolling hash function  https://www.geeksforgeeks.org/string-hashing-using-polynomial-rolling-hash-function/
-    	}
-		return Math.abs(checksum) % CHECKSUMPRIME2;
-	}
-	
 
 
     // ==================================================================
@@ -150,6 +161,32 @@ public class PersistentHashedIndex implements Index {
      *  If these files don't exist, they will be created. 
      */
     public PersistentHashedIndex() {
+        this( DictionaryType.HASHED );
+    }
+
+    /**
+     *  Constructor. Opens the dictionary file and the data file.
+     *  If these files don't exist, they will be created. 
+     *
+     *  @param dictionaryType The kind of dictionary to write when the index is committed.
+     *                        An existing index is read with the dictionary it was written with.
+     */
+    public PersistentHashedIndex( DictionaryType dictionaryType ) {
+        this( dictionaryType, false );
+    }
+
+
+    /**
+     *  Constructor. When indexing, the index on disk is about to be
+     *  overwritten, so its files are neither opened nor mapped, and no
+     *  norms are computed for it; the subclass opens its files itself.
+     */
+    protected PersistentHashedIndex( DictionaryType dictionaryType, boolean is_indexing ) {
+        this.dictionaryType = dictionaryType;
+        postingsCache = new PostingsCache( PostingsCache.DEFAULT_CAPACITY );
+        if ( is_indexing ) {
+            return;
+        }
         try {
             dictionaryFile = new RandomAccessFile( INDEXDIR + "/" + DICTIONARY_FNAME, "rw" );
             dataFile = new RandomAccessFile( INDEXDIR + "/" + DATA_FNAME, "rw" );
@@ -164,6 +201,160 @@ public class PersistentHashedIndex implements Index {
         } catch ( IOException e ) {
             e.printStackTrace();
         }
+        mapFiles();
+        updateNorms( false );
+    }
+
+
+    /**
+     *  Constructor. Uses the given dictionary file and data file, for
+     *  writing an index that is not the main one.
+     *
+     *  @param postingsCache The cache of the index, or null if its lists are not looked up
+     */
+    protected PersistentHashedIndex( RandomAccessFile dictFile, RandomAccessFile dFile, PostingsCache postingsCache ) {
+        dictionaryFile = dictFile;
+        dataFile = dFile;
+        this.postingsCache = postingsCache;
+    }
+
+
+    /**
+     *  Maps the dictionary and data files into memory, so that lookups
+     *  become positional reads instead of seeks on the shared file pointers.
+     *  Does nothing if there is no index on disk yet.
+     */
+    void mapFiles() {
+        if ( postingsCache != null ) {
+            postingsCache.clear();
+        }
+        wildcardLists.invalidateAll();
+        try {
+            if ( dictionaryFile != null && dataFile != null && dictionaryFile.length() > 0 ) {
+                mappedDictionary = new MappedFile( dictionaryFile );
+                mappedData = new MappedFile( dataFile );
+                dictionary = openDictionary( mappedDictionary );
+                generation = readGeneration();
+            }
+        } catch ( IOException e ) {
+            e.printStackTrace();
+            mappedDictionary = null;
+            mappedData = null;
+            dictionary = null;
+        }
+        if ( postingsCache != null && dictionary != null && !pinnedTerms.isEmpty() ) {
+            postingsCache.pin( pinnedTerms, this::readPostings );
+        }
+    }
+
+    /**
+     *  Sets the cache of decoded lists, or turns caching off with null.
+     */
+    public void setPostingsCache( PostingsCache cache ) {
+        postingsCache = cache;
+        pinPostings( pinnedTerms );
+    }
+
+    /**
+     *  Keeps the lists of the given terms in the cache for good, such as the
+     *  terms asked most often (see PostingsCache.frequentTerms).
+     */
+    public void pinPostings( List<String> terms ) {
+        pinnedTerms = new ArrayList<String>( terms );
+        if ( postingsCache != null && dictionary != null ) {
+            postingsCache.pin( pinnedTerms, this::readPostings );
+        }
+    }
+
+    public PostingsCache getPostingsCache() {
+        return postingsCache;
+    }
+
+    /**
+     *  Opens the dictionary in the given mapped file, of whichever kind it is.
+     */
+    static TermDictionary openDictionary( MappedFile file ) throws IOException {
+        if ( file.length() >= 4 && file.getInt( 0 ) == SortedTermDictionary.MAGIC ) {
+            return SortedTermDictionary.open( file );
+        }
+        return HashedDictionary.open( file );
+    }
+
+    public DocumentStore getDocumentStore() {
+        return documents;
+    }
+
+    /**
+     *  Gives the documents their Euclidean lengths, from the norms file if
+     *  it was written for the index on disk, and otherwise by computing them
+     *  and writing a new norms file. The term bounds, which depend on the
+     *  norms, are read or recomputed along with them.
+     *
+     *  @param recompute If true, the norms and bounds files are not used
+     *  @throws IllegalStateException if computing the norms or the bounds
+     *          fails; they are not written then, so they are computed again
+     *          on the next start
+     */
+    void updateNorms( boolean recompute ) {
+        bounds = null;
+        if ( dictionary == null ) {
+            return;
+        }
+        File file = new File( INDEXDIR + "/" + NORMS_FNAME );
+        File boundsFile = new File( INDEXDIR + "/" + BOUNDS_FNAME );
+        long stamp = indexStamp();
+        double[] norms = null;
+        try {
+            if ( !recompute ) {
+                norms = DocumentNorms.read( file, stamp );
+            }
+            if ( norms == null ) {
+                norms = DocumentNorms.compute( this );
+                DocumentNorms.write( file, stamp, norms );
+                recompute = true;
+            }
+            documents.setEuclideanLengths( norms );
+            TermBounds b = recompute ? null : TermBounds.read( boundsFile, stamp );
+            if ( b == null ) {
+                b = TermBounds.compute( this, dictionary );
+                b.write( boundsFile, stamp );
+            }
+            bounds = b;
+        } catch ( IOException e ) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     *  Returns a fingerprint of the index on disk: its generation id, and
+     *  its sizes. It changes whenever the index is written again, even with
+     *  the same shape.
+     */
+    long indexStamp() {
+        long totalLength = 0;
+        int[] lengths = documents.lengths();
+        for ( int d=0; d<lengths.length; d++ ) {
+            totalLength += lengths[d];
+        }
+        long[] values = { generation, mappedDictionary.length(), mappedData.length(), dictionary.termCount(), documents.size(), totalLength };
+        long stamp = HashedDictionary.FNV_OFFSET_BASIS;
+        for ( long v : values ) {
+            stamp ^= v;
+            stamp *= HashedDictionary.FNV_PRIME;
+        }
+        return stamp;
+    }
+
+    /**
+     *  Sets the fraction of the dictionary slots that are filled when the
+     *  index is written. Lower values give shorter probe sequences at the
+     *  cost of a larger dictionary file.
+     */
+    public void setLoadFactor( float loadFactor ) {
+        if ( !(loadFactor > 0 && loadFactor < 1) ) {
+            throw new IllegalArgumentException( "Load factor must be between 0 and 1: " + loadFactor );
+        }
+        this.loadFactor = loadFactor;
     }
     
 
@@ -173,8 +364,8 @@ public class PersistentHashedIndex implements Index {
      *
      *  @return The number of bytes written.
      */ 
-    int writeData( String dataString, long ptr ) {
-    	return writeData(dataString, ptr, dataFile);
+    int writeData( byte[] data, long ptr ) {
+    	return writeData(data, ptr, dataFile);
     }
     
     /**
@@ -184,10 +375,9 @@ public class PersistentHashedIndex implements Index {
      *
      *  @return The number of bytes written.
      */ 
-    static int writeData( String dataString, long ptr, RandomAccessFile file) {
+    static int writeData( byte[] data, long ptr, RandomAccessFile file) {
         try {
         	file.seek( ptr ); 
-            byte[] data = dataString.getBytes();
             file.write( data );
             return data.length;
         } catch ( IOException e ) {
@@ -200,12 +390,12 @@ public class PersistentHashedIndex implements Index {
     /**
      *  Reads data from the given file
      */ 
-    static String readData( long ptr, int size, RandomAccessFile file) {
+    static byte[] readData( long ptr, int size, RandomAccessFile file) {
         try {
         	file.seek( ptr );
             byte[] data = new byte[size];
             file.readFully( data );
-            return new String(data);
+            return data;
         } catch ( IOException e ) {
             e.printStackTrace();
             return null;
@@ -215,12 +405,12 @@ public class PersistentHashedIndex implements Index {
     /**
      *  Reads data from the data file
      */ 
-    String readData( long ptr, int size ) {
+    byte[] readData( long ptr, int size ) {
         try {
             dataFile.seek( ptr );
             byte[] data = new byte[size];
             dataFile.readFully( data );
-            return new String(data);
+            return data;
         } catch ( IOException e ) {
             e.printStackTrace();
             return null;
@@ -229,187 +419,92 @@ public class PersistentHashedIndex implements Index {
 
 
     // ==================================================================
-    //
-    //  Reading and writing to the dictionary file.
 
-    /*
-     *  Writes an entry to the dictionary hash table file. 
-     *  Also handles collisions by only writing to the first free spot.
-     *
-     *  @param entry The key of this entry is assumed to have a fixed length
-     *  @param index   The index in the dictionary file to store the entry
-     */
-    int writeEntry( Entry entry, long index ) {
-    	return writeEntry(  entry,  index,  dictionaryFile );
-    }
-    
-    /*
-     *  Writes an entry to the dictionary hash table file in a specified file.
-     *  Also handles collisions by only writing to the first free spot.
-     *
-     *  @param file The file the data is read from.
-     *  @param entry The key of this entry is assumed to have a fixed length
-     *  @param index   The index in the dictionary file to store the entry
-     */
-    int writeEntry( Entry entry, long index, RandomAccessFile file ) {
-        try {
-            try {
-            	file.seek( ptrFromIndex(index) ); 
-                long readDataPtr = dictionaryFile.readLong();
-                long readChecksum = dictionaryFile.readLong();
-                int readDataSize = dictionaryFile.readInt();
-            if (readDataSize != 0 ) {
-            	long newIndex = index+1;
-            	return 1 + writeEntry( entry,  newIndex, file );
-            }
-            else{
-            	writeEntryAtIndex(entry,index, file);
-            }
-        	} catch ( EOFException e ) {
-        		writeEntryAtIndex(entry,index, file);	
-        	}
-        } catch ( IOException e ) {
-        	System.err.println("errorind: " + index);
-            e.printStackTrace();
-        }
-        return 0;
-    }
-    
-    /*
-     *  Writes an entry to the dictionary hash table file at specified index. 
+    /**
+     *  Writes the document names and document lengths to file.
      *
-     *  @param entry The key of this entry is assumed to have a fixed length
-     *  @param index   The index in the dictionary file to store the entry
+     * @throws IOException  { exception_description }
      */
-    public void writeEntryAtIndex(Entry e, long index) throws IOException {
-    	writeEntryAtIndex(e,  index, dictionaryFile);
-    }
-    
-    public void writeEntryAtIndex(Entry e, long index, RandomAccessFile file) throws IOException {
-    	file.seek( ptrFromIndex(index) ); 
-    	file.writeLong(e.dataPtr);
-    	file.writeLong(e.checksum);
-    	file.writeInt(e.dataSize);
+    public void writeDocInfo() throws IOException {
+        documents.write( new File( INDEXDIR + "/" + DOCINFO_FNAME ));
     }
 
-    
 
     /**
-     *  Reads an entry from the dictionary file and checks if the checksum matches.
-     *
-     *  @param index The index in the dictionary file where to start reading.
-     *  @param checksum The checksum to check
-     *  
-     *  @return The found entry
+     *  Gives the index on disk a new random generation id, which the norms
+     *  and bounds files are stamped with. It is written before the
+     *  dictionary and data, so that if writing them is cut short, norms and
+     *  bounds of the old index still do not match.
      */
-    Entry readEntryAndCheck( long index ,long checksum) {  
-    	return readEntryAndCheck( index ,checksum, dictionaryFile);
-    }
-    
-    Entry readEntryAndCheck( long index ,long checksum, RandomAccessFile file) {  
-
-        try {
-        	file.seek( ptrFromIndex(index) );
-            long readDataPtr = file.readLong();
-            long readChecksum = file.readLong();
-            int readDataSize = file.readInt();
-            if (readDataSize == 0) {
-            	return null;
-            }
-            if (readChecksum!=checksum) { //checksum didn't match
-            	long newIndex = index+1;
-            	return readEntryAndCheck(newIndex, checksum);
-            }
-            else {
-            	return new Entry(checksum,readDataPtr,readDataSize);
-            }
-        } 
-        catch ( EOFException e ) {
-            return null;
-        }catch ( IOException e ) {
-            e.printStackTrace();
-            return null;
+    void writeGeneration() throws IOException {
+        try ( DataOutputStream out = new DataOutputStream( new FileOutputStream( INDEXDIR + "/" + GENERATION_FNAME ))) {
+            out.writeLong( new java.security.SecureRandom().nextLong() );
         }
     }
-    
-    /**
-     *  Converts a directory file index to a byte position in the file
-     *  
-     *  @param index The index to convert
-     *
-     *  @return The pointer to the right byte position in the directory file
-     */ 
-    public static long ptrFromIndex(long index) {
-    	return index*DIRENTRYSIZE;
-    }
-
-
-    // ==================================================================
 
     /**
-     *  Writes the document names and document lengths to file.
-     *
-     * @throws IOException  { exception_description }
+     *  Reads the generation id of the index on disk, or returns 0 if it has none.
      */
-    public void writeDocInfo() throws IOException {
-        FileOutputStream fout = new FileOutputStream( INDEXDIR + "/docInfo" , true);
-        for (Map.Entry<Integer,String> entry : docNames.entrySet()) {
-            Integer key = entry.getKey();
-            String docInfoEntry = key + ";" + entry.getValue()+ ";" + docLengths.get(key) + "\n";
-            fout.write(docInfoEntry.getBytes());
+    static long readGeneration() throws IOException {
+        File file = new File( INDEXDIR + "/" + GENERATION_FNAME );
+        if ( file.length() < 8 ) {
+            return 0;
+        }
+        try ( DataInputStream in = new DataInputStream( new FileInputStream( file ))) {
+            return in.readLong();
         }
-        fout.close();
     }
 
 
     /**
-     *  Reads the document names and document lengths from file, and
-     *  put them in the appropriate data structures.
+     *  Reads the document names and document lengths from file.
      *
      * @throws     IOException  { exception_description }
      */
     protected void readDocInfo() throws IOException {
-        File file = new File( INDEXDIR + "/docInfo" );
-        FileReader freader = new FileReader(file);
-        try (BufferedReader br = new BufferedReader(freader)) {
-            String line;
-            while ((line = br.readLine()) != null) {
-                String[] data = line.split(";");
-                docNames.put(new Integer(data[0]), data[1]);
-                docLengths.put(new Integer(data[0]), new Integer(data[2]));
-            }
-        }
-        freader.close();
+        documents = DocumentStore.read( new File( INDEXDIR + "/" + DOCINFO_FNAME ));
     }
 
 
     /**
-     *  Write the index to files.
-     * @throws IOException 
+     *  Write the postings lists and the dictionary to files.
+     *
+     *  @return The number of words that are not stored in their home slot
+     *          of a hashed dictionary.
      */
     public int writeIndex()  {
-        int collisions = 0;
-    	
     	dataWritePtr = 0;
-        try {
+        if ( dictionaryType == DictionaryType.SORTED ) {
+            writeSortedIndex();
+            return 0;
+        }
+        return writeHashedIndex();
+    }
 
-            // Write the 'docNames' and 'docLengths' hash maps to a file
-            this.writeDocInfo();
-            
-            // Write the dictionary and the postings list
+    /**
+     *  Writes the postings lists and a hashed dictionary sized for the
+     *  number of unique words.
+     *
+     *  @return The number of words that are not stored in their home slot.
+     */
+    private int writeHashedIndex() {
+        int collisions = 0;
+        try {
+            // Write the postings lists, and collect their locations in the dictionary
+            HashedDictionary dict = new HashedDictionary( index.size(), loadFactor );
             for (java.util.Map.Entry<String, PostingsList> e : index.entrySet()) {
             	String word = e.getKey();
-            	
-                // write data
             	PostingsList pList = e.getValue();
-            	int dataLength = writeData( pList.toString(), dataWritePtr);
-            	
-            	// write dictionary
-                Entry dirEntry = new Entry(word,dataWritePtr, dataLength);
-            	collisions += writeEntry(dirEntry, hash(word));
+            	int dataLength = writeData( codec.encode(pList), dataWritePtr);
+            	dict.put( HashedDictionary.checksum(word), dataWritePtr, dataLength );
             	dataWritePtr+=dataLength;
             }
-            
+            dataFile.setLength( dataWritePtr );
+
+            // Write the dictionary
+            dict.write( dictionaryFile );
+            collisions = dict.termCount() - dict.probeHistogram[0];
+            System.err.println( dict.probeSummary() );
 
         } catch ( IOException e ) {
             e.printStackTrace();
@@ -417,6 +512,26 @@ public class PersistentHashedIndex implements Index {
         System.err.println( collisions + " collisions." );
         return collisions;
     }
+
+    /**
+     *  Writes the postings lists in term order, followed by a sorted dictionary.
+     */
+    private void writeSortedIndex() {
+        try {
+            String[] words = index.keySet().toArray( new String[0] );
+            Arrays.sort( words );
+            SortedTermDictionary dict = new SortedTermDictionary();
+            for ( String word : words ) {
+            	int dataLength = writeData( codec.encode(index.get(word)), dataWritePtr);
+            	dict.put( word, dataWritePtr, dataLength );
+            	dataWritePtr+=dataLength;
+            }
+            dataFile.setLength( dataWritePtr );
+            dict.write( dictionaryFile );
+        } catch ( IOException e ) {
+            e.printStackTrace();
+        }
+    }
     
     
 
@@ -427,13 +542,149 @@ public class PersistentHashedIndex implements Index {
 
     /**
      *  Returns the postings for a specific term, or null
-     *  if the term is not in the index.
+     *  if the term is not in the index. The list may come from the
+     *  postings cache.
      */
     public PostingsList getPostings( String token ) {
-		 long dirIndex = hash(token);
-		 Entry dirEntry = readEntryAndCheck( dirIndex, checksum(token));
-		 String dataString = readData( dirEntry.dataPtr, dirEntry.dataSize);
-		 return PostingsList.stringToObj(dataString);
+		 if (dictionary == null) {
+			 return null;
+		 }
+		 if (token.indexOf('*') >= 0 && dictionary instanceof SortedTermDictionary) {
+			 return getWildcardPostings( token );
+		 }
+		 if (postingsCache != null) {
+			 return postingsCache.get( token, this::readPostings );
+		 }
+		 return readPostings( token );
+    }
+
+    /**
+     *  Decodes the postings of a term from the data file, or returns null
+     *  if the term is not in the index.
+     */
+    PostingsList readPostings( String token ) {
+		 Entry dirEntry = dictionary.get( token );
+		 if (dirEntry == null) {
+			 return null;
+		 }
+		 return readPostings( dirEntry );
+    }
+
+    /**
+     *  Reads the document frequency from the header of the encoded list.
+     */
+    public int getDocumentFrequency( String token ) {
+		 if (dictionary == null) {
+			 return 0;
+		 }
+		 if (token.indexOf('*') >= 0) {
+			 PostingsList list = getPostings( token );
+			 return list == null ? 0 : list.size();
+		 }
+		 Entry dirEntry = dictionary.get( token );
+		 if (dirEntry == null) {
+			 return 0;
+		 }
+		 return codec.documentFrequency( mappedData.slice( dirEntry.dataPtr, dirEntry.dataSize ));
+    }
+
+    /**
+     *  Decodes only the blocks of the postings list that may hold postings
+     *  of the candidates, unless the whole list is cached. The partial list
+     *  is not cached.
+     */
+    public PostingsList getPostings( String token, PostingsList candidates ) {
+		 if (dictionary == null || token.indexOf('*') >= 0) {
+			 return getPostings( token );
+		 }
+		 if (postingsCache != null) {
+			 PostingsList cached = postingsCache.getIfPresent( token );
+			 if (cached != null) {
+				 return cached;
+			 }
+		 }
+		 Entry dirEntry = dictionary.get( token );
+		 if (dirEntry == null) {
+			 return null;
+		 }
+		 return codec.decode( mappedData.slice( dirEntry.dataPtr, dirEntry.dataSize ), candidates );
+    }
+
+    /**
+     *  Decodes the postings list a dictionary entry points to.
+     */
+    PostingsList readPostings( Entry entry ) {
+        return codec.decode( mappedData.slice( entry.dataPtr, entry.dataSize ));
+    }
+
+    /**
+     *  Returns the bound stored for the term, or NaN if the term is not in
+     *  the index, is a wildcard pattern, or the bounds are not known.
+     */
+    public double maxNormalizedTf( String token, NormalizationType normType ) {
+        if ( dictionary == null || bounds == null || token.indexOf( '*' ) >= 0 ) {
+            return Double.NaN;
+        }
+        Entry dirEntry = dictionary.get( token );
+        if ( dirEntry == null ) {
+            return Double.NaN;
+        }
+        return bounds.get( dirEntry.ordinal, normType );
+    }
+
+    /**
+     *  Returns the idf stored with the bounds of the term, or computes it
+     *  if it is not known or the token is a wildcard pattern.
+     */
+    public double getIdf( String token ) {
+        if ( dictionary == null || bounds == null || token.indexOf( '*' ) >= 0 ) {
+            return Index.super.getIdf( token );
+        }
+        Entry dirEntry = dictionary.get( token );
+        double idf = dirEntry == null ? Double.NaN : bounds.idf( dirEntry.ordinal );
+        return Double.isNaN( idf ) ? Index.super.getIdf( token ) : idf;
+    }
+
+    /**
+     *  Visits the postings lists of the index on disk, split on the dictionary.
+     */
+    public void forEachPostings( int part, int parts, Consumer<PostingsList> action ) {
+        if ( dictionary == null ) {
+            return;
+        }
+        dictionary.forEachEntry( part, parts, e -> action.accept( readPostings( e )));
+    }
+
+    /**
+     *  Returns the union of the postings of all terms matching a wildcard
+     *  pattern, or null if no term matches. Only available with a sorted
+     *  dictionary. The lists are merged all at once, as a broad prefix may
+     *  match many terms, and the result is kept for the next lookups of the
+     *  pattern.
+     */
+    PostingsList getWildcardPostings( String pattern ) {
+		 PostingsList merged = wildcardLists.getIfPresent( pattern );
+		 if (merged == null) {
+			 merged = mergeWildcardPostings( pattern );
+			 if (merged != null) {
+				 wildcardLists.put( pattern, merged );
+			 }
+		 }
+		 return merged;
+    }
+
+    private PostingsList mergeWildcardPostings( String pattern ) {
+		 ArrayList<PostingsList> lists = new ArrayList<PostingsList>();
+		 for (String term : dictionary.matchingTerms( pattern )) {
+			 PostingsList list = getPostings( term );
+			 if (list != null) {
+				 lists.add( list );
+			 }
+		 }
+		 if (lists.isEmpty()) {
+			 return null;
+		 }
+		 return lists.size() == 1 ? lists.get( 0 ) : PostingsList.merge( lists );
     }
    
 
@@ -456,7 +707,19 @@ public class PersistentHashedIndex implements Index {
     public void cleanup() {
         System.err.println( index.keySet().size() + " unique words" );
         System.err.print( "Writing index to disk..." );
+        try {
+            writeGeneration();
+        } catch ( IOException e ) {
+            e.printStackTrace();
+        }
 		writeIndex();
+        try {
+            writeDocInfo();
+        } catch ( IOException e ) {
+            e.printStackTrace();
+        }
+		mapFiles();
+		updateNorms( true );
         System.err.println( "done!" );
     }
 }
@@ -1,7 +1,6 @@
 package ir;
 
 import java.io.BufferedReader;
-import java.io.EOFException;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
@@ -16,8 +15,6 @@ import java.util.Map;
 import java.util.concurrent.TimeUnit;
 
 
-import ir.PersistentHashedIndex.Entry;
-
 public class PersistentScalableHashedIndex extends PersistentHashedIndex implements Index  {
 	
 	
@@ -41,28 +38,20 @@ public class PersistentScalableHashedIndex extends PersistentHashedIndex impleme
     private LinkedList<RandomAccessFile> mergeQueue = new LinkedList<RandomAccessFile>();
 	
     public PersistentScalableHashedIndex(boolean is_indexing) {
- 
-        try {
-        	if (is_indexing) {
-	            dictionaryFile = generateDictFileName();
-	            dataFile = generateDataFileName();
-        	}
-        	else {
-        		dictionaryFile = new RandomAccessFile( INDEXDIR + "/" + DICTIONARY_FNAME, "rw" );
-                dataFile = new RandomAccessFile( INDEXDIR + "/" + DATA_FNAME, "rw" );
-        	}
-            readDocInfo();
-            
-        } catch ( FileNotFoundException e ) {
-        	
-        } catch ( IOException e ) {
-            e.printStackTrace();
+        this(is_indexing, DictionaryType.HASHED);
+    }
+
+    public PersistentScalableHashedIndex(boolean is_indexing, DictionaryType dictionaryType) {
+        // When indexing, the final files are opened and mapped in cleanup, after the last merge
+        super(dictionaryType, is_indexing);
+        if (is_indexing) {
+            dictionaryFile = generateDictFileName();
+            dataFile = generateDataFileName();
         }
     }
     
-    public PersistentScalableHashedIndex(RandomAccessFile dictFile, RandomAccessFile dFile) {
-        dictionaryFile = dictFile;
-        dataFile = dFile;
+    public PersistentScalableHashedIndex(RandomAccessFile dictFile, RandomAccessFile dFile, PostingsCache postingsCache) {
+        super(dictFile, dFile, postingsCache);
     }
     
 
@@ -80,8 +69,6 @@ public class PersistentScalableHashedIndex extends PersistentHashedIndex impleme
 	        System.err.println( index.keySet().size() + " unique words" );
 	        System.err.print( "Writing index to disk..." );
 			writeIndex();
-			docNames.clear();
-			docLengths.clear();
 			index = new HashMap<String,PostingsList>();
 			dataWritePtr = 0;
 			synchronized ( mergeQueue ) {
@@ -180,6 +167,11 @@ public class PersistentScalableHashedIndex extends PersistentHashedIndex impleme
     public void cleanup() {
         System.err.println( index.keySet().size() + " unique words" );
         System.err.print( "Writing index to disk..." );
+        try {
+            writeGeneration();
+        } catch ( IOException e ) {
+            e.printStackTrace();
+        }
 		writeIndex();
 		synchronized ( mergeQueue ) {
 			mergeQueue.add(dictionaryFile);
@@ -190,15 +182,12 @@ public class PersistentScalableHashedIndex extends PersistentHashedIndex impleme
 		dataFile = mergeQueue.removeFirst();
 		
         try {
-            readDocInfo();
-            deleteDocInfoFile();
             writeDocInfo();
-        } catch ( FileNotFoundException e ) {
-        	
         } catch ( IOException e ) {
             e.printStackTrace();
         }
-        
+        mapFiles();
+        updateNorms( true );
 
         System.err.println( "done!" );
     }
@@ -241,75 +230,4 @@ public class PersistentScalableHashedIndex extends PersistentHashedIndex impleme
 			e.printStackTrace();
 		}
 	}
-
-    /**
-     *  Delete the docInfo file
-     */
-	void deleteDocInfoFile() {
-    	File file = new File( INDEXDIR + "/docInfo" );
-    	file.delete();
-    }
-    
-    /**
-     *  Reads an entry from the dictionary file and checks if the checksum matches.
-     *  Deletes the found entry.
-     *
-     *  @param index The index in the dictionary file where to start reading.
-     *  @param checksum The checksum to check
-     *  
-     *  @return The found entry
-     */
-    public Entry readEntryAndDel (long index ,long checksum, RandomAccessFile file, int counter, boolean first) {  
-        try {
-        	file.seek( ptrFromIndex(index) );
-            long readDataPtr = file.readLong();
-            long readChecksum = file.readLong();
-            int readDataSize = file.readInt();
-            if (readDataSize == 0) {
-            	if (counter ==0)
-            		return null;
-            	else {
-            		long newIndex = index+1;
-                	return readEntryAndDel(newIndex, checksum, file, counter-1,false);
-            	}
-            }
-            if (readChecksum!=checksum) { //checksum didn't match
-            	long newIndex = index+1;
-            	return readEntryAndDel(newIndex, checksum, file,counter, false);
-            }
-            else {
-            	file.seek( ptrFromIndex(index) );
-                file.writeLong(0L);
-                file.writeLong(0L);
-                file.writeInt(0);
-            	return new Entry(checksum,readDataPtr,readDataSize);
-            }
-        } 
-        catch ( EOFException e ) {
-            return null;
-        }catch ( IOException e ) {
-            e.printStackTrace();
-            return null;
-        }
-    }
-    
-    public Entry readEntryAndDel (long index ,long checksum, RandomAccessFile file, int counter) {  
-    	return readEntryAndDel (index ,checksum, file, counter, true);
-    }
 }
-    
-
-
-
-
-
-
-
-
-
-
-
-
-
-
-
@@ -0,0 +1,190 @@
+/*
+ *   This file is part of the computer assignment for the
+ *   Information Retrieval course at KTH.
+ *
+ *   Johan Boye, 2017
+ */
+
+package ir;
+
+import java.lang.management.ManagementFactory;
+import java.util.*;
+
+
+/**
+ *   Measures the throughput and the allocation of phrase and proximity
+ *   queries of 2, 3 and 5 words, taken from the text of the documents.
+ *
+ *   Exact phrases are also evaluated by merging the lists pairwise, left
+ *   to right, as IntersectionBenchmark.linearSearch does, and the results
+ *   are compared. The sloppy phrases (~2) and the proximity queries
+ *   (NEAR/5, with the words shuffled) are only timed.
+ *
+ *   Usage: PhraseBenchmark -d dir [-q queries] [-r runs]
+ */
+public class PhraseBenchmark {
+
+    /** The phrase lengths measured. */
+    static final int[] LENGTHS = { 2, 3, 5 };
+
+    String dir = null;
+    int nbQueries = 2000;
+    int runs = 5;
+
+    /** The tokens of each document. */
+    String[][] docs;
+
+    /** Counts the bytes allocated by the current thread, if the JVM can. */
+    final com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+
+    /**
+     *  Picks phrases of the given length at random places in the documents.
+     */
+    List<String> makePhrases( int length, Random random ) {
+        ArrayList<String> phrases = new ArrayList<String>();
+        while ( phrases.size() < nbQueries ) {
+            String[] tokens = docs[random.nextInt( docs.length )];
+            if ( tokens.length < length ) {
+                continue;
+            }
+            int start = random.nextInt( tokens.length - length + 1 );
+            phrases.add( String.join( " ", Arrays.asList( tokens ).subList( start, start+length )));
+        }
+        return phrases;
+    }
+
+    /** The same queries with their words shuffled and a suffix added. */
+    static List<String> shuffled( List<String> phrases, String suffix, Random random ) {
+        ArrayList<String> queries = new ArrayList<String>();
+        for ( String phrase : phrases ) {
+            List<String> words = Arrays.asList( phrase.split( " " ));
+            Collections.shuffle( words, random );
+            queries.add( String.join( " ", words ) + " " + suffix );
+        }
+        return queries;
+    }
+
+
+    /** A way of evaluating a query. */
+    interface Evaluator {
+        PostingsList evaluate( Query query );
+    }
+
+    /**
+     *  Runs the queries, and prints the best time and the allocation per query.
+     */
+    void time( String name, List<String> queries, Evaluator evaluator ) {
+        ArrayList<Query> parsed = new ArrayList<Query>();
+        for ( String q : queries ) {
+            parsed.add( new Query( q ));
+        }
+        long best = Long.MAX_VALUE;
+        long bestBytes = Long.MAX_VALUE;
+        long matches = 0;
+        for ( int r=0; r<runs; r++ ) {
+            matches = 0;
+            long b0 = threads.getCurrentThreadAllocatedBytes();
+            long t0 = System.nanoTime();
+            for ( Query q : parsed ) {
+                PostingsList l = evaluator.evaluate( q );
+                matches += l == null ? 0 : l.size();
+            }
+            long t1 = System.nanoTime();
+            long b1 = threads.getCurrentThreadAllocatedBytes();
+            best = Math.min( best, t1-t0 );
+            bestBytes = Math.min( bestBytes, b1-b0 );
+        }
+        System.out.println( String.format( "  %-22s %9.0f queries/s %10.1f us/query %10.0f bytes/query %8d matching documents",
+                name, parsed.size()/(best/1e9), best/1e3/parsed.size(), bestBytes/(double) parsed.size(), matches ));
+    }
+
+    /** Returns true if both results hold the same postings and offsets. */
+    static boolean same( PostingsList a, PostingsList b ) {
+        int sizeA = a == null ? 0 : a.size();
+        int sizeB = b == null ? 0 : b.size();
+        if ( sizeA != sizeB ) {
+            return false;
+        }
+        for ( int i=0; i<sizeA; i++ ) {
+            PostingsEntry e1 = a.get( i );
+            PostingsEntry e2 = b.get( i );
+            if ( e1.docID != e2.docID || e1.offsetCount() != e2.offsetCount() ) {
+                return false;
+            }
+            for ( int j=0; j<e1.offsetCount(); j++ ) {
+                if ( e1.getOffset( j ) != e2.getOffset( j )) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+
+    void run() throws Exception {
+        docs = BenchmarkCorpus.read( dir );
+        HashedIndex index = new HashedIndex();
+        for ( int d=0; d<docs.length; d++ ) {
+            for ( int i=0; i<docs[d].length; i++ ) {
+                index.insert( docs[d][i], d, i );
+            }
+            index.getDocumentStore().add( d, "doc" + d, docs[d].length );
+        }
+        index.cleanup();
+        Searcher searcher = new Searcher( index, null, null );
+        System.out.println( docs.length + " documents, " + nbQueries + " queries per kind, best of " + runs + " runs" );
+
+        Random random = new Random( 42 );
+        for ( int length : LENGTHS ) {
+            List<String> phrases = makePhrases( length, random );
+            int mismatches = 0;
+            for ( String phrase : phrases ) {
+                Query q = new Query( phrase );
+                if ( !same( IntersectionBenchmark.linearSearch( index, q, QueryType.PHRASE_QUERY ),
+                            searcher.search( q, QueryType.PHRASE_QUERY, RankingType.TF_IDF, NormalizationType.NUMBER_OF_WORDS ))) {
+                    mismatches++;
+                }
+            }
+            System.out.println( length + "-word phrases (" + mismatches + " mismatches with the pairwise merge):" );
+            time( "pairwise merge", phrases, q -> IntersectionBenchmark.linearSearch( index, q, QueryType.PHRASE_QUERY ));
+            time( "phrase", phrases, q -> searcher.search( q, QueryType.PHRASE_QUERY, RankingType.TF_IDF, NormalizationType.NUMBER_OF_WORDS ));
+            time( "phrase ~2", suffixed( phrases, "~2" ), q -> searcher.search( q, QueryType.PHRASE_QUERY, RankingType.TF_IDF, NormalizationType.NUMBER_OF_WORDS ));
+            time( "shuffled NEAR/5", shuffled( phrases, "NEAR/5", new Random( length )),
+                  q -> searcher.search( q, QueryType.PROXIMITY_QUERY, RankingType.TF_IDF, NormalizationType.NUMBER_OF_WORDS ));
+        }
+    }
+
+    /** The same queries with a suffix added. */
+    static List<String> suffixed( List<String> phrases, String suffix ) {
+        ArrayList<String> queries = new ArrayList<String>();
+        for ( String phrase : phrases ) {
+            queries.add( phrase + " " + suffix );
+        }
+        return queries;
+    }
+
+
+    public static void main( String[] args ) throws Exception {
+        PhraseBenchmark b = new PhraseBenchmark();
+        int i=0;
+        while ( i < args.length ) {
+            if ( "-d".equals( args[i] ) && i+1 < args.length ) {
+                b.dir = args[i+1];
+            } else if ( "-q".equals( args[i] ) && i+1 < args.length ) {
+                b.nbQueries = Integer.parseInt( args[i+1] );
+            } else if ( "-r".equals( args[i] ) && i+1 < args.length ) {
+                b.runs = Integer.parseInt( args[i+1] );
+            } else {
+                System.err.println( "Unknown argument: " + args[i] );
+                return;
+            }
+            i += 2;
+        }
+        if ( b.dir == null ) {
+            System.err.println( "Usage: PhraseBenchmark -d dir [-q queries] [-r runs]" );
+            return;
+        }
+        b.run();
+    }
+}
@@ -0,0 +1,224 @@
+/*
+ *   This file is part of the computer assignment for the
+ *   Information Retrieval course at KTH.
+ *
+ *   Johan Boye, 2017
+ */
+
+package ir;
+
+
+/**
+ *   Matches phrase and proximity queries by walking the positional
+ *   postings of all their terms at once, with one cursor per term.
+ *
+ *   The documents containing every term are found by leapfrogging: each
+ *   cursor in turn gallops to the largest docID seen so far, rarest term
+ *   first. Within such a document the offsets are walked in one pass, and
+ *   only the postings of the result are allocated; no intermediate lists
+ *   are built, whatever the number of terms.
+ *
+ *   The offsets of a result posting are where the matches end: the offset
+ *   of the last term of a phrase, or of the last term of a proximity window.
+ */
+public class PhraseMatcher {
+
+    /** A cursor over the postings of one term, and the offsets of its current posting. */
+    private static final class Cursor {
+
+        final PostingsList list;
+
+        /** The position in the list. */
+        int pos = 0;
+
+        /** The posting at pos, once all cursors are on the same document. */
+        PostingsEntry entry;
+
+        /** The position among the offsets of the entry. */
+        int offset = 0;
+
+        Cursor( PostingsList list ) {
+            this.list = list;
+        }
+    }
+
+    /** The cursors, in query order. */
+    private final Cursor[] cursors;
+
+    /** The order in which cursors advance to the next document, rarest term first. */
+    private final int[] driveOrder;
+
+
+    /**
+     *  Creates a matcher over the postings of the terms of a query.
+     *
+     *  @param lists The postings of each term, in query order
+     *  @param driveOrder The query positions of the terms, rarest first (see QueryPlan)
+     */
+    public PhraseMatcher( PostingsList[] lists, int[] driveOrder ) {
+        cursors = new Cursor[lists.length];
+        for ( int i=0; i<lists.length; i++ ) {
+            cursors[i] = new Cursor( lists[i] );
+        }
+        this.driveOrder = driveOrder;
+    }
+
+
+    /**
+     *  Moves all cursors to the first document at or after target that
+     *  contains every term.
+     *
+     *  @return The docID of the document, or -1 if there is none
+     */
+    private int nextDocument( int target ) {
+        int n = cursors.length;
+        int agreeing = 0;
+        int i = 0;
+        while ( true ) {
+            Cursor c = cursors[driveOrder[i]];
+            c.pos = c.list.seek( c.pos, target );
+            if ( c.pos == c.list.size() ) {
+                return -1;
+            }
+            int docID = c.list.getDocID( c.pos );
+            if ( docID == target ) {
+                if ( ++agreeing == n ) {
+                    break;
+                }
+            } else {
+                target = docID;
+                agreeing = 1;
+            }
+            i = (i+1) % n;
+        }
+        for ( Cursor c : cursors ) {
+            c.entry = c.list.get( c.pos );
+            c.offset = 0;
+        }
+        return target;
+    }
+
+
+    /**
+     *  Finds the documents where the terms occur in query order, with at
+     *  most slop other words in between in all. With slop 0, this is an
+     *  exact phrase match.
+     */
+    public PostingsList matchPhrase( int slop ) {
+        return slop == 0 ? matchExact() : matchSloppy( slop );
+    }
+
+    /**
+     *  Matches an exact phrase from the rarest term outward: every
+     *  occurrence of the rarest term gives the start of the phrase, and
+     *  the other terms, rarest first, are looked up at their offsets from
+     *  that start.
+     */
+    private PostingsList matchExact() {
+        PostingsList result = new PostingsList();
+        int n = cursors.length;
+        int pivot = driveOrder[0];
+        for ( int docID = nextDocument( 0 ); docID >= 0; docID = nextDocument( docID+1 )) {
+            PostingsEntry rarest = cursors[pivot].entry;
+            starts:
+            for ( int a=0; a<rarest.offsetCount(); a++ ) {
+                int start = rarest.getOffset( a ) - pivot;
+                if ( start < 0 ) {
+                    continue;
+                }
+                for ( int i=1; i<n; i++ ) {
+                    int t = driveOrder[i];
+                    Cursor c = cursors[t];
+                    c.offset = c.entry.seekOffset( c.offset, start + t );
+                    if ( c.offset == c.entry.offsetCount() ) {
+                        // No later start can be completed either
+                        break starts;
+                    }
+                    if ( c.entry.getOffset( c.offset ) != start + t ) {
+                        continue starts;
+                    }
+                }
+                result.add( docID, start + n-1 );
+            }
+        }
+        return result;
+    }
+
+    /**
+     *  Matches a phrase with slop. For every occurrence of the first term,
+     *  the earliest possible occurrence of each next term is taken, which
+     *  gives the shortest match starting there. The start only grows, so
+     *  every cursor only moves forward within a document.
+     */
+    private PostingsList matchSloppy( int slop ) {
+        PostingsList result = new PostingsList();
+        int n = cursors.length;
+        for ( int docID = nextDocument( 0 ); docID >= 0; docID = nextDocument( docID+1 )) {
+            PostingsEntry first = cursors[0].entry;
+            int lastEnd = -1;
+            starts:
+            for ( int a=0; a<first.offsetCount(); a++ ) {
+                int start = first.getOffset( a );
+                int p = start;
+                for ( int t=1; t<n; t++ ) {
+                    Cursor c = cursors[t];
+                    int count = c.entry.offsetCount();
+                    c.offset = c.entry.seekOffset( c.offset, p+1 );
+                    if ( c.offset == count ) {
+                        // No later start can be completed either
+                        break starts;
+                    }
+                    p = c.entry.getOffset( c.offset );
+                    if ( p - start - t > slop ) {
+                        continue starts;
+                    }
+                }
+                if ( p > lastEnd ) {
+                    result.add( docID, p );
+                    lastEnd = p;
+                }
+            }
+        }
+        return result;
+    }
+
+
+    /**
+     *  Finds the documents where all terms occur, in any order, within a
+     *  window of the given number of words: the first and the last of the
+     *  occurrences are at most window words apart.
+     *
+     *  The offsets of all cursors are swept together, always moving the
+     *  cursor with the smallest offset, so every window that ends with one
+     *  of the offsets is considered once.
+     */
+    public PostingsList matchNear( int window ) {
+        PostingsList result = new PostingsList();
+        int n = cursors.length;
+        for ( int docID = nextDocument( 0 ); docID >= 0; docID = nextDocument( docID+1 )) {
+            int lastEnd = -1;
+            while ( true ) {
+                int min = Integer.MAX_VALUE;
+                int max = Integer.MIN_VALUE;
+                Cursor minCursor = null;
+                for ( int t=0; t<n; t++ ) {
+                    Cursor c = cursors[t];
+                    int o = c.entry.getOffset( c.offset );
+                    if ( o < min ) {
+                        min = o;
+                        minCursor = c;
+                    }
+                    max = Math.max( max, o );
+                }
+                if ( max - min <= window && max > lastEnd ) {
+                    result.add( docID, max );
+                    lastEnd = max;
+                }
+                if ( ++minCursor.offset == minCursor.entry.offsetCount() ) {
+                    break;
+                }
+            }
+        }
+        return result;
+    }
+}
@@ -0,0 +1,252 @@
+/*
+ *   This file is part of the computer assignment for the
+ *   Information Retrieval course at KTH.
+ *
+ *   Johan Boye, 2018
+ */
+
+package ir;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+
+/**
+ *   Keeps decoded postings lists of a persistent index in memory, so that
+ *   the lists of terms asked often are not decoded from the data file
+ *   again on every query.
+ *
+ *   A list is kept as it was decoded, and every lookup gets that same
+ *   list, so a hit costs neither decoding nor copying. As with the lists
+ *   of HashedIndex, callers must not change them.
+ *
+ *   The lists are weighed by an estimate of the bytes they take, and the least
+ *   recently used are evicted when the capacity is exceeded. The cache is
+ *   split in segments with a lock each, so threads looking up terms in
+ *   different segments never wait for each other, and hits do not lock at
+ *   all.
+ *
+ *   Some terms can be pinned: their lists are kept apart from the capacity
+ *   and never evicted. They are meant for the terms asked most often, see
+ *   frequentTerms.
+ */
+public class PostingsCache {
+
+    /** The capacity used when none is given. */
+    public static final long DEFAULT_CAPACITY = 64L * 1024 * 1024;
+
+    /** The number of segments, and so of threads that can add lists at once. */
+    private static final int CONCURRENCY = 16;
+
+    /** A cached list, and the bytes it takes. */
+    static final class Cached {
+
+        final PostingsList list;
+        final long bytes;
+
+        Cached( PostingsList list ) {
+            this.list = list;
+            this.bytes = bytes( list );
+        }
+
+        /**
+         *  An estimate of the bytes of a list: its two arrays, and an entry
+         *  with an offsets array per document.
+         */
+        static long bytes( PostingsList list ) {
+            long bytes = 2*16 + 8L*list.size();
+            for ( int i=0; i<list.size(); i++ ) {
+                bytes += 32 + 16 + 4L*list.get( i ).offsetCount();
+            }
+            return bytes;
+        }
+    }
+
+
+    private final long capacity;
+    private final Cache<String,Cached> lists;
+
+    /** The pinned lists. Replaced as a whole, so readers need no lock. */
+    private volatile Map<String,Cached> pinned = Collections.emptyMap();
+    private volatile long pinnedBytes = 0;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder loadNanos = new LongAdder();
+
+
+    /**
+     *  Creates a cache holding at most about the given number of bytes of
+     *  lists, besides the pinned ones.
+     */
+    public PostingsCache( long capacity ) {
+        this.capacity = capacity;
+        lists = CacheBuilder.newBuilder()
+            .concurrencyLevel( CONCURRENCY )
+            .maximumWeight( capacity )
+            .weigher( ( String term, Cached list ) -> (int) Math.min( Integer.MAX_VALUE, list.bytes ))
+            .recordStats()
+            .build();
+    }
+
+
+    /**
+     *  Returns the list of a term, from the pinned lists or the cache, or
+     *  else from the loader. A list that is loaded is cached, unless the
+     *  loader returns null.
+     */
+    public PostingsList get( String term, Function<String,PostingsList> loader ) {
+        PostingsList list = getIfPresent( term );
+        if ( list != null ) {
+            return list;
+        }
+        misses.increment();
+        long startTime = System.nanoTime();
+        list = loader.apply( term );
+        loadNanos.add( System.nanoTime() - startTime );
+        if ( list != null ) {
+            lists.put( term, new Cached( list ));
+        }
+        return list;
+    }
+
+    /**
+     *  Returns the list of a term if it is pinned or cached, or else null.
+     *  Only a list found counts, as a hit: a caller that goes on to decode
+     *  part of the list does not cache it, so that is not counted as a miss.
+     */
+    public PostingsList getIfPresent( String term ) {
+        Cached list = pinned.get( term );
+        if ( list == null ) {
+            list = lists.getIfPresent( term );
+        }
+        if ( list == null ) {
+            return null;
+        }
+        hits.increment();
+        return list.list;
+    }
+
+
+    /**
+     *  Pins the lists of the given terms, instead of those pinned before.
+     *  Terms the loader returns null for are left out.
+     */
+    public void pin( Collection<String> terms, Function<String,PostingsList> loader ) {
+        HashMap<String,Cached> map = new HashMap<String,Cached>();
+        long bytes = 0;
+        for ( String term : terms ) {
+            PostingsList list = loader.apply( term );
+            if ( list != null ) {
+                Cached cached = new Cached( list );
+                map.put( term, cached );
+                bytes += cached.bytes;
+                lists.invalidate( term );
+            }
+        }
+        pinned = map;
+        pinnedBytes = bytes;
+    }
+
+    /** The pinned terms. */
+    public Set<String> pinnedTerms() {
+        return pinned.keySet();
+    }
+
+    /**
+     *  Drops all lists, pinned or not, as when the index they come from is
+     *  replaced. The counters are kept.
+     */
+    public void clear() {
+        pinned = Collections.emptyMap();
+        pinnedBytes = 0;
+        lists.invalidateAll();
+    }
+
+
+    /**
+     *  Reads a log of queries, one per line, and returns the n terms that
+     *  occur in the most queries, most frequent first. Phrase slops,
+     *  proximity windows and wildcard patterns are not counted.
+     */
+    public static List<String> frequentTerms( File log, int n ) throws IOException {
+        HashMap<String,Integer> counts = new HashMap<String,Integer>();
+        try ( BufferedReader in = new BufferedReader( new InputStreamReader( new FileInputStream( log ), StandardCharsets.UTF_8 ))) {
+            String line;
+            while ( (line = in.readLine()) != null ) {
+                Query query = new Query( line.toLowerCase().trim() );
+                HashSet<String> seen = new HashSet<String>();
+                for ( Query.QueryTerm t : query.queryterm ) {
+                    if ( t.term.indexOf( '*' ) < 0 && seen.add( t.term )) {
+                        counts.merge( t.term, 1, Integer::sum );
+                    }
+                }
+            }
+        }
+        ArrayList<Map.Entry<String,Integer>> terms = new ArrayList<Map.Entry<String,Integer>>( counts.entrySet() );
+        terms.sort( (a, b) -> a.getValue().equals( b.getValue() ) ? a.getKey().compareTo( b.getKey() ) : b.getValue() - a.getValue() );
+        ArrayList<String> result = new ArrayList<String>();
+        for ( int i=0; i<n && i<terms.size(); i++ ) {
+            result.add( terms.get( i ).getKey() );
+        }
+        return result;
+    }
+
+
+    /* ----------------------------------------------- */
+
+
+    /** The number of lookups that found a pinned or cached list. */
+    public long hits() {
+        return hits.sum();
+    }
+
+    /** The number of lookups that had to read the whole list from the data file. */
+    public long misses() {
+        return misses.sum();
+    }
+
+    /** The number of lists evicted to keep within the capacity. */
+    public long evictions() {
+        return lists.stats().evictionCount();
+    }
+
+    /** The time spent decoding lists that were not cached, in nanoseconds. */
+    public long loadNanos() {
+        return loadNanos.sum();
+    }
+
+    /** The number of lists cached, besides the pinned ones. */
+    public long size() {
+        return lists.size();
+    }
+
+    /** The bytes of the cached lists, besides the pinned ones. */
+    public long bytes() {
+        long bytes = 0;
+        for ( Cached list : lists.asMap().values() ) {
+            bytes += list.bytes;
+        }
+        return bytes;
+    }
+
+    /** The counters, as a JSON object. */
+    public String toString() {
+        long h = hits(), m = misses();
+        return "{\"hits\":" + h + ",\"misses\":" + m +
+            ",\"hitRate\":" + (h + m == 0 ? 0 : Math.round( 1000.0 * h / (h + m) ) / 1000.0) +
+            ",\"evictions\":" + evictions() + ",\"lists\":" + size() + ",\"bytes\":" + bytes() +
+            ",\"capacity\":" + capacity + ",\"pinned\":" + pinned.size() + ",\"pinnedBytes\":" + pinnedBytes +
+            ",\"loadMillis\":" + loadNanos() / 1000000 + "}";
+    }
+}
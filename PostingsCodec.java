@@ -0,0 +1,47 @@
+/*  
+ *   This file is part of the computer assignment for the
+ *   Information Retrieval course at KTH.
+ * 
+ *   Johan Boye, KTH, 2018
+ */  
+
+package ir;
+
+import java.nio.ByteBuffer;
+
+
+/**
+ *  Converts postings lists to and from their on-disk representation.
+ *
+ *  The persistent indexes and the Merger only ever see the encoded bytes
+ *  through this interface, so the disk format can be changed in one place.
+ */
+public interface PostingsCodec {
+
+    /** Encodes the postings list into a byte array. */
+    public byte[] encode( PostingsList list );
+
+    /**
+     *  Decodes a postings list from the remaining bytes of the buffer,
+     *  i.e. from its position up to its limit.
+     */
+    public PostingsList decode( ByteBuffer buf );
+
+    /**
+     *  Returns the number of postings in the encoded list at the position of
+     *  the buffer. This default decodes the whole list.
+     */
+    public default int documentFrequency( ByteBuffer buf ) {
+        return decode( buf ).size();
+    }
+
+    /**
+     *  Decodes the postings of the documents in candidates, which is sorted
+     *  on docID. A codec may return postings of other documents too; this
+     *  default decodes the whole list.
+     */
+    public default PostingsList decode( ByteBuffer buf, PostingsList candidates ) {
+        return decode( buf );
+    }
+
+}
@@ -13,9 +13,33 @@ import java.util.*;
 
 public class PostingsEntry implements Comparable<PostingsEntry>, Serializable {
 
+    /** Shared backing array of entries that have no offsets yet. */
+    private static final int[] NO_OFFSETS = new int[0];
+
     public int docID;
     public double score = 0;
-    public List<Integer> offsetList=new ArrayList<Integer>();
+
+    /**
+     *  The offsets of the term in the document, in increasing order.
+     *  Only the first offsetCount slots are in use; the rest is spare capacity.
+     */
+    private int[] offsets = NO_OFFSETS;
+
+    /** Number of offsets stored in the offsets array. */
+    private int offsetCount = 0;
+
+    public PostingsEntry() {
+    }
+
+    /**
+     *  Creates an entry with a copy of the offsets from..to-1 of an array,
+     *  which are in increasing order.
+     */
+    PostingsEntry( int docID, int[] offsets, int from, int to ) {
+        this.docID = docID;
+        this.offsets = Arrays.copyOfRange( offsets, from, to );
+        this.offsetCount = to - from;
+    }
 
     /**
      *  PostingsEntries are compared by their score (only relevant
@@ -29,21 +53,70 @@ public class PostingsEntry implements Comparable<PostingsEntry>, Serializable {
     }
     
     void addToOffsetList(int offset) {
-    	offsetList.add(offset);
-    }
-    
-    static List<Integer> mergeOffsetLists(List<Integer> offsetList1, List<Integer> offsetList2) {
-    	List<Integer> newList = new ArrayList<Integer>();
-    	if (offsetList2.get(0)> offsetList1.get(0)) {
-        	newList.addAll(offsetList1);
-        	newList.addAll(offsetList2);
+    	if (offsetCount == offsets.length) {
+    		offsets = Arrays.copyOf(offsets, Math.max(2, offsetCount + (offsetCount >> 1) + 1));
     	}
-    	else {
-    		newList.addAll(offsetList2);
-        	newList.addAll(offsetList1);
+    	offsets[offsetCount++] = offset;
+    }
+
+    /**
+     *  Returns the number of offsets, i.e. the term frequency in this document.
+     */
+    public int offsetCount() {
+    	return offsetCount;
+    }
+
+    /**
+     *  Returns the ith offset. Iterating with offsetCount() and getOffset(i)
+     *  does not allocate.
+     */
+    public int getOffset(int i) {
+    	if (i < 0 || i >= offsetCount)
+    		throw new IndexOutOfBoundsException( "Index: " + i + ", Size: " + offsetCount );
+    	return offsets[i];
+    }
+
+    /**
+     *  Returns the index of the first offset at or after index from that is
+     *  at least offset, or offsetCount() if there is none. Like
+     *  PostingsList.seek, the search gallops from index from.
+     */
+    public int seekOffset(int from, int offset) {
+    	if (from >= offsetCount || offsets[from] >= offset)
+    		return from;
+    	int lo = from;
+    	int step = 1;
+    	int hi = from + 1;
+    	while (hi < offsetCount && offsets[hi] < offset) {
+    		lo = hi;
+    		step <<= 1;
+    		hi = from + step;
     	}
+    	int i = Arrays.binarySearch(offsets, lo + 1, Math.min(hi, offsetCount), offset);
+    	return i < 0 ? -i - 1 : i;
+    }
 
-    	return newList;
+    /**
+     *  Merges the offsets of another entry for the same document into this one,
+     *  keeping them in increasing order.
+     */
+    void mergeOffsets(PostingsEntry other) {
+    	int[] merged = new int[offsetCount + other.offsetCount];
+    	int ind1 = 0;
+    	int ind2 = 0;
+    	int k = 0;
+    	while (ind1 < offsetCount && ind2 < other.offsetCount) {
+    		if (offsets[ind1] <= other.offsets[ind2])
+    			merged[k++] = offsets[ind1++];
+    		else
+    			merged[k++] = other.offsets[ind2++];
+    	}
+    	while (ind1 < offsetCount)
+    		merged[k++] = offsets[ind1++];
+    	while (ind2 < other.offsetCount)
+    		merged[k++] = other.offsets[ind2++];
+    	offsets = merged;
+    	offsetCount = k;
     }
     
     
@@ -52,44 +125,19 @@ public class PostingsEntry implements Comparable<PostingsEntry>, Serializable {
     	String representation="";
     	representation = representation+docID+":";
     	representation = representation+score+":";
-    	for (int off : offsetList)
-    		representation = representation+off +",";
+    	for (int i = 0; i < offsetCount; i++)
+    		representation = representation+offsets[i] +",";
 		return representation;
     } 
     
-    public static PostingsEntry stringToObj(String representation) {
-		try {
-    	PostingsEntry result = new PostingsEntry();
-    	String delims1 = "[:]";
-    	String[] split1 = representation.split(delims1);
-		result.docID = Integer.parseInt(split1[0]);
-		result.score = Double.parseDouble(split1[1]);
-    	String delims2 = "[,]";
-    	String[] offsetListString = split1[2].split(delims2);
-    	for (String intString: offsetListString) {
-    		result.addToOffsetList(Integer.parseInt(intString));
-    	}
-		return result;
-		}
-		catch (Exception e) {
-			System.out.println("representation entry" + representation);
-			throw e;
-		}
-    }
-
 	public PostingsEntry getCopy() {
 		PostingsEntry result = new PostingsEntry();
 		result.docID = this.docID;
-		result.offsetList = getCopyOffsetList();
+		result.offsets = Arrays.copyOf(this.offsets, this.offsetCount);
+		result.offsetCount = this.offsetCount;
 		result.score = this.score;
 		return result;
 	}
-
-	private List<Integer> getCopyOffsetList() {
-		List<Integer> result = new ArrayList<Integer>();
-		result.addAll(this.offsetList);
-		return result;
-	} 
     
     
 //	PostingsList result = new PostingsList();
@@ -1,168 +1,333 @@
-/*  
+/*
  *   This file is part of the computer assignment for the
  *   Information Retrieval course at KTH.
- * 
+ *
  *   Johan Boye, 2017
- */  
+ */
 
 package ir;
 
-import java.util.ArrayList;
+import java.util.AbstractList;
 import java.util.Arrays;
-import java.util.LinkedList;
 import java.util.List;
+import java.util.RandomAccess;
 
 
+/**
+ *  A postings list backed by growable arrays.
+ *
+ *  The docIDs are kept in a primitive int array so that merges can walk the
+ *  list by position in constant time. The PostingsEntry objects holding the
+ *  offsets (and the score used by ranked retrieval) are kept in a parallel array.
+ */
 public class PostingsList {
-    
-    /** The postings list */
-    private LinkedList<PostingsEntry> list = new LinkedList<PostingsEntry>();
+
+    /** The capacity of a freshly created list. */
+    private static final int INITIAL_CAPACITY = 4;
+
+    /** The docIDs of the postings, in increasing order. */
+    private int[] docIDs;
+
+    /** The entries of the postings, parallel to docIDs. */
+    private PostingsEntry[] entries;
+
+    /** Number of postings in this list. */
+    private int size = 0;
+
+
+    public PostingsList() {
+        this( INITIAL_CAPACITY );
+    }
+
+    /**
+     *  Creates an empty list that can hold the given number of postings
+     *  without growing.
+     */
+    public PostingsList( int capacity ) {
+        capacity = Math.max( capacity, 1 );
+        docIDs = new int[capacity];
+        entries = new PostingsEntry[capacity];
+    }
 
 
     /** Number of postings in this list. */
     public int size() {
-    	return getList().size();
+    	return size;
     }
 
     /** Returns the ith posting. */
     public PostingsEntry get( int i ) {
-    	return getList().get( i );
+    	checkIndex( i );
+    	return entries[i];
     }
-    
+
+    /** Returns the docID of the ith posting. */
+    public int getDocID( int i ) {
+    	checkIndex( i );
+    	return docIDs[i];
+    }
+
+    /**
+     *  Returns the position of the first posting at or after position from
+     *  whose docID is at least docID, or size() if there is none. The search
+     *  gallops from position from, so skipping ahead a short distance costs
+     *  little more than stepping.
+     */
+    public int seek( int from, int docID ) {
+    	if (from >= size || docIDs[from] >= docID)
+    		return from;
+    	// Double the step until it passes docID, then search the last step
+    	int lo = from;
+    	int step = 1;
+    	int hi = from + 1;
+    	while (hi < size && docIDs[hi] < docID) {
+    		lo = hi;
+    		step <<= 1;
+    		hi = from + step;
+    	}
+    	int i = Arrays.binarySearch( docIDs, lo + 1, Math.min( hi, size ), docID );
+    	return i < 0 ? -i - 1 : i;
+    }
+
     public void append( PostingsEntry e ) {
-    if (getList().size()!=0 && getList().get(getList().size()-1).docID==e.docID)
-    	return;
-    getList().add(e);
+    	if (size!=0 && docIDs[size-1]==e.docID)
+    		return;
+    	ensureCapacity( size+1 );
+    	docIDs[size] = e.docID;
+    	entries[size] = e;
+    	size++;
     }
-    
+
     public void add( int docID , int offset) {
-    	
-		if (getList().size()!=0){
-			PostingsEntry lastEntry = getList().get(getList().size()-1);
-			if (lastEntry.docID==docID) {
-				lastEntry.addToOffsetList(offset);
-				return;
-			}
+		if (size!=0 && docIDs[size-1]==docID) {
+			entries[size-1].addToOffsetList(offset);
+			return;
 		}
-			PostingsEntry e = new PostingsEntry();
-			e.docID=docID;
-			e.addToOffsetList(offset);
-			getList().add(e);
+		PostingsEntry e = new PostingsEntry();
+		e.docID=docID;
+		e.addToOffsetList(offset);
+		append(e);
     }
-    
-    
+
+
     public void set( PostingsEntry e , int offset) {
-    	getList().set(offset, e);
+    	checkIndex( offset );
+    	docIDs[offset] = e.docID;
+    	entries[offset] = e;
     }
-    
-    public String toString() { 
-    	String representation="";
-    	for (PostingsEntry e : getList())
-    		representation = representation+e.toString()+";";
-		return representation;
-    } 
-    
-    public static PostingsList stringToObj(String representation) {
-    	try {
-    	PostingsList result = new PostingsList();
-    	String delims = "[;]";
-    	String[] eStrings = representation.split(delims);
-    	for (String eString: eStrings) {
-    		
-    		result.append(PostingsEntry.stringToObj(eString));
-    	}
-    	return result;
+
+    /**
+     *  Grows the backing arrays so that they can hold at least minCapacity postings.
+     */
+    private void ensureCapacity( int minCapacity ) {
+    	if (minCapacity > docIDs.length) {
+    		int newCapacity = Math.max( minCapacity, docIDs.length + (docIDs.length >> 1) + 1 );
+    		docIDs = Arrays.copyOf( docIDs, newCapacity );
+    		entries = Arrays.copyOf( entries, newCapacity );
     	}
-		catch (Exception e) {
-			System.out.println("representation list" + representation);
-			throw e;
-		}
-		
     }
 
+    private void checkIndex( int i ) {
+    	if (i < 0 || i >= size)
+    		throw new IndexOutOfBoundsException( "Index: " + i + ", Size: " + size );
+    }
+
+    public String toString() {
+    	StringBuilder representation = new StringBuilder();
+    	for (int i = 0; i < size; i++)
+    		representation.append( entries[i].toString() ).append( ";" );
+		return representation.toString();
+    }
+
+    /**
+     *  Merges two postings lists that are sorted on docID into a new list.
+     *  Postings for the same document are merged into one entry.
+     */
 	public static PostingsList merge(PostingsList pList1, PostingsList pList2) {
-		PostingsEntry lastEntry1 = pList1.get(pList1.size()-1);
-		PostingsEntry firstEntry2 = pList2.get(0);
-		PostingsList result = new PostingsList();
-		result.setList(mergeLists(pList1, pList2));
+		PostingsList result = new PostingsList( pList1.size + pList2.size );
+		int ind1 = 0;
+		int ind2 = 0;
+		while (ind1 < pList1.size || ind2 < pList2.size) {
+			int id1 = ind1 < pList1.size ? pList1.docIDs[ind1] : Integer.MAX_VALUE;
+			int id2 = ind2 < pList2.size ? pList2.docIDs[ind2] : Integer.MAX_VALUE;
+			if (id1 == id2) {
+				PostingsEntry e1 = pList1.entries[ind1++];
+				PostingsEntry e2 = pList2.entries[ind2++];
+				e1.mergeOffsets(e2);
+				result.append(e1);
+			}
+			else if (id1 < id2) {
+				result.append(pList1.entries[ind1++]);
+			}
+			else {
+				result.append(pList2.entries[ind2++]);
+			}
+		}
 		return result;
 	}
 
-	private static LinkedList<PostingsEntry> mergeLists(PostingsList pList1, PostingsList pList2) {
-
-		LinkedList<PostingsEntry> newList = new LinkedList<PostingsEntry>();
-    	newList.addAll(pList1.getList());
-    	newList.addAll(pList2.getList());
-    	newList.sort(new DocIdSorter());
-    	mergeDuplicates(newList);
-    	return newList;
-		
-	} 
-	
-	private static void mergeDuplicates(LinkedList<PostingsEntry> list) {
-		int i = 0;
-		while (i<list.size()-1) {
-			PostingsEntry e1 = list.get(i);
-			PostingsEntry e2 = list.get(i+1);
-			if (e1.docID==e2.docID) {
-				e1.offsetList = PostingsEntry.mergeOffsetLists(e1.offsetList, e2.offsetList);
-				list.remove(i+1);
+	/**
+	 *  Merges any number of postings lists that are sorted on docID into a
+	 *  new list in one pass. The lists are kept in a heap on the docID at
+	 *  their cursor, so each posting costs O(log k) for k lists, where
+	 *  merging them two at a time copies the growing result k times.
+	 *  Postings for the same document are merged into a new entry, so the
+	 *  entries of the given lists are not changed.
+	 */
+	public static PostingsList merge(List<PostingsList> lists) {
+		PostingsList[] heap = new PostingsList[lists.size()];
+		int[] cursors = new int[heap.length];
+		int k = 0;
+		long total = 0;
+		for (PostingsList list : lists) {
+			if (list.size > 0) {
+				heap[k++] = list;
+				total += list.size;
+			}
+		}
+		for (int i = k/2 - 1; i >= 0; i--)
+			siftDown(heap, cursors, i, k);
+		PostingsList result = new PostingsList( (int) Math.min( total, Integer.MAX_VALUE - 8 ));
+		boolean copied = false;
+		while (k > 0) {
+			PostingsList top = heap[0];
+			PostingsEntry e = top.entries[cursors[0]];
+			if (result.size > 0 && result.docIDs[result.size-1] == e.docID) {
+				if (!copied) {
+					result.entries[result.size-1] = result.entries[result.size-1].getCopy();
+					copied = true;
+				}
+				result.entries[result.size-1].mergeOffsets(e);
 			}
-			i++;
+			else {
+				result.append(e);
+				copied = false;
+			}
+			if (++cursors[0] == top.size) {
+				k--;
+				heap[0] = heap[k];
+				cursors[0] = cursors[k];
+				heap[k] = null;
+			}
+			if (k > 0)
+				siftDown(heap, cursors, 0, k);
+		}
+		return result;
+	}
+
+	/**
+	 *  Moves the list at position i of the heap down until the docIDs at
+	 *  the cursors of its children are no smaller than its own.
+	 */
+	private static void siftDown(PostingsList[] heap, int[] cursors, int i, int k) {
+		PostingsList list = heap[i];
+		int cursor = cursors[i];
+		int docID = list.docIDs[cursor];
+		while (2*i + 1 < k) {
+			int child = 2*i + 1;
+			if (child + 1 < k && heap[child+1].docIDs[cursors[child+1]] < heap[child].docIDs[cursors[child]])
+				child++;
+			if (heap[child].docIDs[cursors[child]] >= docID)
+				break;
+			heap[i] = heap[child];
+			cursors[i] = cursors[child];
+			i = child;
 		}
+		heap[i] = list;
+		cursors[i] = cursor;
+	}
 
-		
+	/**
+	 *  Adds the postings of another list to this one. If they all come after
+	 *  the postings of this list they are appended, otherwise they are merged
+	 *  with the postings from the first docID of the other list onwards.
+	 *  Postings for the same document are merged into one entry.
+	 */
+	public void addAll(PostingsList other) {
+		if (other.size == 0)
+			return;
+		int from = Arrays.binarySearch( docIDs, 0, size, other.docIDs[0] );
+		if (from < 0)
+			from = -from - 1;
+		if (from == size) {
+			ensureCapacity( size + other.size );
+			System.arraycopy( other.docIDs, 0, docIDs, size, other.size );
+			System.arraycopy( other.entries, 0, entries, size, other.size );
+			size += other.size;
+			return;
+		}
+		// Merge the tail of this list with the other list
+		int tailSize = size - from;
+		int[] tailIDs = Arrays.copyOfRange( docIDs, from, size );
+		PostingsEntry[] tailEntries = Arrays.copyOfRange( entries, from, size );
+		ensureCapacity( size + other.size );
+		size = from;
+		int ind1 = 0;
+		int ind2 = 0;
+		while (ind1 < tailSize || ind2 < other.size) {
+			int id1 = ind1 < tailSize ? tailIDs[ind1] : Integer.MAX_VALUE;
+			int id2 = ind2 < other.size ? other.docIDs[ind2] : Integer.MAX_VALUE;
+			PostingsEntry e;
+			if (id1 == id2) {
+				e = tailEntries[ind1++];
+				e.mergeOffsets(other.entries[ind2++]);
+			}
+			else if (id1 < id2) {
+				e = tailEntries[ind1++];
+			}
+			else {
+				e = other.entries[ind2++];
+			}
+			docIDs[size] = e.docID;
+			entries[size] = e;
+			size++;
+		}
 	}
 
+	/**
+	 *  Sorts the postings on docID.
+	 */
 	public void sortList() {
-		this.getList().sort(new DocIdSorter());
+		Arrays.sort( entries, 0, size, new DocIdSorter() );
+		for (int i = 0; i < size; i++) {
+			docIDs[i] = entries[i].docID;
+		}
 	}
 
-	public LinkedList<PostingsEntry> getList() {
-		return list;
+	/**
+	 *  Returns a list view of the entries. The view supports positional
+	 *  access in constant time, and writes through to this postings list.
+	 */
+	public List<PostingsEntry> getList() {
+		return new EntryView();
 	}
-	
+
 	public PostingsList getCopy() {
-		PostingsList result = new PostingsList();
-		result.list = this.getListCopy();
-		return result;
-	}
-	
-	public LinkedList<PostingsEntry> getListCopy() {
-		LinkedList<PostingsEntry> result = new LinkedList<PostingsEntry>();
-		for (PostingsEntry e : list) {
-			result.add(e.getCopy());
+		PostingsList result = new PostingsList( size );
+		for (int i = 0; i < size; i++) {
+			result.append( entries[i].getCopy() );
 		}
 		return result;
 	}
 
-	public void setList(LinkedList<PostingsEntry> list) {
-		this.list = list;
-	}
-	
-
-    // 
-    //  YOUR CODE HERE
-    //
-}
-
-
-
-
-
-
-
-
-
-
-
-
-
-
-
-
-
 
+	/**
+	 *  A list view of the entries of this postings list.
+	 */
+	private class EntryView extends AbstractList<PostingsEntry> implements RandomAccess {
 
+		public PostingsEntry get( int i ) {
+			return PostingsList.this.get( i );
+		}
 
+		public PostingsEntry set( int i, PostingsEntry e ) {
+			PostingsEntry old = PostingsList.this.get( i );
+			PostingsList.this.set( e, i );
+			return old;
+		}
 
+		public int size() {
+			return size;
+		}
+	}
+}
@@ -0,0 +1,232 @@
+/*
+ *   This file is part of the computer assignment for the
+ *   Information Retrieval course at KTH.
+ *
+ *   Johan Boye, 2018
+ */
+
+package ir;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+
+/**
+ *   Computes PageRank by power iteration over the links of a LinkGraph, in
+ *   time linear in the number of links per iteration.
+ *
+ *   The surfer follows a random out-link with probability 1-bored, and
+ *   jumps to a random document otherwise. From a sink, a document without
+ *   out-links, it always jumps. So one step from the vector a gives
+ *
+ *      a'[i] = J / n + (1-bored) * sum over links j->i of a[j] / out(j)
+ *
+ *   where J, the probability of a jump, is the sum of bored * a[j] over the
+ *   documents with out-links and of a[j] over the sinks. J is the same for
+ *   every document and is computed once per step, so only the links are
+ *   visited one by one. This is the same matrix as in PageRank.iterate
+ *   before, which went over every pair of documents.
+ *
+ *   The documents are split in blocks of about the same number of in-links,
+ *   and a step can run the blocks on several threads of a ForkJoinPool:
+ *   each block computes the new values of its own documents, summing over
+ *   their in-links, so no two threads write the same place. J and the
+ *   distance between two vectors are summed per block, and the sums of the
+ *   blocks are added up in a tree that depends only on the blocks. So the
+ *   result is the same, to the last bit, for any number of threads.
+ */
+public class PowerIteration {
+
+    /** The number of documents plus in-links a block should have. */
+    private static final int BLOCK_WORK = 1 << 14;
+
+    private final LinkGraph graph;
+    private final double bored;
+    private final int threads;
+
+    /** The reciprocal of the out-degree of each document, or 0 for a sink. */
+    private final double[] inverseDegree;
+
+    /** Where each block starts, and the end of the last one. */
+    private final int[] blocks;
+
+    /** The number of steps taken by the last run. */
+    private int steps = 0;
+
+    /** The L1 distance between the last two vectors of the last run. */
+    private double error = 0;
+
+    /** The vectors of the step being taken, for the tasks. */
+    private double[] a, share, next;
+    private double jump;
+
+
+    /** Creates a power iteration running on one thread. */
+    public PowerIteration( LinkGraph graph, double bored ) {
+        this( graph, bored, 1 );
+    }
+
+    /** Creates a power iteration running each step on the given number of threads. */
+    public PowerIteration( LinkGraph graph, double bored, int threads ) {
+        this.graph = graph;
+        this.bored = bored;
+        this.threads = Math.max( 1, threads );
+        graph.buildInLinks();
+        int n = graph.size();
+        inverseDegree = new double[n];
+        for ( int i=0; i<n; i++ ) {
+            int degree = graph.outDegree( i );
+            inverseDegree[i] = degree == 0 ? 0 : 1.0 / degree;
+        }
+        blocks = split( graph.inOffsets, n );
+    }
+
+    /** Splits the documents in blocks of about BLOCK_WORK documents plus in-links. */
+    private static int[] split( int[] inOffsets, int n ) {
+        int[] blocks = new int[n / BLOCK_WORK + inOffsets[n] / BLOCK_WORK + 2];
+        int count = 0;
+        long work = 0;
+        for ( int i=0; i<n; i++ ) {
+            if ( work >= BLOCK_WORK ) {
+                blocks[++count] = i;
+                work = 0;
+            }
+            work += 1 + inOffsets[i+1] - inOffsets[i];
+        }
+        blocks[++count] = n;
+        return Arrays.copyOf( blocks, count+1 );
+    }
+
+
+    /**
+     *  Starts from the uniform vector and takes steps until the L1 distance
+     *  between two vectors is at most epsilon, or maxSteps are taken.
+     *
+     *  @return The last vector
+     */
+    public double[] run( double epsilon, int maxSteps ) {
+        int n = graph.size();
+        a = new double[n];
+        next = new double[n];
+        Arrays.fill( a, 1.0 / n );
+        // The share of each document that goes along each of its links
+        share = new double[n];
+        steps = 0;
+        error = Double.POSITIVE_INFINITY;
+        ForkJoinPool pool = threads > 1 ? new ForkJoinPool( threads ) : null;
+        try {
+            while ( error > epsilon && steps < maxSteps ) {
+                jump = sum( pool, Phase.SCATTER ) / n;
+                error = sum( pool, Phase.GATHER );
+                double[] t = a;
+                a = next;
+                next = t;
+                steps++;
+            }
+        } finally {
+            if ( pool != null ) {
+                pool.shutdown();
+            }
+        }
+        double[] result = a;
+        a = next = share = null;
+        return result;
+    }
+
+
+    private enum Phase { SCATTER, GATHER }
+
+    /** Runs a phase on all blocks, and returns the sum of what they return. */
+    private double sum( ForkJoinPool pool, Phase phase ) {
+        Blocks task = new Blocks( phase, 0, blocks.length-1 );
+        return pool == null ? task.compute() : pool.invoke( task );
+    }
+
+    /**
+     *  Runs a phase on the blocks from lo to hi-1, splitting them in halves
+     *  until one is left. The halves run in parallel in a pool, and one
+     *  after the other otherwise, and their sums are added in the same way.
+     */
+    private class Blocks extends RecursiveTask<Double> {
+
+        private static final long serialVersionUID = 1L;
+
+        final Phase phase;
+        final int lo, hi;
+
+        Blocks( Phase phase, int lo, int hi ) {
+            this.phase = phase;
+            this.lo = lo;
+            this.hi = hi;
+        }
+
+        protected Double compute() {
+            if ( hi - lo == 1 ) {
+                return phase == Phase.SCATTER ? scatter( blocks[lo], blocks[lo+1] ) : gather( blocks[lo], blocks[lo+1] );
+            }
+            int mid = (lo + hi) >>> 1;
+            Blocks left = new Blocks( phase, lo, mid );
+            Blocks right = new Blocks( phase, mid, hi );
+            if ( getPool() == null ) {
+                double l = left.compute();
+                return l + right.compute();
+            }
+            left.fork();
+            double r = right.compute();
+            return left.join() + r;
+        }
+    }
+
+
+    /**
+     *  Computes the shares of the documents from to to-1.
+     *
+     *  @return Their probability of a jump
+     */
+    private double scatter( int from, int to ) {
+        double jumps = 0;
+        for ( int j=from; j<to; j++ ) {
+            jumps += inverseDegree[j] == 0 ? a[j] : bored * a[j];
+            share[j] = (1 - bored) * a[j] * inverseDegree[j];
+        }
+        return jumps;
+    }
+
+    /**
+     *  Computes next for the documents from to to-1, from the shares of
+     *  the documents linking to them.
+     *
+     *  @return The L1 distance between a and next over these documents
+     */
+    private double gather( int from, int to ) {
+        int[] inOffsets = graph.inOffsets;
+        int[] sources = graph.sources;
+        double error = 0;
+        for ( int i=from; i<to; i++ ) {
+            double sum = 0;
+            for ( int e=inOffsets[i]; e<inOffsets[i+1]; e++ ) {
+                sum += share[sources[e]];
+            }
+            next[i] = jump + sum;
+            error += Math.abs( next[i] - a[i] );
+        }
+        return error;
+    }
+
+
+    /** The number of steps taken by the last run. */
+    public int steps() {
+        return steps;
+    }
+
+    /** The L1 distance between the last two vectors of the last run. */
+    public double error() {
+        return error;
+    }
+
+    /** The number of blocks the documents are split in. */
+    public int blockCount() {
+        return blocks.length - 1;
+    }
+}
@@ -51,6 +51,21 @@ public class Query {
      *  (only used in assignment 3).
      */
     double beta = 1 - alpha;
+
+    /** The number of words a proximity query spans when no NEAR/k is given. */
+    public static final int DEFAULT_WINDOW = 5;
+
+    /**
+     *  The number of extra words allowed in between the words of a phrase
+     *  query, given as ~k in the query string.
+     */
+    public int slop = 0;
+
+    /**
+     *  The largest distance between the first and the last word matched by
+     *  a proximity query, given as NEAR/k in the query string.
+     */
+    public int window = DEFAULT_WINDOW;
     
     
     /**
@@ -61,12 +76,20 @@ public class Query {
     
     
     /**
-     *  Creates a new Query from a string of words
+     *  Creates a new Query from a string of words. A token ~k sets the slop
+     *  of a phrase query, and a token NEAR/k the window of a proximity query.
      */
     public Query( String queryString  ) {
         StringTokenizer tok = new StringTokenizer( queryString );
         while ( tok.hasMoreTokens() ) {
-            queryterm.add( new QueryTerm(tok.nextToken(), 1.0) );
+            String token = tok.nextToken();
+            if ( token.matches( "~[0-9]{1,9}" )) {
+                slop = Integer.parseInt( token.substring( 1 ));
+            } else if ( token.matches( "(?i)NEAR/[0-9]{1,9}" )) {
+                window = Integer.parseInt( token.substring( 5 ));
+            } else {
+                queryterm.add( new QueryTerm(token, 1.0) );
+            }
         }    
     }
     
@@ -99,6 +122,8 @@ public class Query {
         for ( QueryTerm t : queryterm ) {
             queryCopy.queryterm.add( new QueryTerm(t.term, t.weight) );
         }
+        queryCopy.slop = slop;
+        queryCopy.window = window;
         return queryCopy;
     }
     
@@ -0,0 +1,287 @@
+/*
+ *   This file is part of the computer assignment for the
+ *   Information Retrieval course at KTH.
+ *
+ *   Johan Boye, 2017
+ */
+
+package ir;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+
+/**
+ *   Caches the results of ranked queries: the docIDs and scores of the
+ *   top k documents, in two arrays. A result is found again by its key,
+ *   which is made of the query terms in query order (the order in which
+ *   the scores are added up), the query, ranking and normalization types
+ *   and k.
+ *
+ *   The cache is bounded by an estimate of the bytes its entries take.
+ *   When it is full, the least recently used entries are evicted, but only
+ *   for a result whose query has been asked more often than theirs: the
+ *   TinyLFU admission policy. The frequencies are approximated by a
+ *   count-min sketch of 4-bit counters, two to a byte, which are halved
+ *   every so often so that old popularity fades. The sketch counts
+ *   against the bytes of the cache. This keeps the few hundred queries that
+ *   make up most of the traffic from being pushed out by queries asked
+ *   once.
+ *
+ *   The results belong to one index. When another index is published, the
+ *   cache is invalidated, and results computed on older indexes are not
+ *   taken in. All methods are synchronized; a lookup is a hash and a few
+ *   array updates, so searches hold the lock only briefly.
+ */
+public class QueryCache {
+
+    /** The estimated bytes of an entry, apart from its results and key. */
+    private static final int ENTRY_BYTES = 96;
+
+    /** The estimated bytes of each result: a docID and a score. */
+    private static final int RESULT_BYTES = 12;
+
+    /** The number of rows of the frequency sketch. */
+    private static final int DEPTH = 4;
+
+    /** The largest value of a counter of the sketch. */
+    private static final int MAX_COUNT = 15;
+
+
+    /** A cached result. */
+    static final class Result {
+        final int[] docIDs;
+        final double[] scores;
+        final long bytes;
+
+        Result( int[] docIDs, double[] scores, long bytes ) {
+            this.docIDs = docIDs;
+            this.scores = scores;
+            this.bytes = bytes;
+        }
+    }
+
+    /** The entries, least recently used first. */
+    private final LinkedHashMap<String,Result> entries = new LinkedHashMap<String,Result>( 16, 0.75f, true );
+
+    private final long maxBytes;
+    private long bytes = 0;
+
+    /** The index the cached results come from. */
+    private Index index;
+
+    /** The counters of the frequency sketch, DEPTH rows of width each, two to a byte. */
+    private final byte[] sketch;
+    private final int width;
+
+    /** The number of increments after which all counters are halved. */
+    private final int sampleSize;
+    private int increments = 0;
+
+    private long hits = 0;
+    private long misses = 0;
+    private long evictions = 0;
+    private long rejections = 0;
+    private long invalidations = 0;
+
+
+    /**
+     *  Creates a cache that takes at most about the given number of bytes,
+     *  the frequency sketch included.
+     */
+    public QueryCache( long maxBytes ) {
+        // Room for the queries of about as many top 10 results as fit
+        long expected = Math.max( 64, maxBytes / (ENTRY_BYTES + 10*RESULT_BYTES) );
+        width = Integer.highestOneBit( (int) Math.min( 1 << 24, 2*expected - 1 )) << 1;
+        sketch = new byte[DEPTH * width / 2];
+        sampleSize = 10 * width;
+        this.maxBytes = Math.max( 0, maxBytes - sketch.length );
+    }
+
+
+    /** The key of a query. */
+    static String key( Query query, QueryType queryType, RankingType rankingType, NormalizationType normType, int k ) {
+        StringBuilder key = new StringBuilder();
+        key.append( queryType.ordinal() ).append( ' ' ).append( rankingType.ordinal() ).append( ' ' ).append( normType.ordinal() );
+        key.append( ' ' ).append( k );
+        for ( Query.QueryTerm t : query.queryterm ) {
+            key.append( ' ' ).append( t.term );
+        }
+        return key.toString();
+    }
+
+
+    /**
+     *  Looks up the result of a query on the given index.
+     *
+     *  @return A new postings list with the cached docIDs and scores, or
+     *          null if the result is not cached
+     */
+    public synchronized PostingsList get( Index index, String key ) {
+        increment( key );
+        Result r = index == this.index ? entries.get( key ) : null;
+        if ( r == null ) {
+            misses++;
+            return null;
+        }
+        hits++;
+        PostingsList list = new PostingsList( r.docIDs.length );
+        for ( int i=0; i<r.docIDs.length; i++ ) {
+            PostingsEntry e = new PostingsEntry();
+            e.docID = r.docIDs[i];
+            e.score = r.scores[i];
+            list.append( e );
+        }
+        return list;
+    }
+
+
+    /**
+     *  Caches the result of a query on the given index, if the index is the
+     *  current one and the query is asked often enough to make room for it.
+     */
+    public synchronized void put( Index index, String key, PostingsList list ) {
+        if ( index != this.index || entries.containsKey( key )) {
+            return;
+        }
+        int n = list.size();
+        long size = ENTRY_BYTES + 2L*key.length() + (long) RESULT_BYTES*n;
+        if ( size > maxBytes / 4 ) {
+            rejections++;
+            return;
+        }
+        // Find the victims first, so that nothing is evicted for a result that is rejected
+        int frequency = frequency( key );
+        int victims = 0;
+        long freed = 0;
+        for ( Map.Entry<String,Result> victim : entries.entrySet() ) {
+            if ( bytes - freed + size <= maxBytes ) {
+                break;
+            }
+            if ( frequency <= frequency( victim.getKey() )) {
+                rejections++;
+                return;
+            }
+            freed += victim.getValue().bytes;
+            victims++;
+        }
+        Iterator<Map.Entry<String,Result>> it = entries.entrySet().iterator();
+        for ( int i=0; i<victims; i++ ) {
+            bytes -= it.next().getValue().bytes;
+            it.remove();
+            evictions++;
+        }
+        int[] docIDs = new int[n];
+        double[] scores = new double[n];
+        for ( int i=0; i<n; i++ ) {
+            docIDs[i] = list.getDocID( i );
+            scores[i] = list.get( i ).score;
+        }
+        entries.put( key, new Result( docIDs, scores, size ));
+        bytes += size;
+    }
+
+
+    /**
+     *  Drops all results, and from now on only caches results computed on
+     *  the given index. The frequencies are kept, since the queries asked
+     *  often are likely to stay so.
+     */
+    public synchronized void invalidate( Index index ) {
+        this.index = index;
+        entries.clear();
+        bytes = 0;
+        invalidations++;
+    }
+
+
+    /* ----------------------------------------------- */
+
+
+    /** The column of a key in a row of the sketch. */
+    private int column( int hash, int row ) {
+        int h = hash * (0x9E3779B9 + 2*row);
+        return (h ^ (h >>> 16)) & (width - 1);
+    }
+
+    /** The ith counter of the sketch: the low half of a byte for even i, the high half for odd i. */
+    private int counter( int i ) {
+        return (sketch[i >>> 1] >>> ((i & 1) << 2)) & 0xf;
+    }
+
+    private void increment( String key ) {
+        int hash = key.hashCode();
+        for ( int row=0; row<DEPTH; row++ ) {
+            int i = row*width + column( hash, row );
+            if ( counter( i ) < MAX_COUNT ) {
+                sketch[i >>> 1] += 1 << ((i & 1) << 2);
+            }
+        }
+        if ( ++increments == sampleSize ) {
+            // Halve both counters of each byte; the mask drops the bit shifted between them
+            for ( int i=0; i<sketch.length; i++ ) {
+                sketch[i] = (byte) ((sketch[i] >> 1) & 0x77);
+            }
+            increments /= 2;
+        }
+    }
+
+    /** The estimated number of times a key has been looked up lately. */
+    private int frequency( String key ) {
+        int hash = key.hashCode();
+        int min = MAX_COUNT;
+        for ( int row=0; row<DEPTH; row++ ) {
+            min = Math.min( min, counter( row*width + column( hash, row )) );
+        }
+        return min;
+    }
+
+
+    /* ----------------------------------------------- */
+
+
+    public synchronized long hits() {
+        return hits;
+    }
+
+    public synchronized long misses() {
+        return misses;
+    }
+
+    /** The number of results evicted to make room for others. */
+    public synchronized long evictions() {
+        return evictions;
+    }
+
+    /** The number of results not cached, being too large or asked too seldom. */
+    public synchronized long rejections() {
+        return rejections;
+    }
+
+    public synchronized long invalidations() {
+        return invalidations;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /** The estimated bytes taken by the results. */
+    public synchronized long bytes() {
+        return bytes;
+    }
+
+    /** The bytes of the frequency sketch, which are taken off the bytes for results. */
+    public long sketchBytes() {
+        return sketch.length;
+    }
+
+    /** The counters, as a JSON object. */
+    public synchronized String toString() {
+        return "{\"hits\":" + hits + ",\"misses\":" + misses + ",\"evictions\":" + evictions +
+            ",\"rejections\":" + rejections + ",\"invalidations\":" + invalidations +
+            ",\"entries\":" + entries.size() + ",\"bytes\":" + bytes + ",\"maxBytes\":" + maxBytes +
+            ",\"sketchBytes\":" + sketch.length + "}";
+    }
+}
@@ -0,0 +1,243 @@
+/*
+ *   This file is part of the computer assignment for the
+ *   Information Retrieval course at KTH.
+ *
+ *   Johan Boye, 2017
+ */
+
+package ir;
+
+import java.util.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+
+/**
+ *   Runs a mix of queries from 1, 2, 4, ... threads at once against one
+ *   searcher, and prints the throughput of each number of threads and its
+ *   speedup over one thread. Every result is checked against the result
+ *   the same query got when run alone, so races show up as mismatches.
+ *
+ *   The mix is ranked top 10 tf-idf queries of 1 to 3 words, intersections
+ *   of 2 words, and phrases and NEAR/5 queries of 2 words from the text.
+ *
+ *   With -i, another thread keeps indexing the documents again meanwhile,
+ *   and publishes every new index with a new searcher, as Engine.publish
+ *   does. The documents are the same, so the results must not change.
+ *
+ *   Usage: QueryLoadBenchmark -d dir [-t max threads] [-q queries] [-s seconds] [-i]
+ */
+public class QueryLoadBenchmark {
+
+    String dir = null;
+    int maxThreads = Runtime.getRuntime().availableProcessors();
+    int nbQueries = 2000;
+    int seconds = 5;
+    boolean indexing = false;
+
+    /** The tokens of each document. */
+    String[][] docs;
+
+    /** The searcher the threads use, replaced by the indexing thread with -i. */
+    volatile Searcher searcher;
+
+
+    /** A query of the mix, and the result it got when run alone. */
+    static class Task {
+        final Query query;
+        final QueryType queryType;
+        final int k;
+        long expected;
+
+        Task( String query, QueryType queryType, int k ) {
+            this.query = new Query( query );
+            this.queryType = queryType;
+            this.k = k;
+        }
+
+        long run( Searcher searcher ) {
+            return fingerprint( searcher.search( query, queryType, RankingType.TF_IDF, NormalizationType.NUMBER_OF_WORDS, k ));
+        }
+    }
+
+    /** A fingerprint of a result: its docIDs and scores, in order. */
+    static long fingerprint( PostingsList result ) {
+        long h = 17;
+        for ( int i=0; result != null && i<result.size(); i++ ) {
+            h = 31*h + result.getDocID( i );
+            h = 31*h + Double.doubleToLongBits( result.get( i ).score );
+        }
+        return h;
+    }
+
+
+    HashedIndex buildIndex() {
+        HashedIndex index = new HashedIndex();
+        for ( int d=0; d<docs.length; d++ ) {
+            for ( int i=0; i<docs[d].length; i++ ) {
+                index.insert( docs[d][i], d, i );
+            }
+            index.getDocumentStore().add( d, "doc" + d, docs[d].length );
+        }
+        index.cleanup();
+        return index;
+    }
+
+    /** The mix of queries, every word from a random place in the documents. */
+    List<Task> makeTasks( Random random ) {
+        ArrayList<Task> tasks = new ArrayList<Task>();
+        while ( tasks.size() < nbQueries ) {
+            String[] tokens = docs[random.nextInt( docs.length )];
+            if ( tokens.length < 2 ) {
+                continue;
+            }
+            int start = random.nextInt( tokens.length - 1 );
+            String bigram = tokens[start] + " " + tokens[start+1];
+            switch ( tasks.size() % 4 ) {
+            case 0:
+                StringBuilder words = new StringBuilder( tokens[start] );
+                for ( int w=random.nextInt( 3 ); w>0; w-- ) {
+                    String[] other = docs[random.nextInt( docs.length )];
+                    if ( other.length > 0 ) {
+                        words.append( ' ' ).append( other[random.nextInt( other.length )] );
+                    }
+                }
+                tasks.add( new Task( words.toString(), QueryType.RANKED_QUERY, 10 ));
+                break;
+            case 1:
+                String[] other = docs[random.nextInt( docs.length )];
+                if ( other.length > 0 ) {
+                    tasks.add( new Task( tokens[start] + " " + other[random.nextInt( other.length )], QueryType.INTERSECTION_QUERY, 0 ));
+                }
+                break;
+            case 2:
+                tasks.add( new Task( bigram, QueryType.PHRASE_QUERY, 0 ));
+                break;
+            default:
+                tasks.add( new Task( tokens[start+1] + " " + tokens[start] + " NEAR/5", QueryType.PROXIMITY_QUERY, 0 ));
+            }
+        }
+        return tasks;
+    }
+
+
+    /**
+     *  Runs the tasks from the given number of threads for the given time,
+     *  each thread starting at its own place in the list.
+     *
+     *  @return { queries run, mismatches }
+     */
+    long[] load( List<Task> tasks, int threads, long nanos ) throws InterruptedException {
+        long[] done = new long[threads];
+        long[] mismatches = new long[threads];
+        CountDownLatch start = new CountDownLatch( 1 );
+        Thread[] workers = new Thread[threads];
+        for ( int t=0; t<threads; t++ ) {
+            final int id = t;
+            workers[t] = new Thread( () -> {
+                try {
+                    start.await();
+                } catch ( InterruptedException e ) {
+                    return;
+                }
+                long deadline = System.nanoTime() + nanos;
+                int i = id * tasks.size() / threads;
+                long n = 0, bad = 0;
+                while ( System.nanoTime() < deadline ) {
+                    Task task = tasks.get( i );
+                    if ( task.run( searcher ) != task.expected ) {
+                        bad++;
+                    }
+                    n++;
+                    i = (i+1) % tasks.size();
+                }
+                done[id] = n;
+                mismatches[id] = bad;
+            });
+            workers[t].start();
+        }
+        start.countDown();
+        for ( Thread w : workers ) {
+            w.join();
+        }
+        long[] total = new long[2];
+        for ( int t=0; t<threads; t++ ) {
+            total[0] += done[t];
+            total[1] += mismatches[t];
+        }
+        return total;
+    }
+
+
+    void run() throws Exception {
+        docs = BenchmarkCorpus.read( dir );
+        searcher = new Searcher( buildIndex(), null, null );
+        List<Task> tasks = makeTasks( new Random( 42 ));
+        for ( Task task : tasks ) {
+            task.expected = task.run( searcher );
+        }
+        System.out.println( docs.length + " documents, " + tasks.size() + " queries, " + Runtime.getRuntime().availableProcessors()
+                            + " processors, " + seconds + " s per run" + (indexing ? ", indexing meanwhile" : "") );
+
+        AtomicBoolean stop = new AtomicBoolean( false );
+        Thread indexer = null;
+        int[] published = new int[1];
+        if ( indexing ) {
+            indexer = new Thread( () -> {
+                while ( !stop.get() ) {
+                    searcher = new Searcher( buildIndex(), null, null );
+                    published[0]++;
+                }
+            });
+            indexer.start();
+        }
+        // Warm up
+        load( tasks, 1, seconds * 1000000000L / 2 );
+        double single = 0;
+        for ( int threads=1; threads<=maxThreads; threads*=2 ) {
+            long[] r = load( tasks, threads, seconds * 1000000000L );
+            double qps = r[0] / (double) seconds;
+            if ( threads == 1 ) {
+                single = qps;
+            }
+            System.out.println( String.format( "%3d threads %10.0f queries/s   speedup %5.2f   efficiency %4.0f%%   %d mismatches",
+                    threads, qps, qps/single, 100*qps/single/threads, r[1] ));
+        }
+        if ( indexer != null ) {
+            stop.set( true );
+            indexer.join();
+            System.out.println( published[0] + " indexes published while querying" );
+        }
+    }
+
+
+    public static void main( String[] args ) throws Exception {
+        QueryLoadBenchmark b = new QueryLoadBenchmark();
+        int i=0;
+        while ( i < args.length ) {
+            if ( "-i".equals( args[i] )) {
+                b.indexing = true;
+                i++;
+                continue;
+            }
+            if ( "-d".equals( args[i] ) && i+1 < args.length ) {
+                b.dir = args[i+1];
+            } else if ( "-t".equals( args[i] ) && i+1 < args.length ) {
+                b.maxThreads = Integer.parseInt( args[i+1] );
+            } else if ( "-q".equals( args[i] ) && i+1 < args.length ) {
+                b.nbQueries = Integer.parseInt( args[i+1] );
+            } else if ( "-s".equals( args[i] ) && i+1 < args.length ) {
+                b.seconds = Integer.parseInt( args[i+1] );
+            } else {
+                System.err.println( "Unknown argument: " + args[i] );
+                return;
+            }
+            i += 2;
+        }
+        if ( b.dir == null ) {
+            System.err.println( "Usage: QueryLoadBenchmark -d dir [-t max threads] [-q queries] [-s seconds] [-i]" );
+            return;
+        }
+        b.run();
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ *   This file is part of the computer assignment for the
+ *   Information Retrieval course at KTH.
+ *
+ *   Johan Boye, 2017
+ */
+
+package ir;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import ir.Query.QueryTerm;
+
+
+/**
+ *   The order in which the terms of an intersection or phrase query are
+ *   merged: by document frequency, rarest first, and in query order for
+ *   equal frequencies.
+ *
+ *   Starting from the rarest term keeps every intermediate result no larger
+ *   than the smallest list, so the lists that follow are only searched for
+ *   the few documents left. Phrase queries get the same order: they are
+ *   matched on offsets relative to the start of the phrase, so the terms
+ *   can be checked in any order, outward from the rarest.
+ */
+public class QueryPlan {
+
+    /** The terms of the query, in query order. */
+    final String[] terms;
+
+    /** The document frequency of each term, in query order. */
+    final int[] df;
+
+    /** The positions of the terms in the query, in the order they are merged. */
+    final int[] order;
+
+
+    private QueryPlan( String[] terms, int[] df, int[] order ) {
+        this.terms = terms;
+        this.df = df;
+        this.order = order;
+    }
+
+
+    /**
+     *  Plans a query, looking up the document frequency of every term.
+     */
+    public static QueryPlan create( Index index, List<QueryTerm> query ) {
+        int n = query.size();
+        String[] terms = new String[n];
+        int[] df = new int[n];
+        Integer[] order = new Integer[n];
+        for ( int i=0; i<n; i++ ) {
+            terms[i] = query.get( i ).term;
+            df[i] = index.getDocumentFrequency( terms[i] );
+            order[i] = i;
+        }
+        // A stable sort, so equal frequencies keep the query order
+        Arrays.sort( order, (a, b) -> Integer.compare( df[a], df[b] ));
+        int[] ordered = new int[n];
+        for ( int i=0; i<n; i++ ) {
+            ordered[i] = order[i];
+        }
+        return new QueryPlan( terms, df, ordered );
+    }
+
+
+    /** The number of terms. */
+    public int size() {
+        return order.length;
+    }
+
+    /** The position in the query of the ith term to merge. */
+    public int position( int i ) {
+        return order[i];
+    }
+
+    /** The ith term to merge. */
+    public String term( int i ) {
+        return terms[order[i]];
+    }
+
+    /** Returns true if some term is in no document, so nothing can match. */
+    public boolean isEmpty() {
+        return order.length == 0 || df[order[0]] == 0;
+    }
+
+    /**
+     *  Describes the plan, e.g. "fjord@2 (df 3) -> the@0 (df 9812)", where
+     *  the number after @ is the position of the term in the query.
+     */
+    public String toString() {
+        StringBuilder s = new StringBuilder();
+        for ( int i=0; i<order.length; i++ ) {
+            if ( i > 0 ) {
+                s.append( " -> " );
+            }
+            s.append( terms[order[i]] ).append( '@' ).append( order[i] ).append( " (df " ).append( df[order[i]] ).append( ')' );
+        }
+        return s.toString();
+    }
+}
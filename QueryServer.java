@@ -0,0 +1,268 @@
+/*
+ *   This file is part of the computer assignment for the
+ *   Information Retrieval course at KTH.
+ *
+ *   Johan Boye, 2017
+ */
+
+package ir;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+
+/**
+ *   Answers queries over HTTP, with the searcher of the engine, so that the
+ *   engine can run without the GUI. Every request is handled on a thread of
+ *   its own: a virtual thread when the JVM has them (Java 21), or else a
+ *   thread of a cached pool.
+ *
+ *   GET /search?q=query&type=ranked&ranking=tf_idf&norm=number_of_words&k=10
+ *
+ *      The type, ranking and norm are the names of a QueryType, RankingType
+ *      and NormalizationType, in any case, and the type may leave out
+ *      _QUERY. These are the defaults. At most k results are returned,
+ *      or all of them if k is 0. The answer is
+ *
+ *      {"total":2,"micros":153,"results":[{"docID":4,"name":"...","score":0.52},...]}
+ *
+ *      where total is the number of documents found by an unranked query,
+ *      before the cut at k. A ranked query only looks for the best k.
+ *
+ *   GET /stats
+ *
+ *      The number of queries answered and percentiles of their latency, in
+ *      microseconds, measured from the parsing of the request to the end
+ *      of the search:
+ *
+ *      {"count":1000,"p50":210,"p90":530,"p99":1900,"p999":4100,"max":5230,"cache":{...}}
+ *
+ *      with the counters of the result cache of the engine, if it has one.
+ *
+ *   Malformed requests are answered with status 400 and {"error":"..."}.
+ *
+ *   There is no authentication, so by default the server only answers on
+ *   the loopback interface. Binding to another address must be asked for.
+ */
+public class QueryServer {
+
+    /** The number of results returned when no k is given. */
+    public static final int DEFAULT_K = 10;
+
+    private final Engine engine;
+    private final HttpServer server;
+    private final ExecutorService executor;
+
+    /** The latencies of the queries answered. */
+    final LatencyHistogram latencies = new LatencyHistogram();
+
+
+    /**
+     *  Creates a server for the engine on the given port of the loopback
+     *  interface. It answers nothing until it is started.
+     */
+    public QueryServer( Engine engine, int port ) throws IOException {
+        this( engine, InetAddress.getLoopbackAddress(), port );
+    }
+
+    /**
+     *  Creates a server for the engine on the given address and port. It
+     *  answers nothing until it is started.
+     *
+     *  @param address The address to answer on; the wildcard address answers on all interfaces
+     */
+    public QueryServer( Engine engine, InetAddress address, int port ) throws IOException {
+        this.engine = engine;
+        server = HttpServer.create( new InetSocketAddress( address, port ), 0 );
+        executor = newExecutor();
+        server.setExecutor( executor );
+        server.createContext( "/search", this::handleSearch );
+        server.createContext( "/stats", this::handleStats );
+    }
+
+    /**
+     *  An executor starting a virtual thread per request if the JVM has
+     *  them, looked up by reflection so the code still runs on Java 17.
+     */
+    private static ExecutorService newExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod( "newVirtualThreadPerTaskExecutor" ).invoke( null );
+        } catch ( ReflectiveOperationException e ) {
+            return Executors.newCachedThreadPool();
+        }
+    }
+
+
+    public void start() {
+        server.start();
+    }
+
+    /** Stops answering, waiting at most the given number of seconds for queries being answered. */
+    public void stop( int seconds ) {
+        server.stop( seconds );
+        executor.shutdown();
+    }
+
+    /** The port the server listens on. */
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+
+    /* ----------------------------------------------- */
+
+
+    private void handleSearch( HttpExchange exchange ) throws IOException {
+        try {
+            long startTime = System.nanoTime();
+            HashMap<String,String> params = parseParams( exchange.getRequestURI().getRawQuery() );
+            String queryString = params.get( "q" );
+            if ( queryString == null || queryString.trim().isEmpty() ) {
+                throw new IllegalArgumentException( "No query given, use q=..." );
+            }
+            QueryType queryType = parseQueryType( params.getOrDefault( "type", "ranked" ));
+            RankingType rankingType = RankingType.valueOf( params.getOrDefault( "ranking", "tf_idf" ).toUpperCase() );
+            NormalizationType normType = NormalizationType.valueOf( params.getOrDefault( "norm", "number_of_words" ).toUpperCase() );
+            int k = Integer.parseInt( params.getOrDefault( "k", String.valueOf( DEFAULT_K )));
+            if ( k < 0 ) {
+                throw new IllegalArgumentException( "k must not be negative" );
+            }
+
+            // The searcher is read once, so the names come from the index that was searched
+            Searcher searcher = engine.searcher;
+            PostingsList results = searcher.search( new Query( queryString.toLowerCase().trim() ), queryType, rankingType, normType, k );
+            long micros = (System.nanoTime() - startTime) / 1000;
+            latencies.record( micros );
+
+            DocumentStore documents = searcher.getIndex().getDocumentStore();
+            int total = results == null ? 0 : results.size();
+            int shown = k == 0 ? total : Math.min( k, total );
+            StringBuilder json = new StringBuilder();
+            json.append( "{\"total\":" ).append( total ).append( ",\"micros\":" ).append( micros ).append( ",\"results\":[" );
+            for ( int i=0; i<shown; i++ ) {
+                PostingsEntry e = results.get( i );
+                if ( i > 0 ) {
+                    json.append( ',' );
+                }
+                json.append( "{\"docID\":" ).append( e.docID );
+                json.append( ",\"name\":" );
+                appendString( json, documents.name( e.docID ));
+                if ( queryType == QueryType.RANKED_QUERY ) {
+                    json.append( ",\"score\":" ).append( Double.isFinite( e.score ) ? String.valueOf( e.score ) : "null" );
+                }
+                json.append( '}' );
+            }
+            json.append( "]}" );
+            respond( exchange, 200, json.toString() );
+        } catch ( IllegalArgumentException e ) {
+            respond( exchange, 400, error( e.getMessage() ));
+        } catch ( RuntimeException e ) {
+            e.printStackTrace();
+            respond( exchange, 500, error( e.toString() ));
+        }
+    }
+
+    private void handleStats( HttpExchange exchange ) throws IOException {
+        String json = "{\"count\":" + latencies.count() +
+            ",\"p50\":" + latencies.percentile( 0.5 ) +
+            ",\"p90\":" + latencies.percentile( 0.9 ) +
+            ",\"p99\":" + latencies.percentile( 0.99 ) +
+            ",\"p999\":" + latencies.percentile( 0.999 ) +
+            ",\"max\":" + latencies.max() +
+            ",\"cache\":" + (engine.cache == null ? "null" : engine.cache.toString()) + "}";
+        respond( exchange, 200, json );
+    }
+
+
+    /* ----------------------------------------------- */
+
+
+    /** A query type by name, with or without _QUERY. */
+    static QueryType parseQueryType( String name ) {
+        String upper = name.toUpperCase();
+        try {
+            return QueryType.valueOf( upper );
+        } catch ( IllegalArgumentException e ) {
+            return QueryType.valueOf( upper + "_QUERY" );
+        }
+    }
+
+    /** The parameters of a raw query string, decoded. */
+    static HashMap<String,String> parseParams( String rawQuery ) {
+        HashMap<String,String> params = new HashMap<String,String>();
+        if ( rawQuery == null ) {
+            return params;
+        }
+        for ( String pair : rawQuery.split( "&" )) {
+            int eq = pair.indexOf( '=' );
+            if ( eq < 0 ) {
+                params.put( URLDecoder.decode( pair, StandardCharsets.UTF_8 ), "" );
+            } else {
+                params.put( URLDecoder.decode( pair.substring( 0, eq ), StandardCharsets.UTF_8 ),
+                            URLDecoder.decode( pair.substring( eq+1 ), StandardCharsets.UTF_8 ));
+            }
+        }
+        return params;
+    }
+
+    private static String error( String message ) {
+        StringBuilder json = new StringBuilder( "{\"error\":" );
+        appendString( json, String.valueOf( message ));
+        return json.append( '}' ).toString();
+    }
+
+    /** Appends a string as a JSON string literal. */
+    static void appendString( StringBuilder json, String s ) {
+        if ( s == null ) {
+            json.append( "null" );
+            return;
+        }
+        json.append( '"' );
+        for ( int i=0; i<s.length(); i++ ) {
+            char c = s.charAt( i );
+            switch ( c ) {
+            case '"':
+                json.append( "\\\"" );
+                break;
+            case '\\':
+                json.append( "\\\\" );
+                break;
+            case '\n':
+                json.append( "\\n" );
+                break;
+            case '\r':
+                json.append( "\\r" );
+                break;
+            case '\t':
+                json.append( "\\t" );
+                break;
+            default:
+                if ( c < 0x20 ) {
+                    json.append( String.format( "\\u%04x", (int) c ));
+                } else {
+                    json.append( c );
+                }
+            }
+        }
+        json.append( '"' );
+    }
+
+    private static void respond( HttpExchange exchange, int status, String json ) throws IOException {
+        byte[] body = json.getBytes( StandardCharsets.UTF_8 );
+        exchange.getResponseHeaders().set( "Content-Type", "application/json; charset=utf-8" );
+        exchange.sendResponseHeaders( status, body.length );
+        try ( OutputStream out = exchange.getResponseBody() ) {
+            out.write( body );
+        }
+    }
+}
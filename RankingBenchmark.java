@@ -0,0 +1,213 @@
+/*
+ *   This file is part of the computer assignment for the
+ *   Information Retrieval course at KTH.
+ *
+ *   Johan Boye, 2017
+ */
+
+package ir;
+
+import java.lang.management.ManagementFactory;
+import java.util.*;
+
+
+/**
+ *   Measures the throughput and the allocation of ranked tf-idf queries of
+ *   1, 2, 3 and 5 words, taken at random from the text of the documents.
+ *
+ *   The full rankings of the Searcher, which adds up the scores term at a
+ *   time in an accumulator, are compared with merging scored copies of the
+ *   lists pairwise, as mergeSearch does. The top 10 of the Searcher are
+ *   timed as well.
+ *
+ *   Usage: RankingBenchmark -d dir [-q queries] [-r runs]
+ */
+public class RankingBenchmark {
+
+    /** The query lengths measured. */
+    static final int[] LENGTHS = { 1, 2, 3, 5 };
+
+    String dir = null;
+    int nbQueries = 2000;
+    int runs = 5;
+
+    /** The tokens of each document. */
+    String[][] docs;
+
+    /** Counts the bytes allocated by the current thread, if the JVM can. */
+    final com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+
+    /**
+     *  Picks queries of the given length, every word from a random place in
+     *  a random document.
+     */
+    List<String> makeQueries( int length, Random random ) {
+        ArrayList<String> queries = new ArrayList<String>();
+        while ( queries.size() < nbQueries ) {
+            String[] words = new String[length];
+            int w = 0;
+            while ( w < length ) {
+                String[] tokens = docs[random.nextInt( docs.length )];
+                if ( tokens.length > 0 ) {
+                    words[w++] = tokens[random.nextInt( tokens.length )];
+                }
+            }
+            queries.add( String.join( " ", words ));
+        }
+        return queries;
+    }
+
+
+    /**
+     *  Ranks the documents on tf-idf, with lengths in words, the way it was
+     *  done before accumulators: every list is scored into new postings, and
+     *  the scored lists are merged pairwise into a new union.
+     */
+    static PostingsList mergeSearch( Index index, Query query ) {
+        int[] lengths = index.getDocumentStore().lengths();
+        PostingsList result = null;
+        for ( Query.QueryTerm term : query.queryterm ) {
+            PostingsList list = index.getPostings( term.term );
+            if ( list == null ) {
+                continue;
+            }
+            double idf = index.getIdf( term.term );
+            PostingsList scored = new PostingsList( list.size() );
+            for ( int i=0; i<list.size(); i++ ) {
+                PostingsEntry e = new PostingsEntry();
+                e.docID = list.getDocID( i );
+                e.score = ((float) list.get( i ).offsetCount())*((float) idf)/(double) lengths[e.docID];
+                scored.append( e );
+            }
+            result = result == null ? scored : union( result, scored );
+        }
+        if ( result == null ) {
+            return new PostingsList();
+        }
+        Collections.sort( result.getList() );
+        return result;
+    }
+
+    /** The union of two scored lists, adding up the scores of the documents in both. */
+    static PostingsList union( PostingsList a, PostingsList b ) {
+        PostingsList result = new PostingsList();
+        int i = 0, j = 0;
+        while ( i < a.size() || j < b.size() ) {
+            int id1 = i < a.size() ? a.getDocID( i ) : Integer.MAX_VALUE;
+            int id2 = j < b.size() ? b.getDocID( j ) : Integer.MAX_VALUE;
+            PostingsEntry e = new PostingsEntry();
+            if ( id1 == id2 ) {
+                e.docID = id1;
+                e.score = a.get( i++ ).score + b.get( j++ ).score;
+            } else if ( id1 < id2 ) {
+                e.docID = id1;
+                e.score = a.get( i++ ).score;
+            } else {
+                e.docID = id2;
+                e.score = b.get( j++ ).score;
+            }
+            result.append( e );
+        }
+        return result;
+    }
+
+    /** Returns true if both rankings hold the same documents and scores, in the same order. */
+    static boolean same( PostingsList a, PostingsList b ) {
+        if ( a.size() != b.size() ) {
+            return false;
+        }
+        for ( int i=0; i<a.size(); i++ ) {
+            if ( a.getDocID( i ) != b.getDocID( i ) || a.get( i ).score != b.get( i ).score ) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+
+    /** A way of evaluating a query. */
+    interface Evaluator {
+        PostingsList evaluate( Query query );
+    }
+
+    /**
+     *  Runs the queries, and prints the best time and the allocation per query.
+     */
+    void time( String name, List<Query> queries, Evaluator evaluator ) {
+        long best = Long.MAX_VALUE;
+        long bestBytes = Long.MAX_VALUE;
+        long results = 0;
+        for ( int r=0; r<runs; r++ ) {
+            results = 0;
+            long b0 = threads.getCurrentThreadAllocatedBytes();
+            long t0 = System.nanoTime();
+            for ( Query q : queries ) {
+                results += evaluator.evaluate( q ).size();
+            }
+            long t1 = System.nanoTime();
+            long b1 = threads.getCurrentThreadAllocatedBytes();
+            best = Math.min( best, t1-t0 );
+            bestBytes = Math.min( bestBytes, b1-b0 );
+        }
+        System.out.println( String.format( "  %-22s %9.0f queries/s %10.1f us/query %10.0f bytes/query %10.0f results/query",
+                name, queries.size()/(best/1e9), best/1e3/queries.size(), bestBytes/(double) queries.size(), results/(double) queries.size() ));
+    }
+
+
+    void run() throws Exception {
+        docs = BenchmarkCorpus.read( dir );
+        HashedIndex index = new HashedIndex();
+        for ( int d=0; d<docs.length; d++ ) {
+            for ( int i=0; i<docs[d].length; i++ ) {
+                index.insert( docs[d][i], d, i );
+            }
+            index.getDocumentStore().add( d, "doc" + d, docs[d].length );
+        }
+        index.cleanup();
+        Searcher searcher = new Searcher( index, null, null );
+        System.out.println( docs.length + " documents, " + nbQueries + " queries per length, best of " + runs + " runs" );
+
+        Random random = new Random( 42 );
+        for ( int length : LENGTHS ) {
+            ArrayList<Query> queries = new ArrayList<Query>();
+            for ( String q : makeQueries( length, random )) {
+                queries.add( new Query( q ));
+            }
+            int mismatches = 0;
+            for ( Query q : queries ) {
+                if ( !same( mergeSearch( index, q ), searcher.search( q, QueryType.RANKED_QUERY, RankingType.TF_IDF, NormalizationType.NUMBER_OF_WORDS ))) {
+                    mismatches++;
+                }
+            }
+            System.out.println( length + "-word queries (" + mismatches + " mismatches with the pairwise merge):" );
+            time( "pairwise merge", queries, q -> mergeSearch( index, q ));
+            time( "term at a time", queries, q -> searcher.search( q, QueryType.RANKED_QUERY, RankingType.TF_IDF, NormalizationType.NUMBER_OF_WORDS ));
+            time( "top 10", queries, q -> searcher.search( q, QueryType.RANKED_QUERY, RankingType.TF_IDF, NormalizationType.NUMBER_OF_WORDS, 10 ));
+        }
+    }
+
+
+    public static void main( String[] args ) throws Exception {
+        RankingBenchmark b = new RankingBenchmark();
+        int i=0;
+        while ( i < args.length ) {
+            if ( "-d".equals( args[i] ) && i+1 < args.length ) {
+                b.dir = args[i+1];
+            } else if ( "-q".equals( args[i] ) && i+1 < args.length ) {
+                b.nbQueries = Integer.parseInt( args[i+1] );
+            } else if ( "-r".equals( args[i] ) && i+1 < args.length ) {
+                b.runs = Integer.parseInt( args[i+1] );
+            } else {
+                System.err.println( "Unknown argument: " + args[i] );
+                return;
+            }
+            i += 2;
+        }
+        if ( b.dir == null ) {
+            System.err.println( "Usage: RankingBenchmark -d dir [-q queries] [-r runs]" );
+            return;
+        }
+        b.run();
+    }
+}
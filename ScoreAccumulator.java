@@ -0,0 +1,236 @@
+/*
+ *   This file is part of the computer assignment for the
+ *   Information Retrieval course at KTH.
+ *
+ *   Johan Boye, 2017
+ */
+
+package ir;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+/**
+ *   Adds up the scores of the documents of a ranked query, one term at a
+ *   time, in primitive arrays. A document has a score from the first time
+ *   it is added to, even if the score is 0.
+ *
+ *   The dense accumulator is an array indexed by docID. A query borrows
+ *   one from a small pool, and gives it back cleared with release, so a
+ *   query only allocates when the index grows or more queries run at once
+ *   than the pool holds. The pool is not tied to threads, so it also
+ *   serves a server that runs every request on a thread of its own. The sparse accumulator is an open-addressed hash table sized for
+ *   the postings of the query. It is used by queries so selective that the
+ *   table is a small fraction of the array, and stays in the cache.
+ *
+ *   The documents can be visited in the order they were first added, or in
+ *   docID order once sortByDocID is called.
+ */
+public abstract class ScoreAccumulator {
+
+    /**
+     *  Queries with fewer postings than the number of documents divided by
+     *  this get a sparse accumulator.
+     */
+    public static final int SPARSE_RATIO = 64;
+
+    /** The most dense accumulators kept for reuse. */
+    static final int POOL_SIZE = Math.max( 2, Runtime.getRuntime().availableProcessors() );
+
+    /** The dense accumulators not in use, all cleared, and their number. */
+    private static final ConcurrentLinkedQueue<Dense> POOL = new ConcurrentLinkedQueue<Dense>();
+    private static final AtomicInteger pooled = new AtomicInteger();
+
+
+    /**
+     *  Returns an empty accumulator for a query. It must be given back with
+     *  release when the query is done with it, also if the query fails.
+     *
+     *  @param N The number of documents
+     *  @param capacity One more than the largest docID; every docID must be below it.
+     *                  It is larger than N when some docIDs have no document.
+     *  @param postings The number of postings of the query, an upper bound of the documents added
+     */
+    public static ScoreAccumulator create( int N, int capacity, long postings ) {
+        if ( postings < N / SPARSE_RATIO ) {
+            return new Sparse( (int) postings );
+        }
+        Dense dense = POOL.poll();
+        if ( dense != null ) {
+            pooled.decrementAndGet();
+            if ( dense.scores.length >= capacity ) {
+                return dense;
+            }
+            // The index has grown, so the accumulator is dropped
+        }
+        return new Dense( capacity );
+    }
+
+    /**
+     *  Gives back an accumulator from create. It must not be used after this.
+     */
+    public void release() {
+    }
+
+
+    /** Adds to the score of a document. */
+    public abstract void add( int docID, double score );
+
+    /** The number of documents with a score. */
+    public abstract int size();
+
+    /** The docID of the ith document. */
+    public abstract int docID( int i );
+
+    /** The score of the ith document. */
+    public abstract double score( int i );
+
+    /** Puts the documents in docID order. No scores can be added after this. */
+    public abstract void sortByDocID();
+
+
+    /**
+     *  An accumulator indexed by docID.
+     */
+    static final class Dense extends ScoreAccumulator {
+
+        final double[] scores;
+        final boolean[] present;
+
+        /** The docIDs added to, in the order they were first added. */
+        int[] docIDs = new int[64];
+        int size = 0;
+
+        Dense( int N ) {
+            scores = new double[N];
+            present = new boolean[N];
+        }
+
+        /** Resets the documents added since the last clear. */
+        void clear() {
+            for ( int i=0; i<size; i++ ) {
+                scores[docIDs[i]] = 0;
+                present[docIDs[i]] = false;
+            }
+            size = 0;
+        }
+
+        /** Clears the accumulator, and puts it in the pool unless the pool is full. */
+        public void release() {
+            if ( pooled.incrementAndGet() > POOL_SIZE ) {
+                pooled.decrementAndGet();
+                return;
+            }
+            clear();
+            POOL.offer( this );
+        }
+
+        public void add( int docID, double score ) {
+            if ( !present[docID] ) {
+                present[docID] = true;
+                if ( size == docIDs.length ) {
+                    docIDs = Arrays.copyOf( docIDs, 2*size );
+                }
+                docIDs[size++] = docID;
+            }
+            scores[docID] += score;
+        }
+
+        public int size() {
+            return size;
+        }
+
+        public int docID( int i ) {
+            return docIDs[i];
+        }
+
+        public double score( int i ) {
+            return scores[docIDs[i]];
+        }
+
+        public void sortByDocID() {
+            if ( size < present.length / 16 ) {
+                Arrays.sort( docIDs, 0, size );
+                return;
+            }
+            // Many documents, so reading them off the array in order is faster than sorting
+            int i = 0;
+            for ( int d=0; i<size; d++ ) {
+                if ( present[d] ) {
+                    docIDs[i++] = d;
+                }
+            }
+        }
+    }
+
+
+    /**
+     *  An open-addressed hash table from docID to score, with linear probing.
+     */
+    static final class Sparse extends ScoreAccumulator {
+
+        /** The docID in each slot, or -1 if the slot is empty. */
+        final int[] keys;
+        final double[] values;
+        final int mask;
+
+        /** The hash of a docID is the top bits of its product with a constant. */
+        final int shift;
+
+        /** The slots in use, in the order they were filled. */
+        int[] slots;
+        int size = 0;
+
+        Sparse( int postings ) {
+            int capacity = Integer.highestOneBit( Math.max( 4, 2*postings - 1 )) << 1;
+            keys = new int[capacity];
+            values = new double[capacity];
+            mask = capacity - 1;
+            shift = Integer.numberOfLeadingZeros( capacity ) + 1;
+            slots = new int[Math.max( 1, postings )];
+            Arrays.fill( keys, -1 );
+        }
+
+        public void add( int docID, double score ) {
+            int slot = (docID * 0x9E3779B9) >>> shift;
+            while ( keys[slot] != docID ) {
+                if ( keys[slot] == -1 ) {
+                    keys[slot] = docID;
+                    if ( size == slots.length ) {
+                        slots = Arrays.copyOf( slots, 2*size );
+                    }
+                    slots[size++] = slot;
+                    break;
+                }
+                slot = (slot + 1) & mask;
+            }
+            values[slot] += score;
+        }
+
+        public int size() {
+            return size;
+        }
+
+        public int docID( int i ) {
+            return keys[slots[i]];
+        }
+
+        public double score( int i ) {
+            return values[slots[i]];
+        }
+
+        public void sortByDocID() {
+            // Sort the slots on their docIDs, packed together in longs
+            long[] packed = new long[size];
+            for ( int i=0; i<size; i++ ) {
+                packed[i] = ((long) keys[slots[i]] << 32) | slots[i];
+            }
+            Arrays.sort( packed );
+            for ( int i=0; i<size; i++ ) {
+                slots[i] = (int) packed[i];
+            }
+        }
+    }
+}
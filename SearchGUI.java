@@ -32,6 +32,9 @@ public class SearchGUI extends JFrame {
     /**  The results of a search query. */
     private PostingsList results;
 
+    /**  The documents of the index the results come from. */
+    private DocumentStore resultDocuments;
+
     /**  The query type (either intersection, phrase, or ranked). */
     QueryType queryType = QueryType.INTERSECTION_QUERY;
 
@@ -70,6 +73,7 @@ public class SearchGUI extends JFrame {
     JRadioButtonMenuItem intersectionItem = new JRadioButtonMenuItem( "Intersection query" );
     JRadioButtonMenuItem phraseItem = new JRadioButtonMenuItem( "Phrase query" );
     JRadioButtonMenuItem rankedItem = new JRadioButtonMenuItem( "Ranked retrieval" );
+    JRadioButtonMenuItem proximityItem = new JRadioButtonMenuItem( "Proximity query (NEAR/k)" );
     JRadioButtonMenuItem tfidfItem = new JRadioButtonMenuItem( "tf-idf" );
     JRadioButtonMenuItem pagerankItem = new JRadioButtonMenuItem( "PageRank" );
     JRadioButtonMenuItem HITSItem = new JRadioButtonMenuItem( "HITS" );
@@ -113,6 +117,7 @@ public class SearchGUI extends JFrame {
         optionsMenu.add( intersectionItem );
         optionsMenu.add( phraseItem );
         optionsMenu.add( rankedItem );
+        optionsMenu.add( proximityItem );
         rankingMenu.add( tfidfItem );
         rankingMenu.add( pagerankItem );
         rankingMenu.add( combinationItem );
@@ -122,6 +127,7 @@ public class SearchGUI extends JFrame {
         queries.add( intersectionItem );
         queries.add( phraseItem );
         queries.add( rankedItem );
+        queries.add( proximityItem );
         ranking.add( tfidfItem );
         ranking.add( pagerankItem );
         ranking.add( combinationItem );
@@ -173,13 +179,13 @@ public class SearchGUI extends JFrame {
                     }
                     query.relevanceFeedback( results, relevant, engine );
                 }
-                // Search and print results. Access to the index is synchronized since
-                // we don't want to search at the same time we're indexing new files
-                // (this might corrupt the index).
+                // Search and print results. The searcher is read once, so the results
+                // and the names shown come from the same index, even if indexing
+                // publishes a new one meanwhile.
                 long startTime = System.currentTimeMillis();
-                synchronized ( engine.indexLock ) {
-                    results = engine.searcher.search( query, queryType, rankingType, normType );
-                }
+                Searcher searcher = engine.searcher;
+                results = searcher.search( query, queryType, rankingType, normType );
+                resultDocuments = searcher.getIndex().getDocumentStore();
                 long elapsedTime = System.currentTimeMillis() - startTime;
                 // Display the first few results + a button to see all results.
                 //
@@ -244,6 +250,13 @@ public class SearchGUI extends JFrame {
             };
         rankedItem.addActionListener( setRankedQuery );
 
+        Action setProximityQuery = new AbstractAction() {
+            public void actionPerformed( ActionEvent e ) {
+                queryType = QueryType.PROXIMITY_QUERY;
+            }
+            };
+        proximityItem.addActionListener( setProximityQuery );
+
         Action setTfidfRanking = new AbstractAction() {
             public void actionPerformed( ActionEvent e ) {
                 rankingType = RankingType.TF_IDF;
@@ -315,7 +328,7 @@ public class SearchGUI extends JFrame {
         box = new JCheckBox[maxResultsToDisplay];
         int i;
         for ( i=0; i<results.size() && i<maxResultsToDisplay; i++ ) {
-            String description = i + ". " + displayableFileName( engine.index.docNames.get( results.get(i).docID ));
+            String description = i + ". " + displayableFileName( resultDocuments.name( results.get(i).docID ));
             if ( queryType == QueryType.RANKED_QUERY ) {
                 description += "   " + String.format( "%.5f", results.get(i).score );
             }
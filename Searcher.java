@@ -15,6 +15,7 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Comparator;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
@@ -24,14 +25,21 @@ import ir.Query.QueryTerm;
 
 /**
  *  Searches an index for results of a query.
+ *
+ *  A searcher only reads the index, and keeps the state of a query in the
+ *  query's own objects, so any number of threads may search at once. The
+ *  index must not change while it is searched: an index being built is
+ *  searched through a new Searcher once it is complete (see Engine.publish).
+ *  The PageRank scores are set up by initPageRankVector, which must be
+ *  called before the searcher is shared.
  */
 public class Searcher {
 
     /** The index to be searched by this Searcher. */
-    Index index;
+    final Index index;
 
     /** The k-gram index to be searched by this Searcher */
-    KGramIndex kgIndex;
+    final KGramIndex kgIndex;
     
     /** Mapping from docIDs to docScores */
     public HashMap<Integer, Double> pageRankVector = new HashMap<Integer,Double>();
@@ -40,7 +48,36 @@ public class Searcher {
 	private HashMap<String, Double> pageRankScores = new HashMap<String, Double>();
 
     /** HITSRanker for resuse of code */
-	private HITSRanker hitsRanker;;
+	private final HITSRanker hitsRanker;
+
+    /** If true, the plans of intersection and phrase queries are printed */
+	public boolean debug = false;
+
+    /** The cache of the results of ranked queries, or null. Set before the searcher is shared */
+	QueryCache cache = null;
+
+    /** The PageRank scores indexed by docID, as in pageRankVector */
+	private double[] pageRank = new double[0];
+
+    /** The largest PageRank score, or NaN before initPageRankVector is called */
+	private double maxPageRank = Double.NaN;
+
+    /** Weights of the tf-idf and the PageRank scores in the COMBINATION ranking */
+	private static final double W_TFIDF = 1;
+	private static final double W_PAGERANK = 100;
+
+    /**
+     * The relative margin added to the upper bounds of dynamic pruning, which
+     * covers the rounding of the scores and of their sums
+     */
+	private static final double BOUND_MARGIN = 1e-6;
+
+    /**
+     * The largest top-k TF_IDF query that is read in impact order. Every new
+     * document costs a search in the list of every term, so longer queries
+     * are faster with MaxScore
+     */
+	private static final int IMPACT_MAX_TERMS = 2;
     
     /**
      * Constructs the Searcher object and reads the PageRank result from disk
@@ -56,6 +93,13 @@ public class Searcher {
         readPageRank("PageRankResult.txt");
     }
     
+    /**
+     * The index searched by this searcher, to look up the documents of its results
+     */
+    public Index getIndex() {
+    	return index;
+    }
+    
     /**
      * Reads the PageRank result from disk
      *
@@ -86,15 +130,29 @@ public class Searcher {
      *
      */
     public void initPageRankVector() {
-    	for (Entry<Integer, String> e : index.docNames.entrySet()) {
-    		int docID = e.getKey();
-    		String docName = HITSRanker.getFileName(e.getValue());
+    	DocumentStore documents = index.getDocumentStore();
+    	for (int docID = 0; docID < documents.capacity(); docID++) {
+    		if (!documents.contains(docID))
+    			continue;
+    		String docName = HITSRanker.getFileName(documents.name(docID));
     		double docScore = 0.0;
     		if (pageRankScores.get(docName)!=null){
     			docScore = pageRankScores.get(docName);
     		}
     		pageRankVector.put(docID, docScore);
     	}
+    	int size = documents.capacity();
+    	for (int docID : pageRankVector.keySet()) {
+    		size = Math.max(size, docID + 1);
+    	}
+    	double[] scores = new double[size];
+    	double max = 0;
+    	for (Map.Entry<Integer,Double> e : pageRankVector.entrySet()) {
+    		scores[e.getKey()] = e.getValue();
+    		max = Math.max(max, e.getValue());
+    	}
+    	pageRank = scores;
+    	maxPageRank = max;
     }
     
     
@@ -119,14 +177,33 @@ public class Searcher {
      *  @return A postings list representing the result of the query.
      */
     public PostingsList search( Query query, QueryType queryType, RankingType rankingType, NormalizationType normType ) { 
+    	return search( query, queryType, rankingType, normType, 0 );
+    }
+
+    /**
+     *  Searches the index for postings matching the query. Ranked queries
+     *  only return the k best postings, sorted on score. Their results are
+     *  looked up in the cache first, if there is one.
+     *
+     *  @param k 	The number of results of a ranked query, or 0 for all of them
+     *  @return A postings list representing the result of the query.
+     */
+    public PostingsList search( Query query, QueryType queryType, RankingType rankingType, NormalizationType normType, int k ) { 
     	ArrayList<QueryTerm> term = query.queryterm;
-		if (queryType==queryType.INTERSECTION_QUERY || queryType==queryType.PHRASE_QUERY) {
+		if (queryType==queryType.INTERSECTION_QUERY || queryType==queryType.PHRASE_QUERY || queryType==QueryType.PROXIMITY_QUERY) {
 			return unRankedsearch(term, query,queryType );
 		}
-		else {
-			return rankedsearch(term, query,rankingType,normType );
+		else if (cache == null) {
+			return rankedsearch(term, query,rankingType,normType, k );
 		}
-
+		String key = QueryCache.key(query, queryType, rankingType, normType, k);
+		PostingsList cached = cache.get(index, key);
+		if (cached != null) {
+			return cached;
+		}
+		PostingsList result = rankedsearch(term, query,rankingType,normType, k );
+		cache.put(index, key, result);
+		return result;
     }
     
     /**
@@ -136,209 +213,563 @@ public class Searcher {
      * @param query			The query
      * @param rankingType 	The ranking type selected
      * @param normType		Euclidean or Manhattan
+     * @param k 			The number of results to return, or 0 for all of them
      * 
      * @return 				PostingsList sorted on score
      *
      */
-	private PostingsList rankedsearch(ArrayList<QueryTerm> term, Query query , RankingType rankingType, NormalizationType normType) {
-		PostingsList result = new PostingsList();
-    	int N = Index.docNames.size();
-    	int i = 0;
-		while(i<term.size()) {
-			String token = term.get(i).term;
-			PostingsList pList = index.getPostings(token);
-	    	LinkedList<PostingsEntry> eList = pList.getList();
-	    		for (PostingsEntry e : eList){
-		        	switch(rankingType) {
-						case TF_IDF:
-				    		// tf = how many times the term appears in the doc
-				    		int tf = e.offsetList.size();
-				    		Double docLength;
-				    		if (normType == NormalizationType.EUCLIDEAN) {
-				    			docLength = index.euclidDocLengths.get(e.docID);
-				    		}
-				    		else {
-					    		docLength = (double) index.docLengths.get(e.docID);
-				    		}
-	
-				    		float frac = ((float) N)/((float)eList.size());
-				    		float idf = (float) Math.log(frac);
-				    		
-						
-				    		// multiply tf by idf gives weight for term
-				    		e.score = ((float) tf)*idf/docLength;
-				    		
-				    		if (e.score >Double.MAX_VALUE) {
-				    			System.out.println(docLength);
-				    			System.out.println(index.docNames.get(e.docID));
-				    			
-				    		}
-				    		// for task 2.3
-				    		// e.score = idf;
-				    		// System.out.println("N" + N);
-				    		// System.out.println("eList.size()"+eList.size());
-				    		// System.out.println("frac"+frac);
-				    		break;
-						case PAGERANK:
-							e.score = pageRankVector.get(e.docID);
-							break;
-						case COMBINATION:
-							double w1 = 1;
-							double w2 = 100;
-				    		int tfc = e.offsetList.size();
-				    		Double docLengthc;
-				    		if (normType == NormalizationType.EUCLIDEAN) {
-				    			docLengthc = index.euclidDocLengths.get(e.docID);
-				    		}
-				    		else {
-					    		docLengthc = (double) Index.docLengths.get(e.docID);
-				    		}
-				    		float fracc = (float) N/eList.size();
-				    		double idfc = Math.log(fracc);
-				    		e.score = w1*tfc*idfc/docLengthc+w2*pageRankVector.get(e.docID);
-				    		break;
-						case HITS: // first take union to get root set, then calc scores
-							break;
-		        	}
-		    	}
-	    	if (i==0) {
-	    		result = (PostingsList) pList;
-	    	}
-	    	else{
-		    	result = rankedmMerge(result,pList);
-	    	}
-
-		i++;
+	private PostingsList rankedsearch(ArrayList<QueryTerm> term, Query query , RankingType rankingType, NormalizationType normType, int k) {
+		DocumentStore documents = index.getDocumentStore();
+    	// Read the lengths by docID straight from the arrays of the store
+    	int[] docLengths = documents.lengths();
+    	double[] euclidDocLengths = documents.euclideanLengths();
+    	double[] pr = pageRank;
+    	if (k > 0 && rankingType == RankingType.TF_IDF && term.size() <= IMPACT_MAX_TERMS) {
+    		PostingsList early = impactSearch(term, normType, k);
+    		if (early != null) {
+    			return early;
+    		}
+    	}
+    	if (k > 0 && term.size() > 1 && rankingType != RankingType.HITS) {
+    		PostingsList pruned = maxScoreSearch(term, rankingType, normType, k);
+    		if (pruned != null) {
+    			return pruned;
+    		}
+    	}
+    	// Score term at a time into an accumulator, and only make postings of the results
+    	PostingsList[] lists = new PostingsList[term.size()];
+    	long postings = 0;
+		for (int i = 0; i < term.size(); i++) {
+			lists[i] = index.getPostings(term.get(i).term);
+			postings += lists[i] == null ? 0 : lists[i].size();
+		}
+		ScoreAccumulator scores = ScoreAccumulator.create(documents.size(), documents.capacity(), postings);
+		PostingsList result;
+		try {
+			for (int i = 0; i < term.size(); i++) {
+				PostingsList pList = lists[i];
+				if (pList == null) {
+					continue;
+				}
+				double idf = index.getIdf(term.get(i).term);
+				for (int j = 0; j < pList.size(); j++) {
+					int docID = pList.getDocID(j);
+					double score = 0;
+					// HITS only takes the union as its root set, and scores it itself
+					if (rankingType != RankingType.HITS) {
+			    		double docLength = normType == NormalizationType.EUCLIDEAN ? euclidDocLengths[docID] : docLengths[docID];
+			    		double docPageRank = rankingType == RankingType.TF_IDF || docID >= pr.length ? 0 : pr[docID];
+			    		score = termScore(rankingType, pList.get(j).offsetCount(), idf, docLength, docPageRank);
+					}
+					scores.add(docID, score);
+				}
+			}
+			if (k > 0 && rankingType != RankingType.HITS) {
+				TopKHeap heap = new TopKHeap(k);
+				for (int i = 0; i < scores.size(); i++) {
+					heap.offer(scores.docID(i), scores.score(i));
+				}
+				heap.sort();
+				PostingsList top = new PostingsList(heap.size());
+				for (int i = 0; i < heap.size(); i++) {
+					PostingsEntry e = new PostingsEntry();
+					e.docID = heap.id(i);
+					e.score = heap.score(i);
+					top.append(e);
+				}
+				return top;
+			}
+			// The full ranking is a stable sort of the union in docID order
+			scores.sortByDocID();
+			result = new PostingsList(scores.size());
+			for (int i = 0; i < scores.size(); i++) {
+				PostingsEntry e = new PostingsEntry();
+				e.docID = scores.docID(i);
+				e.score = scores.score(i);
+				result.append(e);
+			}
+		} finally {
+			scores.release();
 		}
     	if (rankingType == rankingType.HITS) {
-    		result = hitsRanker.rank(result);
+    		result = hitsRanker.rank(result, documents);
+    	}
+    	if (k > 0) {
+    		return topK(result, k);
     	}
-    	PostingsList copy = new PostingsList();
-    	copy = result.getCopy();
-		java.util.Collections.sort(copy.getList());
-		return copy;
+		java.util.Collections.sort(result.getList());
+		return result;
 	}
 
     /**
-     * Merges two postingslists, taking the union and adding scores on matches
+     * The score a term gives a document. This is the only place where scores
+     * are computed, so that the exhaustive and the pruned search agree to the bit.
      * 
-     * @param pList1 		The first postingslist
-     * @param pList1 		The second postingslist
-     *
+     * @param rankingType 	TF_IDF, PAGERANK or COMBINATION
+     * @param tf 			How many times the term appears in the document
+     * @param idf 			The idf of the term
+     * @param docLength 	The length of the document, in words or Euclidean
+     * @param docPageRank 	The PageRank score of the document
      */
-	private PostingsList rankedmMerge(PostingsList pList1, PostingsList pList2) {
-		int ind1=0;
-		int ind2=0;
-		PostingsList result = new PostingsList();
-		while (ind1!=pList1.size() || ind2!=pList2.size()) {
-			int id1;
-			if (ind1 == pList1.size()) {
-				id1 = Integer.MAX_VALUE;
+	private static double termScore(RankingType rankingType, int tf, double idf, double docLength, double docPageRank) {
+		switch(rankingType) {
+			case TF_IDF:
+	    		// multiply tf by idf gives weight for term
+	    		return ((float) tf)*((float) idf)/docLength;
+			case PAGERANK:
+				return docPageRank;
+			case COMBINATION:
+	    		return W_TFIDF*tf*idf/docLength+W_PAGERANK*docPageRank;
+			default:
+				return 0;
+		}
+	}
+
+    /**
+     * The upper bound of the score a term gives any document, or NaN if it is
+     * not known. The bound is raised by BOUND_MARGIN to cover rounding.
+     * 
+     * @param maxTf 		The largest tf/docLength of the term, see Index.maxNormalizedTf
+     */
+	private double termBound(RankingType rankingType, double idf, double maxTf) {
+		double bound;
+		switch(rankingType) {
+			case TF_IDF:
+				bound = ((float) idf)*maxTf;
+				break;
+			case PAGERANK:
+				bound = maxPageRank;
+				break;
+			case COMBINATION:
+				bound = W_TFIDF*idf*maxTf + W_PAGERANK*maxPageRank;
+				break;
+			default:
+				return Double.NaN;
+		}
+		return bound*(1 + BOUND_MARGIN);
+	}
+
+    /**
+     * Computes the k best documents of a TF_IDF query from the postings of its
+     * terms in impact order, and returns the same ranking as the exhaustive
+     * search.
+     * 
+     * The impact-ordered lists are read together, always from the one whose
+     * next posting has the highest bound, and every new document is scored
+     * in full from the lists in docID order. A document not seen yet can at
+     * most score the sum of the bounds still ahead in the lists, so the
+     * search stops as soon as that sum is below the lowest score kept, which
+     * is often after a few postings of each list.
+     * 
+     * @param term 			The query terms
+     * @param normType		Euclidean or Manhattan
+     * @param k 			The number of results to return
+     * 
+     * @return 				PostingsList sorted on score, or null if the index has no
+     * 						impact-ordered postings for some term
+     */
+	private PostingsList impactSearch(ArrayList<QueryTerm> term, NormalizationType normType, int k) {
+		DocumentStore documents = index.getDocumentStore();
+		int[] docLengths = documents.lengths();
+		double[] euclidDocLengths = documents.euclideanLengths();
+		int n = term.size();
+		PostingsList[] lists = new PostingsList[n];
+		ImpactList[] impacts = new ImpactList[n];
+		double[] idf = new double[n];
+		for (int i = 0; i < n; i++) {
+			String token = term.get(i).term;
+			lists[i] = index.getPostings(token);
+			if (lists[i] == null) {
+				continue;
 			}
-			else {
-				id1 = pList1.get(ind1).docID;
+			impacts[i] = index.getImpactList(token, normType);
+			if (impacts[i] == null) {
+				return null;
 			}
-			int id2;
-			if (ind2 == pList2.size()) {
-				id2 = Integer.MAX_VALUE;
+			idf[i] = index.getIdf(token);
+		}
+
+		TopKHeap heap = new TopKHeap(k);
+		// The documents scored so far, one bit per docID
+		int maxDocID = 0;
+		for (int t = 0; t < n; t++) {
+			if (lists[t] != null && lists[t].size() > 0) {
+				maxDocID = Math.max(maxDocID, lists[t].getDocID(lists[t].size() - 1));
 			}
-			else {
-				id2 = pList2.get(ind2).docID;
+		}
+		long[] seen = new long[(maxDocID >>> 6) + 1];
+		int[] pos = new int[n];
+		while (true) {
+			// The best score of a document not seen yet, and the list to read next
+			double unseen = 0;
+			int next = -1;
+			double nextBound = -1;
+			for (int t = 0; t < n; t++) {
+				if (impacts[t] == null || pos[t] == impacts[t].size()) {
+					continue;
+				}
+				double bound = ((float) idf[t])*impacts[t].bound(pos[t]);
+				unseen += bound;
+				if (bound > nextBound) {
+					nextBound = bound;
+					next = t;
+				}
 			}
-			PostingsEntry mergedEntry = new PostingsEntry();
-			if (id1==id2) {
-				mergedEntry.score = pList1.get(ind1).score + pList2.get(ind2).score;
-				mergedEntry.docID = id1;
-				ind1++;
-				ind2++;
+			if (next < 0 || unseen*(1 + BOUND_MARGIN) < heap.threshold()) {
+				break;
 			}
-			else if(id1>id2) {
-				mergedEntry.score = pList2.get(ind2).score;
-				mergedEntry.docID = id2;
-				ind2++;
+			if (unseen == 0) {
+				// Only terms with idf 0 are left, so every document not seen yet scores
+				// exactly 0, and ties are ranked on docID
+				offerUnseen(lists, pos, impacts, seen, heap, k);
+				break;
 			}
-			else {
-				mergedEntry.score = pList1.get(ind1).score;
-				mergedEntry.docID = id1;
-				ind1++;
-			}	
-			result.append(mergedEntry);
+			int docID = impacts[next].docID(pos[next]++);
+			if (!mark(seen, docID)) {
+				continue;
+			}
+			double docLength = normType == NormalizationType.EUCLIDEAN ? euclidDocLengths[docID] : docLengths[docID];
+			// Add up the scores in query order, as the exhaustive search does
+			double score = 0;
+			for (int t = 0; t < n; t++) {
+				if (lists[t] == null) {
+					continue;
+				}
+				int p = lists[t].seek(0, docID);
+				if (p < lists[t].size() && lists[t].getDocID(p) == docID) {
+					score += termScore(RankingType.TF_IDF, lists[t].get(p).offsetCount(), idf[t], docLength, 0);
+				}
+			}
+			heap.offer(docID, score);
+		}
+
+		heap.sort();
+		PostingsList result = new PostingsList(heap.size());
+		for (int i = 0; i < heap.size(); i++) {
+			PostingsEntry e = new PostingsEntry();
+			e.docID = heap.id(i);
+			e.score = heap.score(i);
+			result.append(e);
+		}
+		return result;
+	}
+
+    /**
+     * Offers the documents not seen yet by impactSearch, with score 0, in
+     * docID order, until the heap is full. Only the lowest docIDs can get in
+     * on a tie, so the rest of the lists need not be read.
+     */
+	private void offerUnseen(PostingsList[] lists, int[] pos, ImpactList[] impacts, long[] seen, TopKHeap heap, int k) {
+		int n = lists.length;
+		// Cursors in docID order over the lists not read to the end
+		int[] cursor = new int[n];
+		for (int t = 0; t < n; t++) {
+			cursor[t] = impacts[t] == null || pos[t] == impacts[t].size() ? Integer.MAX_VALUE : 0;
+		}
+		int offered = 0;
+		while (offered < k) {
+			int docID = Integer.MAX_VALUE;
+			for (int t = 0; t < n; t++) {
+				if (cursor[t] < lists[t].size()) {
+					docID = Math.min(docID, lists[t].getDocID(cursor[t]));
+				}
+			}
+			if (docID == Integer.MAX_VALUE) {
+				return;
+			}
+			for (int t = 0; t < n; t++) {
+				if (cursor[t] < lists[t].size() && lists[t].getDocID(cursor[t]) == docID) {
+					cursor[t]++;
+				}
+			}
+			if (mark(seen, docID)) {
+				heap.offer(docID, 0);
+				offered++;
+			}
+		}
+	}
+
+    /**
+     * Sets the bit of a docID in a bitset.
+     * 
+     * @return true if the bit was not set before
+     */
+	private static boolean mark(long[] bits, int docID) {
+		long bit = 1L << docID;
+		if ((bits[docID >>> 6] & bit) != 0) {
+			return false;
+		}
+		bits[docID >>> 6] |= bit;
+		return true;
+	}
+
+    /**
+     * Computes the k best documents of a ranked query document at a time with
+     * MaxScore pruning, and returns the same ranking as the exhaustive search.
+     * 
+     * The query terms are ordered on the upper bound of their score. Once the
+     * heap holds k documents, the terms whose bounds add up to no more than
+     * the lowest score kept are non-essential: a document that only contains
+     * those terms cannot get in. Candidates are then only taken from the
+     * essential terms, and the non-essential lists are searched for a
+     * candidate only while its score could still beat the threshold.
+     * Documents are visited in docID order, so an equal score never replaces
+     * a document already kept, as with the stable sort of the full ranking.
+     * 
+     * @param term 			The query terms
+     * @param rankingType 	TF_IDF, PAGERANK or COMBINATION
+     * @param normType		Euclidean or Manhattan
+     * @param k 			The number of results to return
+     * 
+     * @return 				PostingsList sorted on score, or null if some bound is
+     * 						not known and the exhaustive search must be used
+     */
+	private PostingsList maxScoreSearch(ArrayList<QueryTerm> term, RankingType rankingType, NormalizationType normType, int k) {
+		DocumentStore documents = index.getDocumentStore();
+		int[] docLengths = documents.lengths();
+		double[] euclidDocLengths = documents.euclideanLengths();
+		double[] pr = pageRank;
+		int n = term.size();
+		PostingsList[] lists = new PostingsList[n];
+		double[] idf = new double[n];
+		double[] bound = new double[n];
+		Integer[] order = new Integer[n];
+		for (int i = 0; i < n; i++) {
+			String token = term.get(i).term;
+			lists[i] = index.getPostings(token);
+			order[i] = i;
+			if (lists[i] == null || lists[i].size() == 0) {
+				lists[i] = new PostingsList();
+				continue;
+			}
+			idf[i] = index.getIdf(token);
+			double maxTf = rankingType == RankingType.PAGERANK ? 0 : index.maxNormalizedTf(token, normType);
+			bound[i] = termBound(rankingType, idf[i], maxTf);
+			if (!(bound[i] >= 0) || Double.isInfinite(bound[i])) {
+				return null;
+			}
+		}
+		if (rankingType != RankingType.TF_IDF) {
+			// The PageRank scores must be known for every docID in the lists
+			for (PostingsList list : lists) {
+				if (list.size() > 0 && list.getDocID(list.size() - 1) >= pr.length) {
+					return null;
+				}
+			}
+		}
+		// Order the terms on their bounds, and sum the bounds of the weakest terms
+		Arrays.sort(order, (a, b) -> Double.compare(bound[a], bound[b]));
+		double[] cumBound = new double[n];
+		double sum = 0;
+		for (int j = 0; j < n; j++) {
+			sum += bound[order[j]];
+			cumBound[j] = sum;
+		}
+
+		TopKHeap heap = new TopKHeap(k);
+		int[] pos = new int[n];
+		double[] contribution = new double[n];
+		boolean[] present = new boolean[n];
+		int firstEssential = 0;
+		while (true) {
+			double threshold = heap.threshold();
+			while (firstEssential < n && cumBound[firstEssential] <= threshold) {
+				firstEssential++;
+			}
+			if (firstEssential == n) {
+				break;
+			}
+			// The next candidate is the smallest docID in the essential lists
+			int docID = Integer.MAX_VALUE;
+			for (int j = firstEssential; j < n; j++) {
+				int t = order[j];
+				if (pos[t] < lists[t].size()) {
+					docID = Math.min(docID, lists[t].getDocID(pos[t]));
+				}
+			}
+			if (docID == Integer.MAX_VALUE) {
+				break;
+			}
+			double docLength = normType == NormalizationType.EUCLIDEAN ? euclidDocLengths[docID] : docLengths[docID];
+			double docPageRank = rankingType == RankingType.TF_IDF ? 0 : pr[docID];
+			double partial = 0;
+			for (int j = firstEssential; j < n; j++) {
+				int t = order[j];
+				if (pos[t] < lists[t].size() && lists[t].getDocID(pos[t]) == docID) {
+					contribution[t] = termScore(rankingType, lists[t].get(pos[t]).offsetCount(), idf[t], docLength, docPageRank);
+					present[t] = true;
+					partial += contribution[t];
+					pos[t]++;
+				}
+			}
+			// Search the non-essential lists, strongest first, while the document can still get in
+			boolean pruned = false;
+			for (int j = firstEssential - 1; j >= 0; j--) {
+				if ((partial + cumBound[j])*(1 + BOUND_MARGIN) < threshold) {
+					pruned = true;
+					break;
+				}
+				int t = order[j];
+				pos[t] = lists[t].seek(pos[t], docID);
+				if (pos[t] < lists[t].size() && lists[t].getDocID(pos[t]) == docID) {
+					contribution[t] = termScore(rankingType, lists[t].get(pos[t]).offsetCount(), idf[t], docLength, docPageRank);
+					present[t] = true;
+					partial += contribution[t];
+				}
+			}
+			if (!pruned) {
+				// Add up the scores in query order, as the exhaustive search does
+				double score = 0;
+				for (int t = 0; t < n; t++) {
+					if (present[t]) {
+						score += contribution[t];
+					}
+				}
+				heap.offer(docID, score);
+			}
+			Arrays.fill(present, false);
+		}
+
+		heap.sort();
+		PostingsList result = new PostingsList(heap.size());
+		for (int i = 0; i < heap.size(); i++) {
+			PostingsEntry e = new PostingsEntry();
+			e.docID = heap.id(i);
+			e.score = heap.score(i);
+			result.append(e);
 		}
 		return result;
 	}
 
+    /**
+     * Selects the k highest scoring postings with a bounded heap, instead of
+     * copying and sorting the whole list. Equal scores keep the order of the
+     * list, as with the stable sort of the full ranking.
+     * 
+     * @param scored 		The scored postings
+     * @param k 			The number of postings to select
+     * 
+     * @return 				The k best postings, sorted on score
+     */
+	private PostingsList topK(PostingsList scored, int k) {
+		TopKHeap heap = new TopKHeap(k);
+		for (int i = 0; i < scored.size(); i++) {
+			heap.offer(i, scored.get(i).score);
+		}
+		heap.sort();
+		PostingsList result = new PostingsList(heap.size());
+		for (int i = 0; i < heap.size(); i++) {
+			result.append(scored.get(heap.id(i)));
+		}
+		return result;
+	}
+
+	/**
+	 * Performs an intersection query. The terms are merged in the order chosen
+	 * by QueryPlan, rarest first, and every list after the first is only
+	 * searched for the documents still in the result.
+	 */
 	private PostingsList unRankedsearch(ArrayList<QueryTerm> term, Query query, QueryType queryType) {
-    	String s1 = term.get(0).term;
-    	PostingsList list1 = index.getPostings(s1);
     	if (term.size()==1) {
-    		return list1;
+    		return index.getPostings(term.get(0).term);
+    	}
+    	if (queryType != QueryType.INTERSECTION_QUERY) {
+    		return positionalSearch(term, query, queryType);
+    	}
+    	QueryPlan plan = QueryPlan.create(index, term);
+    	if (debug) {
+    		System.err.println(queryType + " plan: " + plan);
+    	}
+    	if (plan.isEmpty()) {
+    		return null;
     	}
+    	PostingsList result = index.getPostings(plan.term(0));
     	int i = 1;
-		PostingsList result = list1;
-		while(i<term.size()) {
-			String s2 = term.get(i).term;
-			PostingsList list2 = index.getPostings(s2);
-	    	result = mergeQueryUnranked(result,list2,queryType);
+		while(i<plan.size() && result.size() > 0) {
+			// Only the documents still in the result can match
+			PostingsList list2 = index.getPostings(plan.term(i), result);
+			if (list2 == null) {
+				return null;
+			}
+	    	result = mergeQueryUnranked(result,list2);
 			i++;
 		}
         return result;
 	}
 
-	private PostingsList mergeQueryUnranked(PostingsList list1, PostingsList list2, QueryType queryType) {
+	/**
+	 * Performs a phrase or proximity query with a PhraseMatcher over the
+	 * postings of all terms at once. The lists of all terms but the rarest
+	 * are only read for the documents of the rarest.
+	 * 
+	 * A word repeated in a proximity query only counts once.
+	 */
+	private PostingsList positionalSearch(ArrayList<QueryTerm> term, Query query, QueryType queryType) {
+		ArrayList<QueryTerm> terms = term;
+		if (queryType == QueryType.PROXIMITY_QUERY) {
+			terms = new ArrayList<QueryTerm>();
+			HashSet<String> seen = new HashSet<String>();
+			for (QueryTerm t : term) {
+				if (seen.add(t.term)) {
+					terms.add(t);
+				}
+			}
+			if (terms.size() == 1) {
+				return index.getPostings(terms.get(0).term);
+			}
+		}
+    	QueryPlan plan = QueryPlan.create(index, terms);
+    	if (debug) {
+    		System.err.println(queryType + " plan: " + plan);
+    	}
+    	if (plan.isEmpty()) {
+    		return null;
+    	}
+    	PostingsList[] lists = new PostingsList[plan.size()];
+    	int[] order = new int[plan.size()];
+    	PostingsList rarest = index.getPostings(plan.term(0));
+    	for (int i = 0; i < plan.size(); i++) {
+    		order[i] = plan.position(i);
+    		lists[order[i]] = i == 0 ? rarest : index.getPostings(plan.term(i), rarest);
+    		if (lists[order[i]] == null) {
+    			return null;
+    		}
+    	}
+    	PhraseMatcher matcher = new PhraseMatcher(lists, order);
+    	if (queryType == QueryType.PROXIMITY_QUERY) {
+    		return matcher.matchNear(query.window);
+    	}
+    	return matcher.matchPhrase(query.slop);
+	}
+
+	/**
+	 * Intersects the intermediate result of a query with the postings of one
+	 * more term, keeping the postings of the result.
+	 */
+	private PostingsList mergeQueryUnranked(PostingsList list1, PostingsList list2) {
 		int ind1=0;
 		int ind2=0;
     	PostingsList result = new PostingsList();
 		while (ind1!=list1.size() && ind2!=list2.size()) {
-			int id1 = list1.get(ind1).docID;
-			int id2 = list2.get(ind2).docID;
+			int id1 = list1.getDocID(ind1);
+			int id2 = list2.getDocID(ind2);
 			if (id1==id2) {
-		    	switch(queryType) {
-		    		case INTERSECTION_QUERY:
-		    			result.append(list1.get(ind1));
-		    		case PHRASE_QUERY:
-		    			result = findConsecutive(list1.get(ind1),list2.get(ind2),result);
-		    		default:
-		    			break;
-		    	}
+    			result.append(list1.get(ind1));
 				ind1++;
 				ind2++;
 			}
+			// Gallop ahead to the docID of the other list
 			else if(id1>id2) {
-				ind2++;
+				ind2 = list2.seek(ind2, id1);
 			}
 			else {
-				ind1++;
+				ind1 = list1.seek(ind1, id2);
 			}	
 		}
 		return result;	
 	
 	}
 
-	private PostingsList findConsecutive(PostingsEntry e1, PostingsEntry e2, PostingsList result) {
-		List<Integer> offsetList1 = e1.offsetList;
-		List<Integer> offsetList2 = e2.offsetList;
-		int ind1=0;
-		int ind2=0;
-		while (ind1!=offsetList1.size() && ind2!=offsetList2.size()) {
-			int offset1 = offsetList1.get(ind1);
-			int offset2 = offsetList2.get(ind2);
-
-			if (offset1+1==offset2) {
-				result.add(e1.docID, offset2);
-				ind1++;
-				ind2++;
-			}
-			else if(offset1+1>offset2) {
-				ind2++;
-			}
-			else {
-				ind1++;
-			}	
-		}
-		return result;
-	}
-	
-	
 }
 
 
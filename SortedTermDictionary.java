@@ -0,0 +1,373 @@
+/*
+ *   This file is part of the computer assignment for the
+ *   Information Retrieval course at KTH.
+ *
+ *   Johan Boye, KTH, 2018
+ */
+
+package ir;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.regex.Pattern;
+
+import ir.PersistentHashedIndex.Entry;
+
+
+/**
+ *   An on-disk dictionary that keeps the terms in sorted order, so that
+ *   besides exact lookups it can enumerate all terms with a given prefix
+ *   or matching a wildcard pattern.
+ *
+ *   The terms are stored front-coded in blocks of BLOCKSIZE terms: the first
+ *   term of a block is stored in full, every following term as the number of
+ *   characters it shares with its predecessor plus the remaining suffix. The
+ *   first term of every block is kept in memory, so a lookup is a binary
+ *   search in memory followed by decoding a single block from the mapped file.
+ *
+ *   Layout (vint/vlong are variable-byte encoded):
+ *   <pre>
+ *     int MAGIC, int VERSION, int termCount, int blockSize, int blockCount, long blockIndexPtr
+ *     blocks, each term:  vint shared, vint suffix bytes, UTF-8 suffix, vlong dataPtr, vint dataSize
+ *     block index, each block:  long blockPtr, int term bytes, UTF-8 first term
+ *   </pre>
+ */
+public class SortedTermDictionary implements TermDictionary {
+
+    /** Identifies a sorted dictionary file. */
+    public static final int MAGIC = 0x5354524d;
+
+    /** The version of the file layout. */
+    public static final int VERSION = 1;
+
+    /** Number of terms per front-coded block. */
+    public static final int BLOCKSIZE = 16;
+
+    /** The size of the header in bytes. */
+    public static final int HEADERSIZE = 4 + 4 + 4 + 4 + 4 + 8;
+
+
+    /*
+     *  The entries of a dictionary that is being built.
+     */
+    private ArrayList<String> terms;
+    private long[] dataPtrs;
+    private int[] dataSizes;
+
+    /** The number of terms. */
+    private int termCount;
+
+    /** The mapped file of a dictionary that has been read from disk. */
+    private MappedFile mapped;
+
+    /** The first term of each block. */
+    private String[] firstTerms;
+
+    /** Where each block starts in the file; the last element is the end of the last block. */
+    private long[] blockPtrs;
+
+
+    /**
+     *  Creates an empty dictionary. Terms must be put in increasing order.
+     */
+    public SortedTermDictionary() {
+        terms = new ArrayList<String>();
+        dataPtrs = new long[16];
+        dataSizes = new int[16];
+    }
+
+    private SortedTermDictionary( MappedFile mapped ) {
+        this.mapped = mapped;
+    }
+
+
+    /**
+     *  Opens a dictionary that has been written to the given mapped file.
+     *
+     *  @throws IOException if the file is not a sorted dictionary file
+     */
+    public static SortedTermDictionary open( MappedFile file ) throws IOException {
+        if ( file.length() < HEADERSIZE || file.getInt( 0 ) != MAGIC ) {
+            throw new IOException( "Not a sorted dictionary file" );
+        }
+        if ( file.getInt( 4 ) != VERSION ) {
+            throw new IOException( "Unsupported dictionary version " + file.getInt( 4 ));
+        }
+        SortedTermDictionary dict = new SortedTermDictionary( file );
+        dict.termCount = file.getInt( 8 );
+        int blockCount = file.getInt( 16 );
+        long indexPtr = file.getLong( 20 );
+        dict.firstTerms = new String[blockCount];
+        dict.blockPtrs = new long[blockCount + 1];
+        ByteBuffer index = file.slice( indexPtr, (int) (file.length() - indexPtr) );
+        for ( int i=0; i<blockCount; i++ ) {
+            dict.blockPtrs[i] = index.getLong();
+            byte[] term = new byte[index.getInt()];
+            index.get( term );
+            dict.firstTerms[i] = new String( term, StandardCharsets.UTF_8 );
+        }
+        dict.blockPtrs[blockCount] = indexPtr;
+        return dict;
+    }
+
+
+    // ==================================================================
+
+
+    /**
+     *  Adds a term to a dictionary that is being built.
+     *
+     *  @throws IllegalArgumentException if the term is not greater than the previous one
+     */
+    public void put( String term, long dataPtr, int dataSize ) {
+        if ( termCount > 0 && term.compareTo( terms.get( termCount-1 )) <= 0 ) {
+            throw new IllegalArgumentException( "Terms must be put in increasing order: " + term );
+        }
+        if ( termCount == dataPtrs.length ) {
+            dataPtrs = Arrays.copyOf( dataPtrs, 2*termCount );
+            dataSizes = Arrays.copyOf( dataSizes, 2*termCount );
+        }
+        terms.add( term );
+        dataPtrs[termCount] = dataPtr;
+        dataSizes[termCount] = dataSize;
+        termCount++;
+    }
+
+
+    /**
+     *  Writes a dictionary that has been built to the given file, replacing its contents.
+     */
+    public void write( RandomAccessFile file ) throws IOException {
+        int blockCount = (termCount + BLOCKSIZE - 1) / BLOCKSIZE;
+        long[] ptrs = new long[blockCount];
+        ByteArrayOutputStream block = new ByteArrayOutputStream();
+        file.setLength( 0 );
+        file.seek( HEADERSIZE );
+        // Buffered stream on the file descriptor; it writes at the file pointer, and must not be closed
+        DataOutputStream out = new DataOutputStream( new BufferedOutputStream( new FileOutputStream( file.getFD() ), 1 << 16 ));
+        long ptr = HEADERSIZE;
+        for ( int b=0; b<blockCount; b++ ) {
+            block.reset();
+            String previous = "";
+            for ( int i=b*BLOCKSIZE; i<Math.min( termCount, (b+1)*BLOCKSIZE ); i++ ) {
+                String term = terms.get( i );
+                int shared = sharedPrefix( previous, term );
+                byte[] suffix = term.substring( shared ).getBytes( StandardCharsets.UTF_8 );
+                VByteCodec.writeVInt( block, shared );
+                VByteCodec.writeVInt( block, suffix.length );
+                block.write( suffix, 0, suffix.length );
+                VByteCodec.writeVLong( block, dataPtrs[i] );
+                VByteCodec.writeVInt( block, dataSizes[i] );
+                previous = term;
+            }
+            ptrs[b] = ptr;
+            block.writeTo( out );
+            ptr += block.size();
+        }
+        long indexPtr = ptr;
+        for ( int b=0; b<blockCount; b++ ) {
+            byte[] first = terms.get( b*BLOCKSIZE ).getBytes( StandardCharsets.UTF_8 );
+            out.writeLong( ptrs[b] );
+            out.writeInt( first.length );
+            out.write( first );
+        }
+        out.flush();
+        file.seek( 0 );
+        file.writeInt( MAGIC );
+        file.writeInt( VERSION );
+        file.writeInt( termCount );
+        file.writeInt( BLOCKSIZE );
+        file.writeInt( blockCount );
+        file.writeLong( indexPtr );
+    }
+
+    /**
+     *  Returns the number of leading characters the two strings have in common,
+     *  never splitting a surrogate pair.
+     */
+    private static int sharedPrefix( String s1, String s2 ) {
+        int n = Math.min( s1.length(), s2.length() );
+        int i = 0;
+        while ( i < n && s1.charAt( i ) == s2.charAt( i )) {
+            i++;
+        }
+        if ( i > 0 && Character.isHighSurrogate( s2.charAt( i-1 ))) {
+            i--;
+        }
+        return i;
+    }
+
+
+    // ==================================================================
+
+
+    public int termCount() {
+        return termCount;
+    }
+
+
+    public Entry get( String term ) {
+        TermCursor cursor = cursor( term );
+        if ( cursor.next() && cursor.term().equals( term )) {
+            return cursor.entry();
+        }
+        return null;
+    }
+
+
+    /**
+     *  Returns the terms matching a wildcard pattern in sorted order. Only
+     *  the blocks holding terms that start with the part of the pattern
+     *  before the first '*' are decoded.
+     */
+    public List<String> matchingTerms( String pattern ) {
+        int star = pattern.indexOf( '*' );
+        String prefix = star < 0 ? pattern : pattern.substring( 0, star );
+        Pattern regex = null;
+        if ( star >= 0 ) {
+            StringBuilder sb = new StringBuilder();
+            for ( String part : pattern.split( "\\*", -1 )) {
+                if ( sb.length() > 0 ) {
+                    sb.append( ".*" );
+                }
+                sb.append( Pattern.quote( part ));
+            }
+            regex = Pattern.compile( sb.toString(), Pattern.DOTALL );
+        }
+        ArrayList<String> result = new ArrayList<String>();
+        TermCursor cursor = cursor( prefix );
+        while ( cursor.next() && cursor.term().startsWith( prefix )) {
+            String term = cursor.term();
+            if ( regex == null ? term.equals( pattern ) : regex.matcher( term ).matches() ) {
+                result.add( term );
+            }
+        }
+        return result;
+    }
+
+
+    public void forEachEntry( int part, int parts, Consumer<Entry> action ) {
+        int from = (int) ((long) firstTerms.length * part / parts);
+        int to = (int) ((long) firstTerms.length * (part+1) / parts);
+        TermCursor cursor = new TermCursor( from, "" );
+        while ( cursor.next() && cursor.block < to ) {
+            action.accept( cursor.entry() );
+        }
+    }
+
+    public int ordinalCount() {
+        return termCount;
+    }
+
+
+    /**
+     *  Returns a cursor over all terms in sorted order.
+     */
+    public TermCursor cursor() {
+        return new TermCursor( 0, "" );
+    }
+
+    /**
+     *  Returns a cursor over the terms in sorted order, starting at the
+     *  first term that is not smaller than the given one.
+     */
+    public TermCursor cursor( String from ) {
+        // The last block whose first term is not greater than 'from'
+        int b = Arrays.binarySearch( firstTerms, from );
+        if ( b < 0 ) {
+            b = Math.max( 0, -b - 2 );
+        }
+        return new TermCursor( b, from );
+    }
+
+
+    /**
+     *  Decodes the terms of the dictionary block by block, in sorted order.
+     */
+    public class TermCursor {
+
+        /** The block that is being decoded. */
+        private int block;
+
+        /** The rest of the block, or null before the block has been read. */
+        private ByteBuffer buf;
+
+        /** Terms smaller than this one are skipped. */
+        private String from;
+
+        private String term = "";
+        private long dataPtr;
+        private int dataSize;
+
+        /** The rank of the current term. */
+        private int ordinal;
+
+        private TermCursor( int block, String from ) {
+            this.block = block;
+            this.from = from;
+        }
+
+        /**
+         *  Moves to the next term.
+         *
+         *  @return false if there are no more terms
+         */
+        public boolean next() {
+            do {
+                while ( buf == null || !buf.hasRemaining() ) {
+                    if ( buf != null ) {
+                        block++;
+                    }
+                    if ( block >= firstTerms.length ) {
+                        return false;
+                    }
+                    buf = mapped.slice( blockPtrs[block], (int) (blockPtrs[block+1] - blockPtrs[block]) );
+                    term = "";
+                    ordinal = block*BLOCKSIZE - 1;
+                }
+                int shared = VByteCodec.readVInt( buf );
+                byte[] suffix = new byte[VByteCodec.readVInt( buf )];
+                buf.get( suffix );
+                term = term.substring( 0, shared ) + new String( suffix, StandardCharsets.UTF_8 );
+                dataPtr = VByteCodec.readVLong( buf );
+                dataSize = VByteCodec.readVInt( buf );
+                ordinal++;
+            } while ( term.compareTo( from ) < 0 );
+            return true;
+        }
+
+        public String term() {
+            return term;
+        }
+
+        public long dataPtr() {
+            return dataPtr;
+        }
+
+        public int dataSize() {
+            return dataSize;
+        }
+
+        /** The rank of the current term in the dictionary. */
+        public int ordinal() {
+            return ordinal;
+        }
+
+        /** The dictionary entry of the current term. */
+        public Entry entry() {
+            Entry e = new Entry( 0L, dataPtr, dataSize );
+            e.ordinal = ordinal;
+            return e;
+        }
+    }
+}
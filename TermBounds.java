@@ -0,0 +1,235 @@
+/*
+ *   This file is part of the computer assignment for the
+ *   Information Retrieval course at KTH.
+ *
+ *   Johan Boye, 2017
+ */
+
+package ir;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+
+/**
+ *   The largest normalised term frequency of every term of an index: the
+ *   maximum of tf/length over the documents in its postings list, once with
+ *   the length in tokens and once with the Euclidean length. Multiplied by
+ *   the idf of the term, this bounds the tf-idf score the term can give any
+ *   document, which lets ranked retrieval skip documents that cannot make
+ *   it into the top k. The idf of every term is kept along with its bounds,
+ *   so that ranked queries do not have to compute it.
+ *
+ *   The bounds are kept per dictionary ordinal, rounded up to floats, and
+ *   the bounds file records the same stamp as the norms file, since the
+ *   Euclidean bounds depend on the norms.
+ *   <pre>
+ *     int MAGIC, int VERSION, long stamp, int number of ordinals
+ *     float bound over lengths in tokens for every ordinal
+ *     float bound over Euclidean lengths for every ordinal
+ *     double idf for every ordinal
+ *   </pre>
+ */
+public class TermBounds {
+
+    /** Identifies a bounds file. */
+    public static final int MAGIC = 0x54424e44;
+
+    /** The version of the file layout. */
+    public static final int VERSION = 2;
+
+    /** The size of the header in bytes. */
+    public static final int HEADERSIZE = 4 + 4 + 8 + 4;
+
+    /** The bound of each ordinal with lengths in tokens. */
+    private final float[] byLength;
+
+    /** The bound of each ordinal with Euclidean lengths. */
+    private final float[] byNorm;
+
+    /** The idf of each ordinal. */
+    private final double[] idf;
+
+
+    /**
+     *  Creates bounds for the given number of ordinals, all unknown (NaN).
+     */
+    public TermBounds( int ordinalCount ) {
+        byLength = new float[ordinalCount];
+        byNorm = new float[ordinalCount];
+        idf = new double[ordinalCount];
+        Arrays.fill( byLength, Float.NaN );
+        Arrays.fill( byNorm, Float.NaN );
+        Arrays.fill( idf, Double.NaN );
+    }
+
+
+    /**
+     *  The idf of a term, log(N/df), with N/df rounded to a float. This is
+     *  the only place where idfs are computed, so that stored and computed
+     *  idfs agree to the bit.
+     *
+     *  @param N The number of documents
+     *  @param df The number of documents containing the term
+     */
+    public static double idf( int N, int df ) {
+        float frac = ((float) N)/((float) df);
+        return Math.log( frac );
+    }
+
+
+    /**
+     *  Computes the bounds of one postings list. A document of length 0
+     *  gives an infinite bound, which turns pruning off for the term.
+     *
+     *  @return { max tf/length in tokens, max tf/Euclidean length }, rounded up to floats
+     */
+    public static float[] compute( PostingsList list, DocumentStore documents ) {
+        int[] lengths = documents.lengths();
+        double[] norms = documents.euclideanLengths();
+        double maxByLength = 0;
+        double maxByNorm = 0;
+        for ( int i=0; i<list.size(); i++ ) {
+            int docID = list.getDocID( i );
+            double tf = list.get( i ).offsetCount();
+            maxByLength = Math.max( maxByLength, tf / lengths[docID] );
+            maxByNorm = Math.max( maxByNorm, tf / norms[docID] );
+        }
+        return new float[] { roundUp( maxByLength ), roundUp( maxByNorm ) };
+    }
+
+    /** The smallest float that is not below x. */
+    private static float roundUp( double x ) {
+        float f = (float) x;
+        return f < x ? Math.nextUp( f ) : f;
+    }
+
+    /**
+     *  Computes the bounds of every term in a dictionary, using all
+     *  available processors. The documents must have their Euclidean
+     *  lengths.
+     *
+     *  @param index The index the dictionary belongs to, for its postings
+     *  @throws IllegalStateException if a thread fails, or the computation
+     *          is interrupted; a bound left unset could drop results
+     */
+    static TermBounds compute( PersistentHashedIndex index, TermDictionary dictionary ) {
+        int threads = Math.max( 1, Math.min( Runtime.getRuntime().availableProcessors(), DocumentNorms.PARTS ));
+        TermBounds bounds = new TermBounds( dictionary.ordinalCount() );
+        DocumentStore documents = index.getDocumentStore();
+        ExecutorService pool = Executors.newFixedThreadPool( threads );
+        ArrayList<Future<?>> parts = new ArrayList<Future<?>>();
+        for ( int p=0; p<DocumentNorms.PARTS; p++ ) {
+            final int part = p;
+            // Every part writes its own ordinals only
+            parts.add( pool.submit( () -> dictionary.forEachEntry( part, DocumentNorms.PARTS, e -> {
+                PostingsList list = index.readPostings( e );
+                float[] b = compute( list, documents );
+                bounds.byLength[e.ordinal] = b[0];
+                bounds.byNorm[e.ordinal] = b[1];
+                bounds.idf[e.ordinal] = idf( documents.size(), list.size() );
+            })));
+        }
+        try {
+            for ( Future<?> part : parts ) {
+                part.get();
+            }
+        } catch ( InterruptedException e ) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException( "Computing the term bounds was interrupted", e );
+        } catch ( ExecutionException e ) {
+            throw new IllegalStateException( "Computing the term bounds failed", e.getCause() );
+        } finally {
+            pool.shutdownNow();
+        }
+        return bounds;
+    }
+
+
+    /**
+     *  Returns the bound of an ordinal, or NaN if it is not known.
+     */
+    public float get( int ordinal, NormalizationType normType ) {
+        if ( ordinal < 0 || ordinal >= byLength.length ) {
+            return Float.NaN;
+        }
+        return normType == NormalizationType.EUCLIDEAN ? byNorm[ordinal] : byLength[ordinal];
+    }
+
+    /**
+     *  Returns the idf of an ordinal, or NaN if it is not known.
+     */
+    public double idf( int ordinal ) {
+        if ( ordinal < 0 || ordinal >= idf.length ) {
+            return Double.NaN;
+        }
+        return idf[ordinal];
+    }
+
+
+    /**
+     *  Writes the bounds to a file, replacing it.
+     *
+     *  @param stamp Identifies the index the bounds were computed for
+     */
+    public void write( File file, long stamp ) throws IOException {
+        File tmp = new File( file.getPath() + ".tmp" );
+        try ( DataOutputStream out = new DataOutputStream( new BufferedOutputStream( new FileOutputStream( tmp ), 1 << 16 ))) {
+            out.writeInt( MAGIC );
+            out.writeInt( VERSION );
+            out.writeLong( stamp );
+            out.writeInt( byLength.length );
+            for ( int i=0; i<byLength.length; i++ ) {
+                out.writeFloat( byLength[i] );
+            }
+            for ( int i=0; i<byNorm.length; i++ ) {
+                out.writeFloat( byNorm[i] );
+            }
+            for ( int i=0; i<idf.length; i++ ) {
+                out.writeDouble( idf[i] );
+            }
+        }
+        Files.move( tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE );
+    }
+
+    /**
+     *  Reads bounds from a file.
+     *
+     *  @param stamp Identifies the current index
+     *  @return The bounds, or null if there is no bounds file or it was
+     *          written for another index
+     */
+    public static TermBounds read( File file, long stamp ) throws IOException {
+        if ( !file.exists() ) {
+            return null;
+        }
+        MappedFile mapped;
+        try ( RandomAccessFile raf = new RandomAccessFile( file, "r" )) {
+            mapped = new MappedFile( raf );
+        }
+        if ( mapped.length() < HEADERSIZE || mapped.getInt( 0 ) != MAGIC || mapped.getInt( 4 ) != VERSION ) {
+            return null;
+        }
+        if ( mapped.getLong( 8 ) != stamp ) {
+            return null;
+        }
+        int count = mapped.getInt( 16 );
+        TermBounds bounds = new TermBounds( count );
+        mapped.slice( HEADERSIZE, 4*count ).asFloatBuffer().get( bounds.byLength );
+        mapped.slice( HEADERSIZE + 4L*count, 4*count ).asFloatBuffer().get( bounds.byNorm );
+        mapped.slice( HEADERSIZE + 8L*count, 8*count ).asDoubleBuffer().get( bounds.idf );
+        return bounds;
+    }
+}
@@ -0,0 +1,54 @@
+/*  
+ *   This file is part of the computer assignment for the
+ *   Information Retrieval course at KTH.
+ * 
+ *   Johan Boye, KTH, 2018
+ */  
+
+package ir;
+
+import java.util.List;
+import java.util.function.Consumer;
+
+import ir.PersistentHashedIndex.Entry;
+
+
+/**
+ *  The on-disk dictionary of a persistent index, mapping terms to the
+ *  location of their postings in the data file.
+ */
+public interface TermDictionary {
+
+    /** Returns the entry of the given term, or null if the term is not in the dictionary. */
+    public Entry get( String term );
+
+    /** Returns the number of terms in the dictionary. */
+    public int termCount();
+
+    /**
+     *  Returns one more than the largest ordinal of an entry. Every entry
+     *  has a distinct ordinal, so per-term data can be kept in arrays of
+     *  this size: the slot in a hashed dictionary, the rank of the term in
+     *  a sorted one.
+     */
+    public int ordinalCount();
+
+    /**
+     *  Returns the terms matching a wildcard pattern in sorted order, where
+     *  '*' matches any sequence of characters.
+     *
+     *  @throws UnsupportedOperationException if the dictionary does not store the terms
+     */
+    public List<String> matchingTerms( String pattern );
+
+    /**
+     *  Visits the entries in one of 'parts' equal ranges of the dictionary,
+     *  in the order they are stored. Different parts may be visited by
+     *  different threads at the same time.
+     *
+     *  @param part The range to visit, from 0 to parts-1
+     *  @param parts The number of ranges the dictionary is split into
+     */
+    public void forEachEntry( int part, int parts, Consumer<Entry> action );
+
+}
@@ -0,0 +1,161 @@
+/*
+ *   This file is part of the computer assignment for the
+ *   Information Retrieval course at KTH.
+ *
+ *   Johan Boye, 2017
+ */
+
+package ir;
+
+
+/**
+ *   Keeps the k best (id, score) pairs offered to it, in a binary min-heap
+ *   over two primitive arrays. The root is the worst pair kept, so a new
+ *   pair only has to beat the root to get in.
+ *
+ *   Pairs are ordered on score, highest first, as Double.compare orders
+ *   them. Equal scores are ordered on id, lowest first, which matches a
+ *   stable sort of a list where the id is the position in the list (or
+ *   the docID of a list sorted on docID).
+ */
+public class TopKHeap {
+
+    /** The ids of the pairs kept. */
+    private final int[] ids;
+
+    /** The scores of the pairs kept. */
+    private final double[] scores;
+
+    /** The number of pairs kept. */
+    private int size = 0;
+
+    /** Set once the pairs have been sorted. */
+    private boolean sorted = false;
+
+
+    /**
+     *  Creates an empty heap.
+     *
+     *  @param k The number of pairs to keep
+     */
+    public TopKHeap( int k ) {
+        if ( k <= 0 ) {
+            throw new IllegalArgumentException( "k must be positive: " + k );
+        }
+        ids = new int[k];
+        scores = new double[k];
+    }
+
+
+    /** Returns true if pair a comes after pair b in the ranking. */
+    private boolean worse( double scoreA, int idA, double scoreB, int idB ) {
+        int cmp = Double.compare( scoreA, scoreB );
+        return cmp < 0 || (cmp == 0 && idA > idB);
+    }
+
+    /**
+     *  Offers a pair to the heap.
+     *
+     *  @return true if the pair is among the k best so far
+     */
+    public boolean offer( int id, double score ) {
+        if ( sorted ) {
+            throw new IllegalStateException( "The heap has been sorted" );
+        }
+        if ( size < ids.length ) {
+            // Sift the new pair up from the bottom
+            int i = size++;
+            while ( i > 0 ) {
+                int parent = (i-1) >>> 1;
+                if ( !worse( score, id, scores[parent], ids[parent] )) {
+                    break;
+                }
+                ids[i] = ids[parent];
+                scores[i] = scores[parent];
+                i = parent;
+            }
+            ids[i] = id;
+            scores[i] = score;
+            return true;
+        }
+        if ( !worse( scores[0], ids[0], score, id )) {
+            return false;
+        }
+        siftDown( id, score, size );
+        return true;
+    }
+
+    /**
+     *  Puts the pair at the root and sifts it down to its place among the
+     *  first n pairs.
+     */
+    private void siftDown( int id, double score, int n ) {
+        int i = 0;
+        while ( true ) {
+            int child = 2*i + 1;
+            if ( child >= n ) {
+                break;
+            }
+            if ( child+1 < n && worse( scores[child+1], ids[child+1], scores[child], ids[child] )) {
+                child++;
+            }
+            if ( !worse( scores[child], ids[child], score, id )) {
+                break;
+            }
+            ids[i] = ids[child];
+            scores[i] = scores[child];
+            i = child;
+        }
+        ids[i] = id;
+        scores[i] = score;
+    }
+
+
+    /** The number of pairs kept. */
+    public int size() {
+        return size;
+    }
+
+    /** Returns true if the heap holds k pairs. */
+    public boolean isFull() {
+        return size == ids.length;
+    }
+
+    /**
+     *  The score a pair has to beat to get in: the lowest score kept once
+     *  the heap is full, and negative infinity before that.
+     */
+    public double threshold() {
+        return isFull() ? scores[0] : Double.NEGATIVE_INFINITY;
+    }
+
+
+    /**
+     *  Sorts the pairs best first. After this, no more pairs can be offered,
+     *  and id(i) and score(i) give the ith best pair.
+     */
+    public void sort() {
+        if ( sorted ) {
+            return;
+        }
+        // Heap sort: move the worst pair to the end of the shrinking heap
+        for ( int n=size-1; n>0; n-- ) {
+            int id = ids[n];
+            double score = scores[n];
+            ids[n] = ids[0];
+            scores[n] = scores[0];
+            siftDown( id, score, n );
+        }
+        sorted = true;
+    }
+
+    /** The id of the ith best pair, once the heap has been sorted. */
+    public int id( int i ) {
+        return ids[i];
+    }
+
+    /** The score of the ith best pair, once the heap has been sorted. */
+    public double score( int i ) {
+        return scores[i];
+    }
+}
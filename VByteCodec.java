@@ -0,0 +1,245 @@
+/*  
+ *   This file is part of the computer assignment for the
+ *   Information Retrieval course at KTH.
+ * 
+ *   Johan Boye, KTH, 2018
+ */  
+
+package ir;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+
+
+/**
+ *  Encodes postings lists with gap encoding and variable-byte compression.
+ *
+ *  Layout (all numbers variable-byte encoded, except the version byte):
+ *  <pre>
+ *    version
+ *    df
+ *    number of blocks (0 if df is at most BLOCKSIZE)
+ *    for every block:  gap between the last docIDs of the block and the block before, size in bytes
+ *    df times:  docID gap, tf, tf times: offset gap
+ *  </pre>
+ *  The docID gap of the first posting and the offset gap of the first offset
+ *  in each posting are taken from zero. Scores are not stored, since they are
+ *  computed at query time.
+ *
+ *  The postings of a long list are split in blocks of BLOCKSIZE postings,
+ *  and the block table acts as skip pointers: when only some documents are
+ *  wanted, blocks whose docID range holds none of them are skipped without
+ *  being decoded. Lists written in version 1, without a block table, can
+ *  still be read.
+ */
+public class VByteCodec implements PostingsCodec {
+
+    /** The format version written in the first byte of every list. */
+    public static final byte VERSION = 2;
+
+    /** The first version, which has no block table. */
+    static final byte VERSION_NO_BLOCKS = 1;
+
+    /** The number of postings in a block. */
+    public static final int BLOCKSIZE = 128;
+
+
+    public byte[] encode( PostingsList list ) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream( 4 + 4*list.size() );
+        out.write( VERSION );
+        writeVInt( out, list.size() );
+        int blockCount = list.size() > BLOCKSIZE ? (list.size() + BLOCKSIZE - 1) / BLOCKSIZE : 0;
+        writeVInt( out, blockCount );
+        if ( blockCount == 0 ) {
+            writePostings( out, list, 0, list.size(), 0 );
+            return out.toByteArray();
+        }
+        ByteArrayOutputStream blocks = new ByteArrayOutputStream( 4*list.size() );
+        int lastDocID = 0;
+        for ( int b=0; b<blockCount; b++ ) {
+            int end = Math.min( list.size(), (b+1)*BLOCKSIZE );
+            int start = blocks.size();
+            writePostings( blocks, list, b*BLOCKSIZE, end, lastDocID );
+            int blockLast = list.getDocID( end-1 );
+            writeVInt( out, blockLast - lastDocID );
+            writeVInt( out, blocks.size() - start );
+            lastDocID = blockLast;
+        }
+        out.write( blocks.toByteArray(), 0, blocks.size() );
+        return out.toByteArray();
+    }
+
+    /**
+     *  Writes the postings from position start to end, with docID gaps taken
+     *  from lastDocID.
+     */
+    private static void writePostings( ByteArrayOutputStream out, PostingsList list, int start, int end, int lastDocID ) {
+        for ( int i=start; i<end; i++ ) {
+            PostingsEntry e = list.get( i );
+            writeVInt( out, e.docID - lastDocID );
+            lastDocID = e.docID;
+            int tf = e.offsetCount();
+            writeVInt( out, tf );
+            int lastOffset = 0;
+            for ( int j=0; j<tf; j++ ) {
+                int offset = e.getOffset( j );
+                writeVInt( out, offset - lastOffset );
+                lastOffset = offset;
+            }
+        }
+    }
+
+
+    public PostingsList decode( ByteBuffer buf ) {
+        byte version = buf.get();
+        if ( version != VERSION && version != VERSION_NO_BLOCKS ) {
+            throw new IllegalArgumentException( "Unsupported postings format version " + version );
+        }
+        int df = readVInt( buf );
+        if ( version == VERSION ) {
+            // The postings follow the block table
+            int blockCount = readVInt( buf );
+            for ( int b=0; b<2*blockCount; b++ ) {
+                readVInt( buf );
+            }
+        }
+        PostingsList list = new PostingsList( df );
+        int docID = 0;
+        for ( int i=0; i<df; i++ ) {
+            docID += readVInt( buf );
+            int tf = readVInt( buf );
+            int offset = 0;
+            for ( int j=0; j<tf; j++ ) {
+                offset += readVInt( buf );
+                list.add( docID, offset );
+            }
+        }
+        return list;
+    }
+
+
+    /**
+     *  Reads the number of postings from the header, without decoding them.
+     */
+    public int documentFrequency( ByteBuffer buf ) {
+        byte version = buf.get();
+        if ( version != VERSION && version != VERSION_NO_BLOCKS ) {
+            throw new IllegalArgumentException( "Unsupported postings format version " + version );
+        }
+        return readVInt( buf );
+    }
+
+
+    /**
+     *  Decodes only the postings of the documents in candidates. Blocks
+     *  whose docIDs lie between two candidates are skipped, and within the
+     *  blocks that are read, only matching postings get their offsets
+     *  decoded into the list.
+     */
+    public PostingsList decode( ByteBuffer buf, PostingsList candidates ) {
+        if ( buf.get( buf.position() ) != VERSION ) {
+            return decode( buf );
+        }
+        buf.get();
+        int df = readVInt( buf );
+        int blockCount = readVInt( buf );
+        PostingsList list = new PostingsList( Math.min( df, candidates.size() ));
+        if ( blockCount == 0 ) {
+            decodeMatching( buf, df, 0, candidates, 0, list );
+            return list;
+        }
+        int[] lastDocIDs = new int[blockCount];
+        int[] blockSizes = new int[blockCount];
+        int lastDocID = 0;
+        for ( int b=0; b<blockCount; b++ ) {
+            lastDocID += readVInt( buf );
+            lastDocIDs[b] = lastDocID;
+            blockSizes[b] = readVInt( buf );
+        }
+        int blockPtr = buf.position();
+        int c = 0;
+        int previousLast = 0;
+        for ( int b=0; b<blockCount && c<candidates.size(); b++ ) {
+            // Read the block only if a candidate falls in its docID range
+            c = candidates.seek( c, b == 0 ? 0 : previousLast+1 );
+            if ( c < candidates.size() && candidates.getDocID( c ) <= lastDocIDs[b] ) {
+                buf.position( blockPtr );
+                int count = Math.min( BLOCKSIZE, df - b*BLOCKSIZE );
+                c = decodeMatching( buf, count, previousLast, candidates, c, list );
+            }
+            blockPtr += blockSizes[b];
+            previousLast = lastDocIDs[b];
+        }
+        return list;
+    }
+
+    /**
+     *  Decodes count postings with docID gaps taken from lastDocID, and adds
+     *  those of documents in candidates to the list.
+     *
+     *  @param c Where to start looking in candidates
+     *  @return Where to continue looking in candidates
+     */
+    private static int decodeMatching( ByteBuffer buf, int count, int lastDocID, PostingsList candidates, int c, PostingsList list ) {
+        int docID = lastDocID;
+        for ( int i=0; i<count; i++ ) {
+            docID += readVInt( buf );
+            int tf = readVInt( buf );
+            c = candidates.seek( c, docID );
+            boolean wanted = c < candidates.size() && candidates.getDocID( c ) == docID;
+            int offset = 0;
+            for ( int j=0; j<tf; j++ ) {
+                offset += readVInt( buf );
+                if ( wanted ) {
+                    list.add( docID, offset );
+                }
+            }
+        }
+        return c;
+    }
+
+
+    /** Writes a non-negative int using 7 bits per byte, low bits first. */
+    static void writeVInt( ByteArrayOutputStream out, int value ) {
+        while ( (value & ~0x7F) != 0 ) {
+            out.write( (value & 0x7F) | 0x80 );
+            value >>>= 7;
+        }
+        out.write( value );
+    }
+
+    /** Writes a non-negative long using 7 bits per byte, low bits first. */
+    static void writeVLong( ByteArrayOutputStream out, long value ) {
+        while ( (value & ~0x7FL) != 0 ) {
+            out.write( (int) (value & 0x7F) | 0x80 );
+            value >>>= 7;
+        }
+        out.write( (int) value );
+    }
+
+    /** Reads an int written by writeVInt. */
+    static int readVInt( ByteBuffer buf ) {
+        int value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = buf.get();
+            value |= (b & 0x7F) << shift;
+            shift += 7;
+        } while ( (b & 0x80) != 0 );
+        return value;
+    }
+
+    /** Reads a long written by writeVLong. */
+    static long readVLong( ByteBuffer buf ) {
+        long value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = buf.get();
+            value |= (long) (b & 0x7F) << shift;
+            shift += 7;
+        } while ( (b & 0x80) != 0 );
+        return value;
+    }
+}